@@ -10,6 +10,8 @@ public class PCRTest implements Record<PCRTest> {
     private static final int DATE_TIME_SIZE = 19; // yyyy-MM-dd HH:mm:ss
     private static final int PATIENT_ID_SIZE = 10;
     private static final int NOTE_SIZE = 11;
+    // offset of the serialized test code
+    private static final int TEST_CODE_OFFSET = (1 + DATE_TIME_SIZE) + (1 + PATIENT_ID_SIZE);
 
     private LocalDateTime dateTime;
     private String patientId;
@@ -96,6 +98,30 @@ public class PCRTest implements Record<PCRTest> {
         this.note = this.getFixedString(buffer, NOTE_SIZE);
     }
 
+    /**
+     * Compares the serialized test code with the key without creating a PCRTest
+     * The key must match the code as getKey writes it, so "007" or "+7" do not match 7
+     */
+    @Override
+    public boolean keyEquals(ByteBuffer data, int offset, String key) {
+        long code = data.getInt(offset + TEST_CODE_OFFSET);
+        int start = 0;
+        if (code < 0) {
+            if (key.isEmpty() || key.charAt(0) != '-') return false;
+            code = -code;
+            start = 1;
+        }
+
+        // digits from the last one, the key has to end exactly where the code does
+        int i = key.length() - 1;
+        do {
+            if (i < start || key.charAt(i) != (char) ('0' + code % 10)) return false;
+            code /= 10;
+            i--;
+        } while (code != 0);
+        return i == start - 1;
+    }
+
     @Override
     public PCRTest createClass() {
         return new PCRTest();
@@ -18,6 +18,8 @@ public class Person implements Record<Person> {
     private static final int MAX_TESTS = 6;
     // size of one test code (int) in bytes
     private static final int TEST_CODE_SIZE = 4;
+    // offset of the serialized id field (length byte + bytes)
+    private static final int ID_OFFSET = (1 + NAME_SIZE) + (1 + SURNAME_SIZE) + (1 + DATE_OF_BIRTH_SIZE);
 
     private String name;
     private String surname;
@@ -137,6 +139,30 @@ public class Person implements Record<Person> {
         buffer.position(buffer.position() + (MAX_TESTS - testCount) * TEST_CODE_SIZE);
     }
 
+    /**
+     * Compares the serialized id with the key without creating a Person
+     */
+    @Override
+    public boolean keyEquals(ByteBuffer data, int offset, String key) {
+        int pos = offset + ID_OFFSET;
+        int length = Math.min(Byte.toUnsignedInt(data.get(pos)), ID_SIZE);
+
+        if (key.length() != length) {
+            // multi-byte characters can make the byte length differ from the string length
+            for (int i = 0; i < key.length(); i++) {
+                if (key.charAt(i) >= 0x80) return Record.super.keyEquals(data, offset, key);
+            }
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            char c = key.charAt(i);
+            if (c >= 0x80) return Record.super.keyEquals(data, offset, key);
+            if (data.get(pos + 1 + i) != (byte) c) return false;
+        }
+        return true;
+    }
+
     /**
      * Creates a new Person instance
      */
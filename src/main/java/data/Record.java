@@ -1,5 +1,7 @@
 package data;
 
+import java.nio.ByteBuffer;
+
 public interface Record<T> {
     boolean equals(Object other);
     int getSize();
@@ -8,4 +10,16 @@ public interface Record<T> {
     T createClass();
     String getKey();
     void setKey(String key);
+
+    /**
+     * Checks whether the record serialized at the given offset has the given key
+     * The default implementation deserializes the record, implementations compare the key bytes in place
+     */
+    default boolean keyEquals(ByteBuffer data, int offset, String key) {
+        byte[] bytes = new byte[this.getSize()];
+        data.get(offset, bytes);
+        Record<?> record = (Record<?>) this.createClass();
+        record.fromBytes(bytes);
+        return key.equals(record.getKey());
+    }
 }
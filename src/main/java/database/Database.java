@@ -1,19 +1,50 @@
 package database;
 
+import hash.HashIndex;
+import hash.HashIndexType;
 import hash.LinearHashing;
+import hash.SplitPolicy;
+import hash.StripedLock;
+import heap.BufferPool;
+import heap.StorageMode;
 import data.Person;
 import data.PCRTest;
+import data.Record;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 
 public class Database {
-    private final LinearHashing<Person> persons;
-    private final LinearHashing<PCRTest> tests;
-
-    private int nextTestCounter;
-    private int nextPatientCounter;
-    private String lastError = null;
+    // load factor the hash files are built at by a bulk load
+    private static final double BULK_LOAD_FACTOR = 0.7;
+    private static final int PATIENT_LOCK_STRIPES = 64;
+
+    private final HashIndex<Person> persons;
+    private final HashIndex<PCRTest> tests;
+    private final BufferPool bufferPool; // page cache shared by both hash files
+    private final long recordCacheSize; // split between the caches of persons and tests
+    private final RecordCache<Person> personCache;
+    private final RecordCache<PCRTest> testCache;
+    private StorageMode storageMode = StorageMode.FILE_CHANNEL;
+    private HashIndexType indexType = HashIndexType.LINEAR;
+    private final int initialM;
+    private final int personBlockSize;
+    private final int testBlockSize;
+    private final int personOverflowBlockSize;
+    private final int testOverflowBlockSize;
+    private boolean backgroundRestructuring = false; // splits and merges of both files run on worker threads
+
+    private final AtomicInteger nextTestCounter = new AtomicInteger(1);
+    private final AtomicInteger nextPatientCounter = new AtomicInteger(1);
+    private volatile String lastError = null;
+
+    // operations that read and rewrite a person (and its tests) hold the stripe of the patient id
+    private final StripedLock patientLocks = new StripedLock(PATIENT_LOCK_STRIPES);
 
     private final String basePath;
     private final String personsFilePath;
@@ -21,31 +52,49 @@ public class Database {
 
     // for creating new database
     public Database(String basePath, int initialM, int personBlockSize, int testBlockSize, int personOverflowBlockSize, int testOverflowBlockSize) throws IOException {
+        this(basePath, initialM, personBlockSize, testBlockSize, personOverflowBlockSize, testOverflowBlockSize,
+                HashIndexType.LINEAR);
+    }
+
+    // for creating new database with the given hashing engine
+    public Database(String basePath, int initialM, int personBlockSize, int testBlockSize, int personOverflowBlockSize,
+                    int testOverflowBlockSize, HashIndexType indexType) throws IOException {
         this.basePath = basePath;
+        this.indexType = indexType;
+        this.initialM = initialM;
+        this.personBlockSize = personBlockSize;
+        this.testBlockSize = testBlockSize;
+        this.personOverflowBlockSize = personOverflowBlockSize;
+        this.testOverflowBlockSize = testOverflowBlockSize;
         this.personsFilePath = basePath + "/persons.dat";
         this.testsFilePath   = basePath + "/tests.dat";
 
         Person personTemplate = new Person();
         PCRTest testTemplate  = new PCRTest();
 
-        this.persons = new LinearHashing<>(
+        this.bufferPool = new BufferPool(BufferPool.DEFAULT_MEMORY_BUDGET);
+        this.recordCacheSize = RecordCache.DEFAULT_MEMORY_BUDGET;
+        this.personCache = new RecordCache<>(personTemplate, this.recordCacheSize / 2);
+        this.testCache = new RecordCache<>(testTemplate, this.recordCacheSize / 2);
+        this.persons = this.indexType.open(
                 this.personsFilePath,
                 personBlockSize,
                 personOverflowBlockSize,
                 personTemplate,
-                initialM
+                initialM,
+                this.bufferPool,
+                this.storageMode
         );
-        this.tests = new LinearHashing<>(
+        this.tests = this.indexType.open(
                 this.testsFilePath,
                 testBlockSize,
                 testOverflowBlockSize,
                 testTemplate,
-                initialM
+                initialM,
+                this.bufferPool,
+                this.storageMode
         );
 
-        this.nextPatientCounter = 1;
-        this.nextTestCounter = 1;
-
         writeConfig(initialM, personBlockSize, testBlockSize, personOverflowBlockSize, testOverflowBlockSize);
     }
 
@@ -56,6 +105,13 @@ public class Database {
         this.testsFilePath = basePath + "/tests.dat";
 
         int initialM = 4, personBlockSize = 1024, testBlockSize = 2048, personOverflowBlockSize = 512, testOverflowBlockSize = 512;
+        long bufferPoolSize = BufferPool.DEFAULT_MEMORY_BUDGET;
+        long recordCacheSize = RecordCache.DEFAULT_MEMORY_BUDGET;
+        SplitPolicy defaults = SplitPolicy.DEFAULT;
+        double splitMaxLoad = defaults.getMaxLoad(), splitMinLoad = defaults.getMinLoad(), mergeHysteresis = defaults.getHysteresis();
+        boolean splitPrimaryLoad = defaults.isPrimaryLoad();
+        int splitMaxChainLength = defaults.getMaxChainLength();
+        boolean splitPolicyConfigured = false;
         Integer loadedNextPatient = null;
         Integer loadedNextTest = null;
 
@@ -75,32 +131,98 @@ public class Database {
                 else if (line.startsWith("nextPatientCounter="))
                     loadedNextPatient = Integer.parseInt(line.split("=", 2)[1]);
                 else if (line.startsWith("nextTestCounter=")) loadedNextTest = Integer.parseInt(line.split("=", 2)[1]);
+                else if (line.startsWith("bufferPoolSize=")) bufferPoolSize = Long.parseLong(line.split("=", 2)[1]);
+                else if (line.startsWith("recordCacheSize=")) recordCacheSize = Long.parseLong(line.split("=", 2)[1]);
+                else if (line.startsWith("storageMode=")) this.storageMode = StorageMode.valueOf(line.split("=", 2)[1].trim());
+                else if (line.startsWith("indexType=")) this.indexType = HashIndexType.valueOf(line.split("=", 2)[1].trim());
+                else if (line.startsWith("backgroundRestructuring="))
+                    this.backgroundRestructuring = Boolean.parseBoolean(line.split("=", 2)[1].trim());
+                else if (line.startsWith("splitMaxLoad=")) {
+                    splitMaxLoad = Double.parseDouble(line.split("=", 2)[1]);
+                    splitPolicyConfigured = true;
+                } else if (line.startsWith("splitMinLoad=")) {
+                    splitMinLoad = Double.parseDouble(line.split("=", 2)[1]);
+                    splitPolicyConfigured = true;
+                } else if (line.startsWith("splitPrimaryLoad=")) {
+                    splitPrimaryLoad = Boolean.parseBoolean(line.split("=", 2)[1].trim());
+                    splitPolicyConfigured = true;
+                } else if (line.startsWith("splitMaxChainLength=")) {
+                    splitMaxChainLength = Integer.parseInt(line.split("=", 2)[1]);
+                    splitPolicyConfigured = true;
+                } else if (line.startsWith("mergeHysteresis=")) {
+                    mergeHysteresis = Double.parseDouble(line.split("=", 2)[1]);
+                    splitPolicyConfigured = true;
+                }
             }
         }
 
+        this.initialM = initialM;
+        this.personBlockSize = personBlockSize;
+        this.testBlockSize = testBlockSize;
+        this.personOverflowBlockSize = personOverflowBlockSize;
+        this.testOverflowBlockSize = testOverflowBlockSize;
+
         Person personTemplate = new Person();
         PCRTest testTemplate = new PCRTest();
-        this.persons = new LinearHashing<>(
-                this.personsFilePath,
-                personBlockSize,
-                personOverflowBlockSize,
-                personTemplate,
-                initialM
-        );
-        this.tests = new LinearHashing<>(
-                this.testsFilePath,
-                testBlockSize,
-                testOverflowBlockSize,
-                testTemplate,
-                initialM
-        );
+        this.bufferPool = new BufferPool(bufferPoolSize);
+        this.recordCacheSize = recordCacheSize;
+        this.personCache = new RecordCache<>(personTemplate, recordCacheSize / 2);
+        this.testCache = new RecordCache<>(testTemplate, recordCacheSize / 2);
+
+        // files written with an older block layout fail while their headers are read
+        HashIndex<Person> openedPersons = null;
+        HashIndex<PCRTest> openedTests;
+        try {
+            openedPersons = this.indexType.open(
+                    this.personsFilePath,
+                    personBlockSize,
+                    personOverflowBlockSize,
+                    personTemplate,
+                    initialM,
+                    this.bufferPool,
+                    this.storageMode
+            );
+            openedTests = this.indexType.open(
+                    this.testsFilePath,
+                    testBlockSize,
+                    testOverflowBlockSize,
+                    testTemplate,
+                    initialM,
+                    this.bufferPool,
+                    this.storageMode
+            );
+        } catch (IOException e) {
+            if (openedPersons != null) {
+                try {
+                    openedPersons.close();
+                } catch (IOException closeError) {
+                    e.addSuppressed(closeError);
+                }
+            }
+            throw new IOException("Súbory databázy v " + basePath + " sa nepodarilo načítať, môžu mať starší "
+                    + "formát blokov - vygenerujte databázu znova (" + e.getMessage() + ")", e);
+        }
+        this.persons = openedPersons;
+        this.tests = openedTests;
+
+        // split policy and background restructuring apply to linear hashing only
+        if (this.persons instanceof LinearHashing<Person> linearPersons
+                && this.tests instanceof LinearHashing<PCRTest> linearTests) {
+            // the policy in dbs.config overrides the one stored with the hash files
+            if (splitPolicyConfigured) {
+                SplitPolicy policy = new SplitPolicy(splitMaxLoad, splitMinLoad, splitPrimaryLoad, splitMaxChainLength,
+                        mergeHysteresis);
+                linearPersons.setSplitPolicy(policy);
+                linearTests.setSplitPolicy(policy);
+            }
+            linearPersons.setBackgroundRestructuring(this.backgroundRestructuring);
+            linearTests.setBackgroundRestructuring(this.backgroundRestructuring);
+        }
 
         if (loadedNextPatient != null && loadedNextTest != null) {
-            this.nextPatientCounter = loadedNextPatient;
-            this.nextTestCounter = loadedNextTest;
+            this.nextPatientCounter.set(loadedNextPatient);
+            this.nextTestCounter.set(loadedNextTest);
         } else {
-            this.nextPatientCounter = 1;
-            this.nextTestCounter = 1;
             writeConfig(initialM, personBlockSize, testBlockSize, personOverflowBlockSize, testOverflowBlockSize);
         }
     }
@@ -113,8 +235,21 @@ public class Database {
             pw.println("testBlockSize=" + testBlockSize);
             pw.println("personOverflowBlockSize=" + personOverflowBlockSize);
             pw.println("testOverflowBlockSize=" + testOverflowBlockSize);
-            pw.println("nextPatientCounter=" + this.nextPatientCounter);
-            pw.println("nextTestCounter=" + this.nextTestCounter);
+            pw.println("nextPatientCounter=" + this.nextPatientCounter.get());
+            pw.println("nextTestCounter=" + this.nextTestCounter.get());
+            pw.println("bufferPoolSize=" + this.bufferPool.getMemoryBudget());
+            pw.println("recordCacheSize=" + this.recordCacheSize);
+            pw.println("storageMode=" + this.storageMode);
+            pw.println("indexType=" + this.indexType);
+            pw.println("backgroundRestructuring=" + this.backgroundRestructuring);
+            if (this.persons instanceof LinearHashing<Person> linearPersons) {
+                SplitPolicy policy = linearPersons.getSplitPolicy();
+                pw.println("splitMaxLoad=" + policy.getMaxLoad());
+                pw.println("splitMinLoad=" + policy.getMinLoad());
+                pw.println("splitPrimaryLoad=" + policy.isPrimaryLoad());
+                pw.println("splitMaxChainLength=" + policy.getMaxChainLength());
+                pw.println("mergeHysteresis=" + policy.getHysteresis());
+            }
         } catch (Exception e) {
             throw new RuntimeException("Nepodarilo sa zapísať dbs.config: " + e.getMessage(), e);
         }
@@ -128,25 +263,30 @@ public class Database {
      * 1) Insert PCR test result
      */
     public PCRTest insertPCRTest(PCRTest test) throws IOException {
-        Person patient = this.persons.get(test.getPatientId());
-        if (patient == null) {
-            lastError = "Pacient s ID " + test.getPatientId() + " neexistuje.";
-            return null;
-
-        }
-
-        if (!patient.canAddTest()) {
-            lastError = "Pacient už má maximálny počet testov (6).";
-            return null;
-        }
-
-        this.tests.insert(test, String.valueOf(test.getTestCode()));
+        return this.withPatients(test.getPatientId(), null, () -> {
+            // the test code is added to the patient in one read and write of its block
+            boolean[] added = new boolean[]{false};
+            Person updated = this.persons.compute(test.getPatientId(), patient -> {
+                if (patient == null) {
+                    lastError = "Pacient s ID " + test.getPatientId() + " neexistuje.";
+                } else if (!patient.canAddTest() || !patient.addTestCode(test.getTestCode())) {
+                    lastError = "Pacient už má maximálny počet testov (6).";
+                } else {
+                    added[0] = true;
+                }
+                return patient;
+            });
+            if (!added[0]) {
+                return null;
+            }
+            this.personCache.put(updated);
 
-        patient.addTestCode(test.getTestCode());
-        this.persons.update(patient);
+            this.tests.insert(test, String.valueOf(test.getTestCode()));
+            this.testCache.put(test);
 
-        lastError = null;
-        return test;
+            lastError = null;
+            return test;
+        });
     }
 
     /**
@@ -157,9 +297,34 @@ public class Database {
             return new ArrayList<>();
         }
 
-        List<PCRTest> result = new ArrayList<>();
+        List<String> codes = new ArrayList<>();
         for (int testCode : person.getTestCodes()) {
-            PCRTest test = this.tests.get(String.valueOf(testCode));
+            codes.add(String.valueOf(testCode));
+        }
+
+        // cached tests first, the rest in one pass over their buckets, the result keeps the order of the codes
+        Map<String, PCRTest> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        long[] stamps = new long[codes.size()];
+        for (String code : codes) {
+            PCRTest cached = this.testCache.get(code);
+            if (cached != null) {
+                found.put(code, cached);
+            } else {
+                stamps[missing.size()] = this.testCache.stamp(code);
+                missing.add(code);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<String, PCRTest> read = this.tests.getAll(missing);
+            for (int i = 0; i < missing.size(); i++) {
+                this.testCache.fill(read.get(missing.get(i)), stamps[i]);
+            }
+            found.putAll(read);
+        }
+        List<PCRTest> result = new ArrayList<>();
+        for (String code : codes) {
+            PCRTest test = found.get(code);
             if (test != null) {
                 result.add(test);
             }
@@ -171,71 +336,94 @@ public class Database {
      * 3) Find PCR test by code with patient data
      */
     public PCRTest findPCRTest(int testId) throws IOException {
-        return this.tests.get(String.valueOf(testId));
+        return cachedGet(this.tests, this.testCache, String.valueOf(testId));
     }
 
     /**
      * 4) Insert person into system
      */
     public Person insertPerson(Person person) throws IOException {
-        Person existing = this.persons.get(person.getId());
-        if (existing != null) {
-            return null;
-        }
-
-        this.persons.insert(person, person.getId());
-
-        return person;
+        return this.withPatients(person.getId(), null, () -> {
+            if (this.persons.putIfAbsent(person) != null) {
+                return null;
+            }
+            this.personCache.put(person);
+            return person;
+        });
     }
 
     /**
      * 5) Delete PCR test result
      */
     public boolean deletePCRTest(int testCode) throws IOException {
-        PCRTest test = this.tests.get(String.valueOf(testCode));
-        if (test == null) {
-            return false;
-        }
-
-        String patientId = test.getPatientId();
+        while (true) {
+            PCRTest test = cachedGet(this.tests, this.testCache, String.valueOf(testCode));
+            if (test == null) {
+                return false;
+            }
 
-        Person patient = this.persons.get(patientId);
-        if (patient != null) {
-            patient.removeTestCode(testCode);
-            this.persons.update(patient);
+            String patientId = test.getPatientId();
+
+            Boolean deleted = this.withPatients(patientId, null, () -> {
+                // the test may have been moved to another patient before the lock was taken
+                PCRTest current = cachedGet(this.tests, this.testCache, String.valueOf(testCode));
+                if (current == null) {
+                    return false;
+                }
+                if (!current.getPatientId().equals(patientId)) {
+                    return null;
+                }
+
+                Person patient = this.persons.compute(patientId, p -> {
+                    if (p != null) {
+                        p.removeTestCode(testCode);
+                    }
+                    return p;
+                });
+                this.personCache.put(patient);
+
+                boolean removed = this.tests.delete(String.valueOf(testCode));
+                this.testCache.invalidate(String.valueOf(testCode));
+                return removed;
+            });
+
+            if (deleted != null) {
+                return deleted;
+            }
         }
-
-        return this.tests.delete(String.valueOf(testCode));
     }
 
     /**
      * 6) Delete person with all test results
      */
     public boolean deletePersonWithTests(String patientId) throws IOException {
-        Person person = this.persons.get(patientId);
-        if (person == null) {
-            return false;
-        }
+        return this.withPatients(patientId, null, () -> {
+            Person person = cachedGet(this.persons, this.personCache, patientId);
+            if (person == null) {
+                return false;
+            }
 
-        for (int testCode : person.getTestCodes()) {
-            this.tests.delete(String.valueOf(testCode));
-        }
+            for (int testCode : person.getTestCodes()) {
+                this.tests.delete(String.valueOf(testCode));
+                this.testCache.invalidate(String.valueOf(testCode));
+            }
 
-        return this.persons.delete(patientId);
+            boolean deleted = this.persons.delete(patientId);
+            this.personCache.invalidate(patientId);
+            return deleted;
+        });
     }
 
     /**
      * 7) Find person for editing
      */
     public Person updatePerson(Person updatedPerson) throws IOException {
-        Person existing = this.persons.get(updatedPerson.getId());
-        if (existing == null) {
-            return null;
-        }
-
-        if (!this.persons.update(updatedPerson)) return null;
+        return this.withPatients(updatedPerson.getId(), null, () -> {
+            if (!this.persons.update(updatedPerson)) return null;
+            this.personCache.put(updatedPerson);
 
-        return updatedPerson;
+            return updatedPerson;
+        });
     }
 
     /**
@@ -243,54 +431,161 @@ public class Database {
      */
     public PCRTest updatePCRTest(PCRTest updatedTest) throws IOException {
         int code = updatedTest.getTestCode();
-        PCRTest existing = this.tests.get(String.valueOf(code));
-        if (existing == null) {
-            return null;
-        }
 
-        String oldPid = existing.getPatientId();
-        String newPid = updatedTest.getPatientId();
+        while (true) {
+            PCRTest existing = cachedGet(this.tests, this.testCache, String.valueOf(code));
+            if (existing == null) {
+                return null;
+            }
 
-        if (oldPid.equals(newPid)) {
-            if (!this.tests.update(updatedTest)) return null;
-            return updatedTest;
+            String oldPid = existing.getPatientId();
+            String newPid = updatedTest.getPatientId();
+
+            boolean[] retry = new boolean[]{false};
+            PCRTest result = this.withPatients(oldPid, newPid, () -> {
+                // the test may have been moved to another patient before the locks were taken
+                PCRTest current = cachedGet(this.tests, this.testCache, String.valueOf(code));
+                if (current == null) {
+                    return null;
+                }
+                if (!current.getPatientId().equals(oldPid)) {
+                    retry[0] = true;
+                    return null;
+                }
+
+                if (oldPid.equals(newPid)) {
+                    if (!this.tests.update(updatedTest)) return null;
+                    this.testCache.put(updatedTest);
+                    return updatedTest;
+                }
+
+                // the new patient takes the code first, it is given back if the old patient is missing
+                boolean[] added = new boolean[]{false};
+                Person newPerson = this.persons.compute(newPid, newP -> {
+                    if (newP != null && newP.canAddTest()) {
+                        added[0] = newP.addTestCode(code);
+                    }
+                    return newP;
+                });
+                if (!added[0]) {
+                    return null;
+                }
+
+                Person oldPerson = this.persons.compute(oldPid, oldP -> {
+                    if (oldP != null) {
+                        oldP.removeTestCode(code);
+                    }
+                    return oldP;
+                });
+                if (oldPerson == null) {
+                    this.persons.compute(newPid, newP -> {
+                        newP.removeTestCode(code);
+                        return newP;
+                    });
+                    return null;
+                }
+                this.personCache.put(newPerson);
+                this.personCache.put(oldPerson);
+
+                if (!this.tests.update(updatedTest)) return null;
+                this.testCache.put(updatedTest);
+
+                return updatedTest;
+            });
+
+            if (!retry[0]) {
+                return result;
+            }
         }
+    }
 
-        Person newP = this.persons.get(newPid);
-        if (newP == null) {
-            return null;
-        }
+    /**
+     * Operation that reads and rewrites persons and their tests
+     */
+    @FunctionalInterface
+    private interface PatientOperation<R> {
+        R run() throws IOException;
+    }
 
-        Person oldP = this.persons.get(oldPid);
-        if (oldP == null) {
-            return null;
-        }
+    /**
+     * Runs the operation while holding the locks of one or two patients
+     * Stripes are always locked in ascending order, so two operations cannot deadlock
+     */
+    private <R> R withPatients(String firstId, String secondId, PatientOperation<R> operation) throws IOException {
+        int first = this.patientLocks.stripeOf(String.valueOf(firstId));
+        int second = secondId == null ? first : this.patientLocks.stripeOf(secondId);
+
+        Lock low = this.patientLocks.get(Math.min(first, second)).writeLock();
+        Lock high = first == second ? null : this.patientLocks.get(Math.max(first, second)).writeLock();
 
-        if (!newP.canAddTest()) {
-            return null;
+        low.lock();
+        try {
+            if (high != null) high.lock();
+            try {
+                return operation.run();
+            } finally {
+                if (high != null) high.unlock();
+            }
+        } finally {
+            low.unlock();
         }
+    }
 
-        oldP.removeTestCode(code);
-        this.persons.update(oldP);
+    /**
+     * Checks whether both hash files contain no records
+     */
+    public boolean isEmpty() {
+        return this.persons.getTotalRecords() == 0 && this.tests.getTotalRecords() == 0;
+    }
 
-        newP.addTestCode(code);
-        this.persons.update(newP);
+    /**
+     * Builds an empty database from prepared persons and tests in one pass per hash file
+     * Test codes of the persons must already reference their tests
+     */
+    public void bulkLoad(Iterator<Person> persons, Iterator<PCRTest> tests) throws IOException {
+        this.persons.bulkLoad(persons, BULK_LOAD_FACTOR);
+        this.tests.bulkLoad(tests, BULK_LOAD_FACTOR);
+        this.personCache.clear();
+        this.testCache.clear();
+    }
 
-        if (!this.tests.update(updatedTest)) return null;
+    public Person findPerson(String patientId) throws IOException {
+        return cachedGet(this.persons, this.personCache, patientId);
+    }
 
-        return updatedTest;
+    /**
+     * Looks the record up in the cache first, a record read from the hash file is cached
+     */
+    private static <T extends Record<T>> T cachedGet(HashIndex<T> index, RecordCache<T> cache, String key)
+            throws IOException {
+        T record = cache.get(key);
+        if (record != null) {
+            return record;
+        }
+        long stamp = cache.stamp(key);
+        record = index.get(key);
+        cache.fill(record, stamp);
+        return record;
     }
 
-    public Person findPerson(String patientId) throws IOException {
-        return this.persons.get(patientId);
+    public BufferPool getBufferPool() {
+        return this.bufferPool;
+    }
+
+    public RecordCache<Person> getPersonCache() {
+        return this.personCache;
+    }
+
+    public RecordCache<PCRTest> getTestCache() {
+        return this.testCache;
     }
 
     public String nextPatientId() {
-        return String.valueOf(nextPatientCounter++);
+        return String.valueOf(this.nextPatientCounter.getAndIncrement());
     }
 
     public int nextTestCode() {
-        return nextTestCounter++;
+        return this.nextTestCounter.getAndIncrement();
     }
 
 
@@ -308,6 +603,14 @@ public class Database {
         return this.tests.displayAllBlocks("PCR TESTY");
     }
 
+    /**
+     * Forces both hash files to disk
+     */
+    public void checkpoint() throws IOException {
+        this.persons.checkpoint();
+        this.tests.checkpoint();
+    }
+
     /**
      * Close database
      */
@@ -316,11 +619,11 @@ public class Database {
         if (this.tests != null) this.tests.close();
 
         try {
-            writeConfig(this.persons.getM(),
-                    this.persons.getClusterSize(),
-                    this.tests.getClusterSize(),
-                    this.persons.getOverflowFile().getClusterSize(),
-                    this.tests.getOverflowFile().getClusterSize());
+            writeConfig(this.initialM,
+                    this.personBlockSize,
+                    this.testBlockSize,
+                    this.personOverflowBlockSize,
+                    this.testOverflowBlockSize);
         } catch (Exception e) {
             System.err.println("Nepodarilo sa zapísať počítadlá do dbs.config: " + e.getMessage());
         }
@@ -48,6 +48,11 @@ public class DatabaseGenerator {
 
 
     public void fillDatabase(int numPersons, int numTests) throws IOException {
+        if (this.database.isEmpty()) {
+            this.bulkFillDatabase(numPersons, numTests);
+            return;
+        }
+
         int successfulTests = 0;
 
         List<String> allPatientIds = new ArrayList<>(numPersons);
@@ -107,4 +112,37 @@ public class DatabaseGenerator {
             idx = (idx + 1) % eligible.size();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Generates all persons and tests in memory and bulk-loads them into the empty database
+     */
+    private void bulkFillDatabase(int numPersons, int numTests) throws IOException {
+        List<Person> persons = new ArrayList<>(numPersons);
+        for (int i = 1; i <= numPersons; i++) {
+            persons.add(generatePerson(this.database.nextPatientId()));
+        }
+
+        List<Person> eligible = new ArrayList<>(persons);
+        Collections.shuffle(eligible);
+
+        List<PCRTest> tests = new ArrayList<>(numTests);
+        int idx = 0;
+        while (tests.size() < numTests && !eligible.isEmpty()) {
+            Person patient = eligible.get(idx);
+            if (!patient.canAddTest()) {
+                eligible.remove(idx);
+                if (eligible.isEmpty()) break;
+                idx = idx % eligible.size();
+                continue;
+            }
+
+            PCRTest t = generatePCRTest(this.database.nextTestCode(), patient.getId());
+            patient.addTestCode(t.getTestCode());
+            tests.add(t);
+
+            idx = (idx + 1) % eligible.size();
+        }
+
+        this.database.bulkLoad(persons.iterator(), tests.iterator());
+    }
+}
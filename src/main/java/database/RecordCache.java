@@ -0,0 +1,227 @@
+package database;
+
+import data.Record;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded cache of records in front of a hash file, records are kept serialized
+ * Segmented LRU - a new record enters the probation segment, a second hit moves it to the protected segment,
+ * so a scan over many records once does not push out the records read again and again
+ * Writers of the hash file update the cache after the file, readers fill it with a stamp taken before
+ * their read, a fill is dropped if the key was written meanwhile
+ */
+public class RecordCache<T extends Record<T>> {
+    public static final long DEFAULT_MEMORY_BUDGET = 1024 * 1024;
+    private static final double PROTECTED_SHARE = 0.8;
+    private static final int ENTRY_OVERHEAD = 64; // map entry, key and array header of one record
+    private static final int STAMP_STRIPES = 64;
+
+    private final T template;
+    private final long memoryBudget;
+    private final long protectedBudget;
+    private final LinkedHashMap<String, byte[]> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, byte[]> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private final long[] stamps = new long[STAMP_STRIPES]; // writes by stripe of the key
+    private long probationBytes = 0;
+    private long protectedBytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * @param memoryBudget bytes of cached records, 0 disables the cache
+     */
+    public RecordCache(T template, long memoryBudget) {
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException("Record cache budget must not be negative: " + memoryBudget);
+        }
+        this.template = template;
+        this.memoryBudget = memoryBudget;
+        this.protectedBudget = (long) (memoryBudget * PROTECTED_SHARE);
+    }
+
+    public boolean isEnabled() {
+        return this.memoryBudget > 0;
+    }
+
+    /**
+     * @return a new copy of the cached record or null
+     */
+    public synchronized T get(String key) {
+        if (!this.isEnabled() || key == null) return null;
+
+        byte[] data = this.protectedSegment.get(key);
+        if (data == null) {
+            data = this.probation.remove(key);
+            if (data == null) {
+                this.misses++;
+                return null;
+            }
+            // second hit, the record is promoted
+            this.probationBytes -= sizeOf(data);
+            this.protectedSegment.put(key, data);
+            this.protectedBytes += sizeOf(data);
+            this.demoteProtected();
+        }
+        this.hits++;
+        return this.materialize(data);
+    }
+
+    /**
+     * Stamp of the key to pass to {@link #fill}, taken before the record is read from the file
+     */
+    public synchronized long stamp(String key) {
+        return this.stamps[stripeOf(key)];
+    }
+
+    /**
+     * Caches a record read from the file, unless its key was written since the stamp
+     */
+    public synchronized void fill(T record, long stamp) {
+        if (!this.isEnabled() || record == null || this.stamps[stripeOf(record.getKey())] != stamp) return;
+
+        String key = record.getKey();
+        if (this.probation.containsKey(key) || this.protectedSegment.containsKey(key)) return;
+        this.insert(key, record.getBytes());
+    }
+
+    /**
+     * Stores a record written to the file, a cached record with its key is replaced in place
+     */
+    public synchronized void put(T record) {
+        if (!this.isEnabled() || record == null) return;
+
+        String key = record.getKey();
+        this.stamps[stripeOf(key)]++;
+        byte[] data = record.getBytes();
+        byte[] old = this.protectedSegment.get(key);
+        if (old != null) {
+            this.protectedSegment.put(key, data);
+            this.protectedBytes += sizeOf(data) - sizeOf(old);
+            this.demoteProtected();
+            this.evict();
+            return;
+        }
+        this.remove(key);
+        this.insert(key, data);
+    }
+
+    /**
+     * Drops the record with the key, called after it was deleted from the file
+     */
+    public synchronized void invalidate(String key) {
+        if (!this.isEnabled() || key == null) return;
+
+        this.stamps[stripeOf(key)]++;
+        this.remove(key);
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < STAMP_STRIPES; i++) {
+            this.stamps[i]++;
+        }
+        this.probation.clear();
+        this.protectedSegment.clear();
+        this.probationBytes = 0;
+        this.protectedBytes = 0;
+    }
+
+    private void insert(String key, byte[] data) {
+        this.probation.put(key, data);
+        this.probationBytes += sizeOf(data);
+        this.evict();
+    }
+
+    private void remove(String key) {
+        byte[] data = this.probation.remove(key);
+        if (data != null) {
+            this.probationBytes -= sizeOf(data);
+        }
+        data = this.protectedSegment.remove(key);
+        if (data != null) {
+            this.protectedBytes -= sizeOf(data);
+        }
+    }
+
+    /**
+     * Moves the least recently used protected records back to probation while the segment is over its share
+     */
+    private void demoteProtected() {
+        Iterator<Map.Entry<String, byte[]>> it = this.protectedSegment.entrySet().iterator();
+        while (this.protectedBytes > this.protectedBudget && it.hasNext()) {
+            Map.Entry<String, byte[]> eldest = it.next();
+            it.remove();
+            this.protectedBytes -= sizeOf(eldest.getValue());
+            this.probation.put(eldest.getKey(), eldest.getValue());
+            this.probationBytes += sizeOf(eldest.getValue());
+        }
+    }
+
+    /**
+     * Evicts least recently used records of probation, then of the protected segment, until the budget holds
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, byte[]>> it = this.probation.entrySet().iterator();
+        while (this.probationBytes + this.protectedBytes > this.memoryBudget && it.hasNext()) {
+            this.probationBytes -= sizeOf(it.next().getValue());
+            it.remove();
+            this.evictions++;
+        }
+        it = this.protectedSegment.entrySet().iterator();
+        while (this.probationBytes + this.protectedBytes > this.memoryBudget && it.hasNext()) {
+            this.protectedBytes -= sizeOf(it.next().getValue());
+            it.remove();
+            this.evictions++;
+        }
+    }
+
+    private T materialize(byte[] data) {
+        T record = this.template.createClass();
+        record.fromBytes(data);
+        return record;
+    }
+
+    private static long sizeOf(byte[] data) {
+        return data.length + ENTRY_OVERHEAD;
+    }
+
+    private static int stripeOf(String key) {
+        return key == null ? 0 : Math.floorMod(key.hashCode(), STAMP_STRIPES);
+    }
+
+    public long getMemoryBudget() {
+        return this.memoryBudget;
+    }
+
+    public synchronized long getUsedBytes() {
+        return this.probationBytes + this.protectedBytes;
+    }
+
+    public synchronized int size() {
+        return this.probation.size() + this.protectedSegment.size();
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    /**
+     * Share of lookups answered from the cache
+     */
+    public synchronized double getHitRatio() {
+        long lookups = this.hits + this.misses;
+        return lookups == 0 ? 0 : (double) this.hits / lookups;
+    }
+}
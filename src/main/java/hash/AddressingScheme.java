@@ -0,0 +1,119 @@
+package hash;
+
+import heap.KeyHash;
+
+/**
+ * How a linear hashing file maps hashes to buckets and which buckets one split expands,
+ * the choice is stored in the metadata of the hash file
+ * The buckets of a level are arranged in groupCount groups of groupSize buckets, group g holds the buckets
+ * g, g + groupCount, ..., g + (groupSize - 1) * groupCount, the split pointer walks over the groups
+ * and a split spreads the records of one group over its buckets and one new bucket at the end of the file
+ */
+public enum AddressingScheme {
+    /**
+     * Classic linear hashing, a split moves about half of one bucket to a new bucket
+     * and the file doubles in one pass of the split pointer
+     */
+    LINEAR(0) {
+        @Override
+        public int groupSize(int level) {
+            return 1;
+        }
+
+        @Override
+        public int groupCount(int M, int level) {
+            return M << level;
+        }
+
+        @Override
+        public int address(long hash, int M, int level, int splitPointer) {
+            int bucket = (int) Long.remainderUnsigned(hash, (long) M << level);
+            return bucket < splitPointer ? (int) Long.remainderUnsigned(hash, (long) M << (level + 1)) : bucket;
+        }
+    },
+
+    /**
+     * Larson's linear hashing with two partial expansions per doubling
+     * A group of two buckets is expanded to three, then a group of three to four, so every split moves
+     * a third or a quarter of the records of its group and the buckets already expanded in a pass
+     * differ less in load from those not yet expanded than with {@link #LINEAR}
+     * The first pass from M buckets to 2M is an ordinary expansion of single buckets
+     */
+    PARTIAL_EXPANSIONS(1) {
+        @Override
+        public int groupSize(int level) {
+            return level == 0 ? 1 : 2 + (level - 1) % 2;
+        }
+
+        @Override
+        public int groupCount(int M, int level) {
+            return level == 0 ? M : M << ((level - 1) / 2);
+        }
+    };
+
+    public static final AddressingScheme DEFAULT = LINEAR;
+
+    // salts the hash per expansion, so the choices of different expansions are independent
+    private static final long EXPANSION_SALT = 0x9E3779B97F4A7C15L;
+
+    private final int id;
+
+    AddressingScheme(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Number of buckets in one group at the given level
+     */
+    public abstract int groupSize(int level);
+
+    /**
+     * Number of groups at the given level, also the number of splits until the next level
+     */
+    public abstract int groupCount(int M, int level);
+
+    /**
+     * Number of buckets at the given level and split pointer
+     */
+    public long bucketCount(int M, int level, int splitPointer) {
+        return (long) this.groupSize(level) * this.groupCount(M, level) + splitPointer;
+    }
+
+    /**
+     * Bucket of an unsigned hash, the hash is replayed through all expansions done so far
+     * At every expansion the record stays in its group or moves to the new bucket of the group
+     * with probability 1 / (groupSize + 1), decided by a salted hash, so the moved records are spread
+     * evenly and the decision of an expansion never changes once it has been made
+     */
+    public int address(long hash, int M, int level, int splitPointer) {
+        int bucket = (int) Long.remainderUnsigned(hash, M);
+        for (int t = 0; t <= level; t++) {
+            int groupCount = this.groupCount(M, t);
+            int groupSize = this.groupSize(t);
+            int group = bucket % groupCount;
+            if (t == level && group >= splitPointer) {
+                break;
+            }
+            if (Long.remainderUnsigned(KeyHash.mix64(hash ^ (t + 1) * EXPANSION_SALT), groupSize + 1) == 0) {
+                bucket = group + groupSize * groupCount;
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * Identifier written to the metadata file
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    public static AddressingScheme fromId(int id) {
+        for (AddressingScheme scheme : values()) {
+            if (scheme.id == id) {
+                return scheme;
+            }
+        }
+        throw new IllegalArgumentException("Unknown addressing scheme id: " + id);
+    }
+}
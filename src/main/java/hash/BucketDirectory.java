@@ -0,0 +1,310 @@
+package hash;
+
+import heap.BlockIO;
+import heap.FileChannelBlockIO;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Headers of the primary blocks kept in memory - first overflow block, overflow record count,
+ * chain length and valid count of every bucket
+ * Stats, merges, compaction and overflow relocation read them instead of the primary blocks
+ * File: [clean][entry count] followed by 16 bytes per bucket, only changed entries are written on save
+ * The clean flag is cleared on disk by the first change after a save, a file that was not saved
+ * cleanly is not loaded and the headers are rebuilt from the primary blocks
+ * Statistics over the entries are kept by every update and stored in the metadata of the hash file
+ */
+public class BucketDirectory {
+    private static final int HEADER_SIZE = 8;
+    private static final int ENTRY_SIZE = 16;
+    private static final int CLEAN = 1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final BlockIO file;
+    private int[] nextOverflow = new int[0];
+    private int[] overflowRecordCount = new int[0];
+    private int[] chainLength = new int[0];
+    private int[] validCount = new int[0];
+    private int size = 0; // highest bucket written + 1
+    private final BitSet dirty = new BitSet();
+    private boolean changed = false; // entries changed since the last save
+    private boolean flagCleared = false; // the clean flag on disk was cleared since the last save
+
+    // statistics over all entries
+    private int nonEmptyBuckets = 0; // buckets with a record in the primary block
+    private int overflowRecords = 0;
+    private int[] fillHistogram = new int[1]; // entries by valid count of the primary block
+    private int[] chainHistogram = new int[1]; // entries by overflow chain length
+    private int[][] savedStatistics = null; // read from the metadata, used when the entries load cleanly
+
+    public BucketDirectory(String filename) throws IOException {
+        this.file = new FileChannelBlockIO(filename);
+    }
+
+    /**
+     * Loads the headers of a cleanly saved file
+     * @return false if the file was not saved cleanly or has fewer than the given number of buckets
+     */
+    synchronized boolean load(int buckets) throws IOException {
+        if (this.file.length() < HEADER_SIZE) {
+            return false;
+        }
+        byte[] header = new byte[HEADER_SIZE];
+        this.file.read(0, header);
+        ByteBuffer hb = ByteBuffer.wrap(header);
+        int flag = hb.getInt();
+        int count = hb.getInt();
+        if (flag != CLEAN || count < buckets || this.file.length() < HEADER_SIZE + (long) count * ENTRY_SIZE) {
+            return false;
+        }
+
+        byte[] entries = new byte[count * ENTRY_SIZE];
+        this.file.read(HEADER_SIZE, entries);
+        ByteBuffer eb = ByteBuffer.wrap(entries);
+        this.ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            this.nextOverflow[i] = eb.getInt();
+            this.overflowRecordCount[i] = eb.getInt();
+            this.chainLength[i] = eb.getInt();
+            this.validCount[i] = eb.getInt();
+        }
+        this.size = count;
+        this.dirty.clear();
+        this.applySavedStatistics();
+        return true;
+    }
+
+    /**
+     * Reads the statistics stored by {@link #writeStatistics}, they are used if the entries load cleanly
+     */
+    synchronized void readStatistics(DataInputStream dis) throws IOException {
+        int[] counters = new int[]{dis.readInt(), dis.readInt()};
+        int[] fill = new int[dis.readInt()];
+        for (int i = 0; i < fill.length; i++) {
+            fill[i] = dis.readInt();
+        }
+        int[] chain = new int[dis.readInt()];
+        for (int i = 0; i < chain.length; i++) {
+            chain[i] = dis.readInt();
+        }
+        this.savedStatistics = new int[][]{counters, fill, chain};
+    }
+
+    synchronized void writeStatistics(DataOutputStream dos) throws IOException {
+        dos.writeInt(this.nonEmptyBuckets);
+        dos.writeInt(this.overflowRecords);
+        dos.writeInt(this.fillHistogram.length);
+        for (int count : this.fillHistogram) {
+            dos.writeInt(count);
+        }
+        dos.writeInt(this.chainHistogram.length);
+        for (int count : this.chainHistogram) {
+            dos.writeInt(count);
+        }
+    }
+
+    /**
+     * Takes the saved statistics if they cover all entries, otherwise counts them from the entries
+     */
+    private void applySavedStatistics() {
+        int[][] saved = this.savedStatistics;
+        this.savedStatistics = null;
+        if (saved != null && Arrays.stream(saved[1]).sum() == this.size && Arrays.stream(saved[2]).sum() == this.size) {
+            this.nonEmptyBuckets = saved[0][0];
+            this.overflowRecords = saved[0][1];
+            this.fillHistogram = saved[1];
+            this.chainHistogram = saved[2];
+            return;
+        }
+
+        this.nonEmptyBuckets = 0;
+        this.overflowRecords = 0;
+        this.fillHistogram = new int[1];
+        this.chainHistogram = new int[1];
+        for (int i = 0; i < this.size; i++) {
+            this.count(i, 1);
+        }
+    }
+
+    /**
+     * Adds (sign 1) or removes (sign -1) the entry of a bucket from the statistics
+     */
+    private void count(int bucket, int sign) {
+        if (this.validCount[bucket] > 0) {
+            this.nonEmptyBuckets += sign;
+        }
+        this.overflowRecords += sign * this.overflowRecordCount[bucket];
+        this.fillHistogram = addTo(this.fillHistogram, this.validCount[bucket], sign);
+        this.chainHistogram = addTo(this.chainHistogram, this.chainLength[bucket], sign);
+    }
+
+    private static int[] addTo(int[] histogram, int bin, int sign) {
+        int[] result = bin < histogram.length ? histogram : Arrays.copyOf(histogram, bin + 1);
+        result[bin] += sign;
+        return result;
+    }
+
+    /**
+     * Stores the header of a primary block that was written
+     */
+    synchronized void update(int bucket, LHBlock<?> block) throws IOException {
+        this.markChanged();
+        this.ensureCapacity(bucket + 1);
+        if (bucket < this.size) {
+            this.count(bucket, -1);
+        } else {
+            // buckets skipped over are written as empty entries
+            this.fillHistogram[0] += bucket - this.size;
+            this.chainHistogram[0] += bucket - this.size;
+            this.dirty.set(this.size, bucket + 1);
+            this.size = bucket + 1;
+        }
+        int next = block.getNextOverflow();
+        this.nextOverflow[bucket] = next < 0 || next == 65535 ? -1 : next;
+        this.overflowRecordCount[bucket] = block.getOverflowRecordCount();
+        this.chainLength[bucket] = Math.max(0, block.getChainLength());
+        this.validCount[bucket] = block.getValidCount();
+        this.count(bucket, 1);
+        this.dirty.set(bucket);
+    }
+
+    /**
+     * First overflow block of the bucket chain, -1 without a chain
+     */
+    public synchronized int getNextOverflow(int bucket) {
+        return bucket < this.size ? this.nextOverflow[bucket] : -1;
+    }
+
+    public synchronized int getOverflowRecordCount(int bucket) {
+        return bucket < this.size ? this.overflowRecordCount[bucket] : 0;
+    }
+
+    public synchronized int getChainLength(int bucket) {
+        return bucket < this.size ? this.chainLength[bucket] : 0;
+    }
+
+    /**
+     * Number of records in the primary block of the bucket
+     */
+    public synchronized int getValidCount(int bucket) {
+        return bucket < this.size ? this.validCount[bucket] : 0;
+    }
+
+    /**
+     * Number of buckets with a record in the primary block
+     * Buckets past the primary block count are always empty, so the counters hold for the live buckets
+     */
+    public synchronized int getNonEmptyBuckets() {
+        return this.nonEmptyBuckets;
+    }
+
+    public synchronized int getOverflowRecords() {
+        return this.overflowRecords;
+    }
+
+    /**
+     * Number of the first buckets by valid count of their primary block, index is the valid count
+     */
+    public synchronized int[] getFillHistogram(int buckets) {
+        return this.histogramOf(this.fillHistogram, buckets);
+    }
+
+    /**
+     * Number of the first buckets by length of their overflow chain, index is the chain length
+     */
+    public synchronized int[] getChainLengthHistogram(int buckets) {
+        return this.histogramOf(this.chainHistogram, buckets);
+    }
+
+    /**
+     * Copy of a histogram over the first buckets, the entries past them and the missing ones are empty
+     */
+    private int[] histogramOf(int[] histogram, int buckets) {
+        int last = histogram.length - 1;
+        while (last > 0 && histogram[last] == 0) {
+            last--;
+        }
+        int[] result = Arrays.copyOf(histogram, last + 1);
+        result[0] += buckets - this.size;
+        return result;
+    }
+
+    /**
+     * @return true if neither the primary block nor an overflow chain of the bucket holds a record
+     */
+    public synchronized boolean isEmpty(int bucket) {
+        return this.getValidCount(bucket) == 0 && this.getNextOverflow(bucket) == -1;
+    }
+
+    /**
+     * Writes the changed entries as runs of adjacent buckets and marks the file clean
+     */
+    synchronized void save() throws IOException {
+        if (!this.changed) return;
+
+        int from = this.dirty.nextSetBit(0);
+        while (from >= 0 && from < this.size) {
+            int to = Math.min(this.dirty.nextClearBit(from), this.size);
+            ByteBuffer run = ByteBuffer.allocate((to - from) * ENTRY_SIZE);
+            for (int i = from; i < to; i++) {
+                run.putInt(this.nextOverflow[i]).putInt(this.overflowRecordCount[i])
+                        .putInt(this.chainLength[i]).putInt(this.validCount[i]);
+            }
+            this.file.write(HEADER_SIZE + (long) from * ENTRY_SIZE, run.array());
+            from = this.dirty.nextSetBit(to);
+        }
+        this.dirty.clear();
+
+        this.file.setLength(HEADER_SIZE + (long) this.size * ENTRY_SIZE);
+        this.writeHeader(CLEAN);
+        this.changed = false;
+        this.flagCleared = false;
+    }
+
+    /**
+     * Saves the changed entries and forces the file to disk
+     */
+    synchronized void checkpoint() throws IOException {
+        this.save();
+        this.file.force();
+    }
+
+    synchronized void close() throws IOException {
+        this.save();
+        this.file.close();
+    }
+
+    /**
+     * Clears the clean flag on disk before the first change after a save
+     * The cleared flag is forced so a crash can not leave a clean directory on disk that misses later changes
+     */
+    private void markChanged() throws IOException {
+        if (!this.flagCleared) {
+            this.writeHeader(0);
+            this.file.force();
+            this.flagCleared = true;
+        }
+        this.changed = true;
+    }
+
+    private void writeHeader(int flag) throws IOException {
+        this.file.write(0, ByteBuffer.allocate(HEADER_SIZE).putInt(flag).putInt(this.size).array());
+    }
+
+    private void ensureCapacity(int buckets) {
+        if (buckets <= this.nextOverflow.length) return;
+
+        int capacity = Math.max(Math.max(INITIAL_CAPACITY, buckets), this.nextOverflow.length * 2);
+        int oldCapacity = this.nextOverflow.length;
+        this.nextOverflow = Arrays.copyOf(this.nextOverflow, capacity);
+        Arrays.fill(this.nextOverflow, oldCapacity, capacity, -1);
+        this.overflowRecordCount = Arrays.copyOf(this.overflowRecordCount, capacity);
+        this.chainLength = Arrays.copyOf(this.chainLength, capacity);
+        this.validCount = Arrays.copyOf(this.validCount, capacity);
+    }
+}
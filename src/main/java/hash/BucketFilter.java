@@ -0,0 +1,219 @@
+package hash;
+
+import heap.BlockIO;
+import heap.FileChannelBlockIO;
+import heap.KeyHash;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Blocked Bloom filter of the keys of a hash file with one block of bits per bucket
+ * A get of a key whose bits are not all set in its bucket returns without reading the bucket
+ * The bits of a bucket are rebuilt whenever all its keys are known at a write - the bucket has no chain
+ * or the chain was rebuilt - so splits, merges and compaction clear the bits of moved and deleted keys,
+ * otherwise the written keys are only added
+ * File: [clean][words per bucket][bucket count] followed by the words of every bucket,
+ * only changed buckets are written on save, a file that was not saved cleanly is rebuilt from the buckets
+ */
+public class BucketFilter {
+    private static final int HEADER_SIZE = 12;
+    private static final int CLEAN = 1;
+    private static final int BITS_PER_KEY = 10;
+    private static final int PROBES = 4;
+    private static final long SALT = 0x5bd1e9955bd1e995L; // keeps the probes independent of bucket addressing
+    private static final int INITIAL_BUCKETS = 64;
+
+    private final BlockIO file;
+    private final int wordsPerBucket;
+    private final int bitsPerBucket;
+    private long[] words = new long[0];
+    private int size = 0; // highest bucket written + 1
+    private final BitSet dirty = new BitSet();
+    private boolean changed = false;
+    private boolean flagCleared = false;
+
+    /**
+     * @param keysPerBucket expected number of keys of a bucket, sizes the block of bits
+     */
+    public BucketFilter(String filename, int keysPerBucket) throws IOException {
+        this.file = new FileChannelBlockIO(filename);
+        this.wordsPerBucket = Math.max(1, (keysPerBucket * BITS_PER_KEY + 63) / 64);
+        this.bitsPerBucket = this.wordsPerBucket * 64;
+    }
+
+    /**
+     * Loads the bits of a cleanly saved file with the same block size
+     * @return false if the file was not saved cleanly, has another block size or fewer buckets
+     */
+    synchronized boolean load(int buckets) throws IOException {
+        if (this.file.length() < HEADER_SIZE) {
+            return false;
+        }
+        byte[] header = new byte[HEADER_SIZE];
+        this.file.read(0, header);
+        ByteBuffer hb = ByteBuffer.wrap(header);
+        int flag = hb.getInt();
+        int storedWords = hb.getInt();
+        int count = hb.getInt();
+        if (flag != CLEAN || storedWords != this.wordsPerBucket || count < buckets
+                || this.file.length() < HEADER_SIZE + (long) count * this.wordsPerBucket * Long.BYTES) {
+            return false;
+        }
+
+        byte[] data = new byte[count * this.wordsPerBucket * Long.BYTES];
+        this.file.read(HEADER_SIZE, data);
+        this.ensureCapacity(count);
+        ByteBuffer.wrap(data).asLongBuffer().get(this.words, 0, count * this.wordsPerBucket);
+        this.size = count;
+        this.dirty.clear();
+        return true;
+    }
+
+    /**
+     * @return false when the key is certainly not in the bucket
+     */
+    public synchronized boolean mightContain(int bucket, String key) {
+        if (bucket >= this.size) {
+            return false;
+        }
+        long hash = hashOf(key);
+        int base = bucket * this.wordsPerBucket;
+        for (int i = 0; i < PROBES; i++) {
+            int bit = this.probe(hash, i);
+            if ((this.words[base + (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets the bits of the keys in the bucket
+     */
+    synchronized void add(int bucket, Iterable<String> keys) throws IOException {
+        this.prepare(bucket);
+        this.setBits(bucket, keys);
+    }
+
+    /**
+     * Replaces the bits of the bucket by the bits of the keys
+     */
+    synchronized void rebuild(int bucket, Iterable<String> keys) throws IOException {
+        this.prepare(bucket);
+        int base = bucket * this.wordsPerBucket;
+        Arrays.fill(this.words, base, base + this.wordsPerBucket, 0L);
+        this.setBits(bucket, keys);
+    }
+
+    private void prepare(int bucket) throws IOException {
+        this.markChanged();
+        this.ensureCapacity(bucket + 1);
+        if (bucket >= this.size) {
+            // buckets skipped over are written as empty blocks
+            this.dirty.set(this.size, bucket + 1);
+            this.size = bucket + 1;
+        }
+        this.dirty.set(bucket);
+    }
+
+    private void setBits(int bucket, Iterable<String> keys) {
+        int base = bucket * this.wordsPerBucket;
+        for (String key : keys) {
+            long hash = hashOf(key);
+            for (int i = 0; i < PROBES; i++) {
+                int bit = this.probe(hash, i);
+                this.words[base + (bit >>> 6)] |= 1L << bit;
+            }
+        }
+    }
+
+    private static long hashOf(String key) {
+        return KeyHash.mix64(KeyHash.mix64(key) ^ SALT);
+    }
+
+    /**
+     * Bit of the i-th probe within the block of a bucket, double hashing over the two halves of the hash
+     */
+    private int probe(long hash, int i) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        return Integer.remainderUnsigned(h1 + i * h2, this.bitsPerBucket);
+    }
+
+    public int getWordsPerBucket() {
+        return this.wordsPerBucket;
+    }
+
+    /**
+     * Bytes of bits held in memory for the written buckets
+     */
+    public synchronized long getMemoryBytes() {
+        return (long) this.size * this.wordsPerBucket * Long.BYTES;
+    }
+
+    /**
+     * Writes the changed buckets as runs of adjacent buckets and marks the file clean
+     */
+    synchronized void save() throws IOException {
+        if (!this.changed) return;
+
+        int bucketBytes = this.wordsPerBucket * Long.BYTES;
+        int from = this.dirty.nextSetBit(0);
+        while (from >= 0 && from < this.size) {
+            int to = Math.min(this.dirty.nextClearBit(from), this.size);
+            ByteBuffer run = ByteBuffer.allocate((to - from) * bucketBytes);
+            run.asLongBuffer().put(this.words, from * this.wordsPerBucket, (to - from) * this.wordsPerBucket);
+            this.file.write(HEADER_SIZE + (long) from * bucketBytes, run.array());
+            from = this.dirty.nextSetBit(to);
+        }
+        this.dirty.clear();
+
+        this.file.setLength(HEADER_SIZE + (long) this.size * bucketBytes);
+        this.writeHeader(CLEAN);
+        this.changed = false;
+        this.flagCleared = false;
+    }
+
+    /**
+     * Saves the changed buckets and forces the file to disk
+     */
+    synchronized void checkpoint() throws IOException {
+        this.save();
+        this.file.force();
+    }
+
+    synchronized void close() throws IOException {
+        this.save();
+        this.file.close();
+    }
+
+    /**
+     * Clears the clean flag on disk before the first change after a save
+     * The cleared flag is forced so a crash can not leave a clean filter on disk that misses later inserts
+     */
+    private void markChanged() throws IOException {
+        if (!this.flagCleared) {
+            this.writeHeader(0);
+            this.file.force();
+            this.flagCleared = true;
+        }
+        this.changed = true;
+    }
+
+    private void writeHeader(int flag) throws IOException {
+        this.file.write(0, ByteBuffer.allocate(HEADER_SIZE).putInt(flag).putInt(this.wordsPerBucket)
+                .putInt(this.size).array());
+    }
+
+    private void ensureCapacity(int buckets) {
+        long needed = (long) buckets * this.wordsPerBucket;
+        if (needed <= this.words.length) return;
+
+        long capacity = Math.max(Math.max((long) INITIAL_BUCKETS * this.wordsPerBucket, needed),
+                this.words.length * 2L);
+        this.words = Arrays.copyOf(this.words, (int) capacity);
+    }
+}
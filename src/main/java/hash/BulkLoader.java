@@ -0,0 +1,276 @@
+package hash;
+
+import data.Record;
+import overflow.OverflowBlock;
+import overflow.OverflowFile;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Builds an empty linear hashing file from a stream of records in one pass
+ * Level and split pointer are computed up front from the record count and the target load factor,
+ * records are partitioned by bucket and every primary block and overflow chain is written exactly once, in file order
+ * Records are buffered serialized and deserialized one bucket at a time, so the memory budget bounds
+ * the heap used by the loader, records that do not fit in it are spilled to temporary run files next to the hash file
+ */
+class BulkLoader<T extends Record<T>> {
+    public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+    // bucket and position of a buffered record while the buffer is grouped by bucket
+    private static final int INDEX_BYTES_PER_RECORD = 2 * Integer.BYTES;
+
+    private final LinearHashing<T> target;
+    private final T recordTemplate;
+    private final OverflowFile<T> overflowFile;
+    private final String tempPrefix;
+    private final int recordSize;
+    private final int maxBufferedRecords;
+
+    BulkLoader(LinearHashing<T> target, T recordTemplate, String tempPrefix, long memoryBudget) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive: " + memoryBudget);
+        }
+        this.target = target;
+        this.recordTemplate = recordTemplate;
+        this.overflowFile = target.getOverflowFile();
+        this.tempPrefix = tempPrefix;
+        this.recordSize = recordTemplate.getSize();
+        long maxRecords = memoryBudget / (this.recordSize + INDEX_BYTES_PER_RECORD);
+        this.maxBufferedRecords = (int) Math.max(1, Math.min((Integer.MAX_VALUE - 8) / this.recordSize, maxRecords));
+    }
+
+    /**
+     * Loads all records, keys are not checked for duplicates (same as insert)
+     * @return number of loaded records
+     */
+    int load(Iterator<T> records, double targetLoadFactor) throws IOException {
+        File stage = new File(this.tempPrefix + ".stage");
+        List<File> runs = new ArrayList<>();
+
+        try {
+            // 1. buffer serialized records in memory, spill everything to the staging run when the budget is exceeded
+            byte[] buffered = new byte[0];
+            int bufferedCount = 0;
+            DataOutputStream stageOut = null;
+            boolean spilled = false;
+            int count = 0;
+
+            try {
+                while (records.hasNext()) {
+                    T record = records.next();
+                    if (record == null || record.getKey() == null || record.getKey().isBlank()) {
+                        continue;
+                    }
+
+                    count++;
+                    if (stageOut != null) {
+                        this.writeRecord(stageOut, record);
+                    } else if (bufferedCount < this.maxBufferedRecords) {
+                        if ((bufferedCount + 1) * this.recordSize > buffered.length) {
+                            int capacity = Math.min(this.maxBufferedRecords, Math.max(64, bufferedCount * 2));
+                            buffered = Arrays.copyOf(buffered, capacity * this.recordSize);
+                        }
+                        this.encode(record, buffered, bufferedCount * this.recordSize);
+                        bufferedCount++;
+                    } else {
+                        stageOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(stage)));
+                        spilled = true;
+                        stageOut.write(buffered, 0, bufferedCount * this.recordSize);
+                        buffered = new byte[0];
+                        bufferedCount = 0;
+                        this.writeRecord(stageOut, record);
+                    }
+                }
+            } finally {
+                if (stageOut != null) stageOut.close();
+            }
+
+            // 2. final shape of the file
+            int buckets = this.bucketCount(count, targetLoadFactor);
+            int level = 0;
+            while (this.target.primaryBlocksAtLevel(level + 1) <= buckets) {
+                level++;
+            }
+            int splitPointer = buckets - this.target.primaryBlocksAtLevel(level);
+            this.target.setStructure(level, splitPointer, 0);
+
+            // 3. partition by bucket range and write the blocks
+            int[] nextOverflow = new int[]{0};
+            if (spilled) {
+                int partitions = (int) Math.min(buckets, ((long) count + this.maxBufferedRecords - 1) / this.maxBufferedRecords);
+                for (int p = 0; p < partitions; p++) {
+                    runs.add(new File(this.tempPrefix + ".run" + p));
+                }
+                this.partition(stage, runs, buckets);
+                stage.delete();
+
+                for (int p = 0; p < partitions; p++) {
+                    int from = firstBucket(p, partitions, buckets);
+                    int to = firstBucket(p + 1, partitions, buckets);
+                    byte[] run = Files.readAllBytes(runs.get(p).toPath());
+                    this.writeBuckets(run, run.length / this.recordSize, from, to, nextOverflow);
+                    runs.get(p).delete();
+                }
+            } else {
+                this.writeBuckets(buffered, bufferedCount, 0, buckets, nextOverflow);
+            }
+
+            this.target.setStructure(level, splitPointer, count);
+            this.overflowFile.setUsedOverflowBlocks(nextOverflow[0]);
+            return count;
+        } finally {
+            stage.delete();
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    /**
+     * Number of buckets so that the primary area alone stays at or below the target load factor
+     */
+    private int bucketCount(int records, double targetLoadFactor) {
+        long buckets = (long) Math.ceil(records / (this.target.getRecordsPerBlock() * targetLoadFactor));
+        if (buckets > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("Too many records for one hash file: " + records);
+        }
+        return (int) Math.max(this.target.getM(), buckets);
+    }
+
+    /**
+     * First bucket of the partition, partitions cover contiguous bucket ranges
+     */
+    private static int firstBucket(int partition, int partitions, int buckets) {
+        return (int) (((long) partition * buckets + partitions - 1) / partitions);
+    }
+
+    /**
+     * Distributes the staged records to one run file per bucket range
+     */
+    private void partition(File stage, List<File> runs, int buckets) throws IOException {
+        int partitions = runs.size();
+        DataOutputStream[] outs = new DataOutputStream[partitions];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stage)))) {
+            for (int p = 0; p < partitions; p++) {
+                outs[p] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runs.get(p)), 1 << 16));
+            }
+
+            byte[] data = new byte[this.recordSize];
+            while (this.readFully(in, data)) {
+                T record = this.decode(data);
+                int bucket = this.target.getTargetBlock(record.getKey());
+                outs[(int) ((long) bucket * partitions / buckets)].write(data);
+            }
+        } finally {
+            for (DataOutputStream out : outs) {
+                if (out != null) out.close();
+            }
+        }
+    }
+
+    /**
+     * Groups the serialized records by bucket and writes buckets from..to-1 with their overflow chains
+     * Only the records of the bucket being written are deserialized
+     * Overflow blocks of one chain are allocated contiguously from nextOverflow[0]
+     */
+    private void writeBuckets(byte[] records, int count, int from, int to, int[] nextOverflow) throws IOException {
+        // counting sort of the record positions by bucket
+        int[] bucketOf = new int[count];
+        int[] start = new int[to - from + 1];
+        byte[] data = new byte[this.recordSize];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(records, i * this.recordSize, data, 0, this.recordSize);
+            bucketOf[i] = this.target.getTargetBlock(this.decode(data).getKey()) - from;
+            start[bucketOf[i] + 1]++;
+        }
+        for (int b = 0; b < to - from; b++) {
+            start[b + 1] += start[b];
+        }
+        int[] order = new int[count];
+        int[] next = Arrays.copyOf(start, to - from);
+        for (int i = 0; i < count; i++) {
+            order[next[bucketOf[i]]++] = i;
+        }
+
+        int primaryCapacity = this.target.getRecordsPerBlock();
+        int overflowCapacity = this.overflowFile.getRecordsPerBlock();
+
+        for (int bucket = from; bucket < to; bucket++) {
+            List<T> group = new ArrayList<>(start[bucket - from + 1] - start[bucket - from]);
+            for (int i = start[bucket - from]; i < start[bucket - from + 1]; i++) {
+                System.arraycopy(records, order[i] * this.recordSize, data, 0, this.recordSize);
+                group.add(this.decode(data));
+            }
+            int size = group.size();
+
+            LHBlock<T> primary = (LHBlock<T>) this.target.createBlock(bucket);
+            int inPrimary = Math.min(size, primaryCapacity);
+            for (int i = 0; i < inPrimary; i++) {
+                primary.addRecord(group.get(i));
+            }
+
+            int overflowRecords = size - inPrimary;
+            int chainLength = (overflowRecords + overflowCapacity - 1) / overflowCapacity;
+            primary.setNextOverflow(chainLength == 0 ? -1 : nextOverflow[0]);
+            primary.setOverflowRecordCount(overflowRecords);
+            primary.setChainLength(chainLength);
+            if (chainLength > 0) {
+                int tail = nextOverflow[0] + chainLength - 1;
+                primary.setChainTail(tail);
+                primary.setFreeSpaceHint(overflowRecords < chainLength * overflowCapacity ? tail : -1);
+            }
+            for (int i = inPrimary; i < size; i++) {
+                primary.addToChainFilter(group.get(i).getKey());
+            }
+            this.target.writeBlock(bucket, primary);
+
+            int position = inPrimary;
+            for (int c = 0; c < chainLength; c++) {
+                int index = nextOverflow[0]++;
+                OverflowBlock<T> block = this.overflowFile.createBlock(index);
+                for (int i = 0; i < overflowCapacity && position < size; i++) {
+                    block.addRecord(group.get(position++));
+                }
+                block.setNextOverflow(c == chainLength - 1 ? -1 : index + 1);
+                this.overflowFile.writeOverflowBlock(block);
+            }
+        }
+    }
+
+    /**
+     * Serializes the record into the buffer at the offset, padded or cut to the record size
+     */
+    private void encode(T record, byte[] target, int offset) {
+        byte[] bytes = record.getBytes();
+        System.arraycopy(bytes, 0, target, offset, Math.min(bytes.length, this.recordSize));
+    }
+
+    private void writeRecord(DataOutputStream out, T record) throws IOException {
+        byte[] bytes = record.getBytes();
+        if (bytes.length >= this.recordSize) {
+            out.write(bytes, 0, this.recordSize);
+        } else {
+            out.write(bytes);
+            out.write(new byte[this.recordSize - bytes.length]);
+        }
+    }
+
+    private T decode(byte[] data) {
+        T record = this.recordTemplate.createClass();
+        record.fromBytes(data);
+        return record;
+    }
+
+    private boolean readFully(DataInputStream in, byte[] target) throws IOException {
+        try {
+            in.readFully(target);
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package hash;
+
+import data.Record;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One entry of the extendible hashing directory - the index of a bucket block
+ * Entries are stored in directory order in the blocks of a heap file
+ */
+class DirectoryEntry implements Record<DirectoryEntry> {
+    private int bucket;
+
+    DirectoryEntry() {}
+
+    DirectoryEntry(int bucket) {
+        this.bucket = bucket;
+    }
+
+    int getBucket() {
+        return this.bucket;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (other == null || getClass() != other.getClass()) return false;
+        return this.bucket == ((DirectoryEntry) other).bucket;
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(this.bucket);
+    }
+
+    @Override
+    public int getSize() {
+        return 4;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        return ByteBuffer.allocate(this.getSize()).putInt(this.bucket).array();
+    }
+
+    @Override
+    public void fromBytes(byte[] data) {
+        if (data == null || data.length != this.getSize()) {
+            throw new IllegalArgumentException("Invalid data size for DirectoryEntry");
+        }
+        this.bucket = ByteBuffer.wrap(data).getInt();
+    }
+
+    @Override
+    public DirectoryEntry createClass() {
+        return new DirectoryEntry();
+    }
+
+    @Override
+    public String getKey() {
+        return String.valueOf(this.bucket);
+    }
+
+    @Override
+    public void setKey(String key) {
+        try {
+            this.bucket = Integer.parseInt(key);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid bucket index: " + key);
+        }
+    }
+}
@@ -0,0 +1,853 @@
+package hash;
+
+import heap.Block;
+import heap.BufferPool;
+import heap.HeapFile;
+import heap.StorageMode;
+import data.Record;
+import overflow.OverflowBlock;
+import overflow.OverflowFile;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Extendible hashing - a directory of 2^globalDepth entries indexed by the low bits of the key hash
+ * points to the bucket blocks, a bucket of local depth d is shared by the 2^(globalDepth - d) entries
+ * with the same low d bits
+ * Only the overflowing bucket is split (the directory doubles when its local depth reaches the global depth),
+ * so skewed keys do not build overflow chains while waiting for a split pointer as in linear hashing
+ * A bucket gets an overflow chain only when its local depth reaches {@link #MAX_GLOBAL_DEPTH}
+ * or when a split would not separate its records (keys with colliding hashes)
+ * Files: buckets in the file itself, the directory in filename.dir, overflow blocks in filename.overflow
+ */
+public class ExtendibleHashing<T extends Record<T>> extends HeapFile<T> implements HashIndex<T> {
+    public static final int MAX_GLOBAL_DEPTH = 24;
+
+    private static final int LOCK_STRIPES = 64;
+    private static final int DIRECTORY_BLOCK_SIZE = 4096;
+    // a bucket this empty after a delete is merged with its buddy if both fit in half a block
+    private static final int MERGE_CHECK_DIVISOR = 4;
+
+    private int globalDepth;
+    private int[] directory; // bucket of each entry, entry = low globalDepth bits of the hash
+    private int[] localDepth = new int[0]; // per bucket block, -1 for blocks not in use
+    private final BitSet freeBuckets = new BitSet();
+    private int bucketCount = 0; // buckets in use
+    private int bucketsAtGlobalDepth = 0; // the directory can halve when there are none
+    private final int initialDepth;
+    private final AtomicInteger totalRecords = new AtomicInteger();
+    private HashFunction hashFunction;
+    private long splits = 0; // changed only under the structure write lock
+    private long merges = 0;
+
+    private final OverflowFile<T> overflowFile;
+    private final HeapFile<DirectoryEntry> directoryFile;
+    private final BitSet dirtyDirectoryBlocks = new BitSet();
+    private final String metadataFile;
+    private volatile boolean metadataChanged = false;
+
+    // splits and merges take the write lock, bucket operations the read lock and their bucket stripe
+    private final ReentrantReadWriteLock structureLock = new ReentrantReadWriteLock();
+    private final StripedLock bucketLocks = new StripedLock(LOCK_STRIPES);
+
+    public ExtendibleHashing(String filename, int bucketBlockSize, int overflowBlockSize, T recordTemplate,
+                             int initialBuckets, BufferPool bufferPool, StorageMode storageMode) throws IOException {
+        this(filename, bucketBlockSize, overflowBlockSize, recordTemplate, initialBuckets, bufferPool, storageMode,
+                HashFunction.DEFAULT);
+    }
+
+    /**
+     * Opens the hash file, the number of initial buckets is rounded up to a power of two
+     * The hash function is used for new files, an existing file keeps the function stored in its metadata
+     */
+    public ExtendibleHashing(String filename, int bucketBlockSize, int overflowBlockSize, T recordTemplate,
+                             int initialBuckets, BufferPool bufferPool, StorageMode storageMode,
+                             HashFunction hashFunction) throws IOException {
+        if (initialBuckets < 1 || initialBuckets > 1 << MAX_GLOBAL_DEPTH) {
+            throw new IllegalArgumentException("Initial number of buckets must be in [1, 2^" + MAX_GLOBAL_DEPTH
+                    + "]: " + initialBuckets);
+        }
+        super(filename, bucketBlockSize, recordTemplate, bufferPool, storageMode);
+        this.initialDepth = 32 - Integer.numberOfLeadingZeros(initialBuckets - 1);
+        this.hashFunction = hashFunction;
+        this.metadataFile = filename + ".meta";
+        this.overflowFile = new OverflowFile<>(filename + ".overflow", overflowBlockSize, recordTemplate, bufferPool, storageMode);
+        this.directoryFile = new HeapFile<>(filename + ".dir", DIRECTORY_BLOCK_SIZE, new DirectoryEntry(), bufferPool,
+                storageMode);
+
+        if (!this.loadMetadata()) {
+            this.initializeFile();
+        }
+    }
+
+    /**
+     * Loads depth, record count, overflow block count and hash function, then the directory
+     * @return false for a new file
+     */
+    private boolean loadMetadata() throws IOException {
+        File metadata = new File(this.metadataFile);
+        if (!metadata.exists()) {
+            if (this.getFile().length() != 0) {
+                throw new IOException("Missing metadata of extendible hash file: " + this.metadataFile);
+            }
+            return false;
+        }
+
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(metadata))) {
+            this.globalDepth = dis.readInt();
+            this.totalRecords.set(dis.readInt());
+
+            int savedOverflowBlocks = dis.readInt();
+            if (savedOverflowBlocks < 0 || savedOverflowBlocks > this.overflowFile.getBlockCount()) {
+                this.overflowFile.setUsedOverflowBlocks(0);
+                this.metadataChanged = true;
+            } else {
+                this.overflowFile.setUsedOverflowBlocks(savedOverflowBlocks);
+            }
+
+            this.hashFunction = HashFunction.fromId(dis.readInt());
+        }
+        if (this.globalDepth < 0 || this.globalDepth > MAX_GLOBAL_DEPTH) {
+            throw new IOException("Invalid global depth in " + this.metadataFile + ": " + this.globalDepth);
+        }
+
+        this.directory = new int[1 << this.globalDepth];
+        int perBlock = this.directoryFile.getRecordsPerBlock();
+        for (int b = 0; (long) b * perBlock < this.directory.length; b++) {
+            int from = b * perBlock;
+            int count = Math.min(perBlock, this.directory.length - from);
+            List<DirectoryEntry> entries = this.directoryFile.readBlock(b).getRecords();
+            if (entries.size() < count) {
+                throw new IOException("Directory file is shorter than its global depth " + this.globalDepth);
+            }
+            for (int i = 0; i < count; i++) {
+                this.directory[from + i] = entries.get(i).getBucket();
+            }
+        }
+
+        this.rebuildLocalDepths();
+        return true;
+    }
+
+    /**
+     * Local depths follow from the directory, a bucket referenced by 2^k entries has depth globalDepth - k
+     * Blocks that no entry references are free
+     */
+    private void rebuildLocalDepths() throws IOException {
+        int blocks = this.getBlockCount();
+        int[] references = new int[blocks];
+        for (int bucket : this.directory) {
+            if (bucket < 0 || bucket >= blocks) {
+                throw new IOException("Directory entry points outside of the hash file: " + bucket);
+            }
+            references[bucket]++;
+        }
+
+        this.localDepth = new int[blocks];
+        this.freeBuckets.clear();
+        this.bucketCount = 0;
+        this.bucketsAtGlobalDepth = 0;
+        for (int b = 0; b < blocks; b++) {
+            if (references[b] == 0) {
+                this.localDepth[b] = -1;
+                this.freeBuckets.set(b);
+                continue;
+            }
+            this.localDepth[b] = this.globalDepth - Integer.numberOfTrailingZeros(references[b]);
+            this.bucketCount++;
+            if (this.localDepth[b] == this.globalDepth) {
+                this.bucketsAtGlobalDepth++;
+            }
+        }
+    }
+
+    /**
+     * Saves metadata and the changed directory blocks
+     */
+    private void saveMetadata() throws IOException {
+        if (!this.metadataChanged) return;
+
+        this.writeDirectory();
+        try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(this.metadataFile))) {
+            dos.writeInt(this.globalDepth);
+            dos.writeInt(this.totalRecords.get());
+            dos.writeInt(this.overflowFile.getUsedOverflowBlocks());
+            dos.writeInt(this.hashFunction.getId());
+        }
+        this.metadataChanged = false;
+    }
+
+    /**
+     * Writes the directory blocks changed since the last save
+     * Blocks past the end of a halved directory are left in the file and ignored when it is loaded
+     */
+    private void writeDirectory() throws IOException {
+        int perBlock = this.directoryFile.getRecordsPerBlock();
+        for (int b = this.dirtyDirectoryBlocks.nextSetBit(0); b >= 0; b = this.dirtyDirectoryBlocks.nextSetBit(b + 1)) {
+            int from = b * perBlock;
+            if (from >= this.directory.length) {
+                break;
+            }
+
+            Block<DirectoryEntry> block = new Block<>(b, DIRECTORY_BLOCK_SIZE, new DirectoryEntry());
+            for (int e = from; e < Math.min(from + perBlock, this.directory.length); e++) {
+                block.addRecord(new DirectoryEntry(this.directory[e]));
+            }
+            this.directoryFile.writeBlock(b, block);
+        }
+        this.dirtyDirectoryBlocks.clear();
+    }
+
+    private void markDirectoryDirty(int fromEntry, int toEntry) {
+        int perBlock = this.directoryFile.getRecordsPerBlock();
+        this.dirtyDirectoryBlocks.set(fromEntry / perBlock, (toEntry - 1) / perBlock + 1);
+        this.metadataChanged = true;
+    }
+
+    /**
+     * Initializes a new hash file with 2^initialDepth empty buckets
+     */
+    private void initializeFile() throws IOException {
+        this.globalDepth = this.initialDepth;
+        int size = 1 << this.globalDepth;
+        this.directory = new int[size];
+        this.localDepth = new int[size];
+        for (int i = 0; i < size; i++) {
+            this.directory[i] = i;
+            this.localDepth[i] = this.globalDepth;
+            this.writeBlock(i, this.emptyBucket(i));
+        }
+        this.bucketCount = size;
+        this.bucketsAtGlobalDepth = size;
+        this.markDirectoryDirty(0, size);
+    }
+
+    @Override
+    protected Block<T> createBlock(int blockIndex) {
+        return new LHBlock<>(blockIndex, this.getClusterSize(), this.getRecordTemplate());
+    }
+
+    private LHBlock<T> readBucket(int index) throws IOException {
+        LHBlock<T> block = (LHBlock<T>) this.readBlock(index);
+        int next = block.getNextOverflow();
+        if (next == 65535 || next < 0) {
+            block.setNextOverflow(-1);
+        }
+        return block;
+    }
+
+    private LHBlock<T> emptyBucket(int index) {
+        LHBlock<T> block = (LHBlock<T>) this.createBlock(index);
+        block.clearRecords();
+        block.resetChain();
+        return block;
+    }
+
+    public OverflowFile<T> getOverflowFile() {
+        return this.overflowFile;
+    }
+
+    public HashFunction getHashFunction() {
+        return this.hashFunction;
+    }
+
+    public int getGlobalDepth() {
+        return this.globalDepth;
+    }
+
+    private int entryOf(long hash) {
+        return (int) (hash & ((1L << this.globalDepth) - 1));
+    }
+
+    /**
+     * Bucket block of the key
+     */
+    public int getTargetBlock(String key) {
+        return this.directory[this.entryOf(this.hashFunction.hash(key))];
+    }
+
+    /**
+     * Operation on the bucket of a key, runs while the bucket stripe is locked
+     */
+    @FunctionalInterface
+    private interface BucketOperation<R> {
+        R apply(int blockIndex) throws IOException;
+    }
+
+    /**
+     * Runs the operation on the bucket of the key
+     * The structure read lock keeps the directory stable, the stripe lock serializes writers of the same bucket
+     */
+    private <R> R inBucket(String key, boolean write, BucketOperation<R> operation) throws IOException {
+        this.structureLock.readLock().lock();
+        try {
+            int blockIndex = this.getTargetBlock(key);
+            ReentrantReadWriteLock stripe = this.bucketLocks.get(this.bucketLocks.stripeOf(blockIndex));
+            Lock lock = write ? stripe.writeLock() : stripe.readLock();
+
+            lock.lock();
+            try {
+                return operation.apply(blockIndex);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            this.structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts a new record, a full bucket is split until the record fits
+     */
+    @Override
+    public void insert(T record, String key) throws IOException {
+        long hash = this.hashFunction.hash(key);
+        while (true) {
+            boolean inserted = this.inBucket(key, true, blockIndex -> {
+                LHBlock<T> bucket = this.readBucket(blockIndex);
+
+                if (bucket.addRecord(record) == -1) {
+                    if (this.canSplit(blockIndex, bucket, hash)) {
+                        return false;
+                    }
+
+                    // the bucket cannot be split any more or the split would leave all records together
+                    int[] chain = bucket.getChainState();
+                    if (!this.overflowFile.addToChain(chain, record)) {
+                        throw new IllegalStateException("Overflow chain didn't accept record.");
+                    }
+                    bucket.setChainState(chain);
+                    bucket.setOverflowRecordCount(bucket.getOverflowRecordCount() + 1);
+                    bucket.addToChainFilter(key);
+                }
+
+                this.writeBlock(blockIndex, bucket);
+                this.totalRecords.incrementAndGet();
+                this.metadataChanged = true;
+                return true;
+            });
+
+            if (inserted) {
+                return;
+            }
+            this.splitBucketOf(key);
+        }
+    }
+
+    /**
+     * Retrieves a record by key
+     * Blocks are searched through a view over the page, only the matching record is deserialized
+     */
+    @Override
+    public T get(String key) throws IOException {
+        return this.inBucket(key, false, blockIndex -> {
+            int[] chainHolder = new int[]{-1, 0};
+
+            T result = this.readView(blockIndex, view -> {
+                T found = view.find(key);
+                if (found == null && LHBlock.chainMayContain(view, key)) {
+                    chainHolder[0] = LHBlock.readNextOverflow(view);
+                    chainHolder[1] = LHBlock.readChainLength(view);
+                }
+                return found;
+            });
+            if (result != null) {
+                return result;
+            }
+
+            int firstOverflow = chainHolder[0];
+            if (firstOverflow != -1) {
+                return this.overflowFile.findInChain(firstOverflow, key, chainHolder[1]);
+            }
+
+            return null;
+        });
+    }
+
+    /**
+     * Updates an existing record by key
+     * Returns true if record was found and updated, false otherwise
+     */
+    @Override
+    public boolean update(T updated) throws IOException {
+        if (updated == null) return false;
+
+        String key = updated.getKey();
+        if (key == null || key.isBlank()) {
+            return false;
+        }
+
+        return this.inBucket(key, true, blockIndex -> {
+            LHBlock<T> bucket = this.readBucket(blockIndex);
+
+            if (bucket.updateRecord(this.createPattern(key), updated)) {
+                this.writeBlock(blockIndex, bucket);
+                return true;
+            }
+
+            int firstOverflow = bucket.getNextOverflow();
+            if (firstOverflow != -1) {
+                return this.overflowFile.updateInChain(firstOverflow, key, updated, bucket.getChainLength());
+            }
+
+            return false;
+        });
+    }
+
+    /**
+     * Deletes a record by key
+     * A bucket left nearly empty is merged with its buddy afterwards under the structure lock
+     */
+    @Override
+    public boolean delete(String key) throws IOException {
+        boolean[] mergeCandidate = new boolean[]{false};
+
+        boolean deleted = this.inBucket(key, true, blockIndex -> {
+            LHBlock<T> bucket = this.readBucket(blockIndex);
+
+            boolean removed = bucket.deleteRecord(this.createPattern(key));
+            if (!removed && bucket.getNextOverflow() != -1) {
+                int[] chain = bucket.getChainState();
+                if (this.overflowFile.deleteFromChain(chain, key)) {
+                    removed = true;
+                    bucket.setChainState(chain);
+                    bucket.setOverflowRecordCount(Math.max(0, bucket.getOverflowRecordCount() - 1));
+                    if (chain[OverflowFile.CHAIN_FIRST] == -1) {
+                        bucket.setChainFilter(0);
+                    }
+                }
+            }
+
+            if (removed) {
+                this.writeBlock(blockIndex, bucket);
+                this.totalRecords.decrementAndGet();
+                this.metadataChanged = true;
+                mergeCandidate[0] = this.localDepth[blockIndex] > this.initialDepth
+                        && bucket.getValidCount() + bucket.getOverflowRecordCount()
+                        <= this.getRecordsPerBlock() / MERGE_CHECK_DIVISOR;
+            }
+            return removed;
+        });
+
+        if (mergeCandidate[0]) {
+            this.mergeBucketOf(key);
+        }
+        return deleted;
+    }
+
+    /**
+     * Splits the bucket of the key unless a concurrent operation already made room in it
+     */
+    private void splitBucketOf(String key) throws IOException {
+        this.structureLock.writeLock().lock();
+        try {
+            long hash = this.hashFunction.hash(key);
+            int bucket = this.directory[this.entryOf(hash)];
+            LHBlock<T> block = this.readBucket(bucket);
+            if (block.hasSpace() || !this.canSplit(bucket, block, hash)) {
+                return;
+            }
+            this.split(bucket, hash);
+        } finally {
+            this.structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * A full bucket of local depth d is split only if its records and the new key differ in bit d of the hash,
+     * otherwise the split would move all of them to one side and the directory would double for nothing
+     */
+    private boolean canSplit(int blockIndex, LHBlock<T> bucket, long hash) {
+        int depth = this.localDepth[blockIndex];
+        if (depth >= MAX_GLOBAL_DEPTH) {
+            return false;
+        }
+
+        long bit = 1L << depth;
+        for (T record : bucket.getRecords()) {
+            if ((this.hashFunction.hash(record.getKey()) & bit) != (hash & bit)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Algorithm:
+     * 1. If the local depth d of the bucket equals the global depth, the directory doubles
+     * 2. A new bucket takes over the entries of the bucket that have bit d set, both get local depth d + 1
+     * 3. Records of the bucket (and its chain) are spread over both by bit d of their hash
+     */
+    private void split(int bucket, long hash) throws IOException {
+        int depth = this.localDepth[bucket];
+        if (depth == this.globalDepth) {
+            this.doubleDirectory();
+        }
+
+        int newBucket = this.allocateBucket();
+
+        // entries of the bucket share its low depth bits
+        int stride = 1 << depth;
+        for (int e = (int) (hash & (stride - 1)); e < this.directory.length; e += stride) {
+            if ((e & stride) != 0) {
+                this.directory[e] = newBucket;
+                this.markDirectoryDirty(e, e + 1);
+            }
+        }
+        this.localDepth[bucket] = depth + 1;
+        this.localDepth[newBucket] = depth + 1;
+        if (depth + 1 == this.globalDepth) {
+            this.bucketsAtGlobalDepth += 2;
+        }
+
+        this.redistribute(new int[]{bucket}, new int[]{bucket, newBucket});
+
+        this.splits++;
+        this.metadataChanged = true;
+        this.overflowFile.removeEmptyBlocksFromEnd();
+    }
+
+    /**
+     * Merges the bucket of the key with its buddy as long as both fit in half a block,
+     * then halves the directory while no bucket needs its full depth
+     */
+    private void mergeBucketOf(String key) throws IOException {
+        this.structureLock.writeLock().lock();
+        try {
+            long hash = this.hashFunction.hash(key);
+            boolean merged = false;
+            while (this.merge(hash)) {
+                merged = true;
+            }
+            if (merged) {
+                this.shrinkDirectory();
+                this.overflowFile.removeEmptyBlocksFromEnd();
+            }
+        } finally {
+            this.structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Buddy of a bucket of local depth d differs from it in bit d - 1 of the entries
+     * Both must have the same local depth, the lower block is kept and the other one is freed
+     */
+    private boolean merge(long hash) throws IOException {
+        int entry = this.entryOf(hash);
+        int bucket = this.directory[entry];
+        int depth = this.localDepth[bucket];
+        if (depth <= this.initialDepth) {
+            return false;
+        }
+
+        int buddy = this.directory[entry ^ (1 << (depth - 1))];
+        if (this.localDepth[buddy] != depth) {
+            return false;
+        }
+
+        LHBlock<T> a = this.readBucket(bucket);
+        LHBlock<T> b = this.readBucket(buddy);
+        int records = a.getValidCount() + a.getOverflowRecordCount() + b.getValidCount() + b.getOverflowRecordCount();
+        if (records > this.getRecordsPerBlock() / 2) {
+            return false;
+        }
+
+        int keep = Math.min(bucket, buddy);
+        int removed = Math.max(bucket, buddy);
+
+        int stride = 1 << (depth - 1);
+        for (int e = entry & (stride - 1); e < this.directory.length; e += stride) {
+            if (this.directory[e] == removed) {
+                this.directory[e] = keep;
+                this.markDirectoryDirty(e, e + 1);
+            }
+        }
+        if (depth == this.globalDepth) {
+            this.bucketsAtGlobalDepth -= 2;
+        }
+        this.localDepth[keep] = depth - 1;
+
+        this.redistribute(new int[]{keep, removed}, new int[]{keep});
+        this.releaseBucket(removed);
+
+        this.merges++;
+        this.metadataChanged = true;
+        return true;
+    }
+
+    /**
+     * Reads the source buckets with their chains, releases the chains and writes the records
+     * to the target buckets by the current directory, sources that are not targets are written empty
+     */
+    private void redistribute(int[] sources, int[] targets) throws IOException {
+        List<T> allRecords = new ArrayList<>();
+        List<Integer> oldChainBlocks = new ArrayList<>();
+
+        for (int bucket : sources) {
+            LHBlock<T> block = this.readBucket(bucket);
+            allRecords.addAll(block.getRecords());
+            for (OverflowBlock<T> overflowBlock : this.overflowFile.collectAllBlocksFromChain(
+                    block.getNextOverflow(), block.getChainLength())) {
+                allRecords.addAll(overflowBlock.getRecords());
+                oldChainBlocks.add(overflowBlock.getAddress());
+            }
+        }
+
+        for (int index : oldChainBlocks) {
+            this.overflowFile.markOverflowBlockAsEmpty(index);
+        }
+
+        List<LHBlock<T>> blocks = new ArrayList<>();
+        List<List<T>> recordsByTarget = new ArrayList<>();
+        for (int target : targets) {
+            blocks.add(this.emptyBucket(target));
+            recordsByTarget.add(new ArrayList<>());
+        }
+        for (T record : allRecords) {
+            int bucket = this.getTargetBlock(record.getKey());
+            int i = 0;
+            while (i < targets.length && targets[i] != bucket) {
+                i++;
+            }
+            if (i == targets.length) {
+                throw new IllegalStateException("Record " + record.getKey() + " addressed to bucket " + bucket
+                        + " outside of the restructured buckets.");
+            }
+            recordsByTarget.get(i).add(record);
+        }
+
+        for (int bucket : sources) {
+            if (Arrays.stream(targets).noneMatch(t -> t == bucket)) {
+                this.writeBlock(bucket, this.emptyBucket(bucket));
+            }
+        }
+        for (int i = 0; i < targets.length; i++) {
+            LinearHashing.fillBucket(blocks.get(i), recordsByTarget.get(i), this.overflowFile);
+            this.writeBlock(targets[i], blocks.get(i));
+        }
+    }
+
+    /**
+     * Doubles the directory, the upper half repeats the lower one
+     */
+    private void doubleDirectory() {
+        if (this.globalDepth >= MAX_GLOBAL_DEPTH) {
+            throw new IllegalStateException("Directory cannot grow past depth " + MAX_GLOBAL_DEPTH);
+        }
+        int size = this.directory.length;
+        this.directory = Arrays.copyOf(this.directory, size * 2);
+        System.arraycopy(this.directory, 0, this.directory, size, size);
+        this.globalDepth++;
+        this.bucketsAtGlobalDepth = 0;
+        this.markDirectoryDirty(size, size * 2);
+    }
+
+    /**
+     * Halves the directory while every bucket is shared by at least two entries
+     */
+    private void shrinkDirectory() {
+        while (this.bucketsAtGlobalDepth == 0 && this.globalDepth > this.initialDepth) {
+            this.globalDepth--;
+            this.directory = Arrays.copyOf(this.directory, 1 << this.globalDepth);
+            for (int depth : this.localDepth) {
+                if (depth == this.globalDepth) {
+                    this.bucketsAtGlobalDepth++;
+                }
+            }
+            this.metadataChanged = true;
+        }
+    }
+
+    /**
+     * Free bucket block with the lowest index, or a new block at the end of the file
+     */
+    private int allocateBucket() throws IOException {
+        int index = this.freeBuckets.nextSetBit(0);
+        if (index >= 0) {
+            this.freeBuckets.clear(index);
+        } else {
+            index = this.appendBlock();
+        }
+
+        if (index >= this.localDepth.length) {
+            int oldLength = this.localDepth.length;
+            this.localDepth = Arrays.copyOf(this.localDepth, Math.max(index + 1, oldLength * 2));
+            Arrays.fill(this.localDepth, oldLength, this.localDepth.length, -1);
+        }
+        this.bucketCount++;
+        return index;
+    }
+
+    private void releaseBucket(int index) {
+        this.localDepth[index] = -1;
+        this.freeBuckets.set(index);
+        this.bucketCount--;
+    }
+
+    private T createPattern(String key) {
+        try {
+            T pattern = this.getRecordTemplate().createClass();
+            pattern.setKey(key);
+            return pattern;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to create search pattern", e);
+        }
+    }
+
+    @Override
+    public int getTotalRecords() {
+        return this.totalRecords.get();
+    }
+
+    /**
+     * Load factor = total records / total capacity (buckets + overflow)
+     */
+    private double getLoadFactor() {
+        long capacity = (long) this.bucketCount * this.getRecordsPerBlock()
+                + (long) this.overflowFile.getUsedOverflowBlocks() * this.overflowFile.getRecordsPerBlock();
+        return capacity == 0 ? 0 : (double) this.totalRecords.get() / capacity;
+    }
+
+    /**
+     * Gets statistics about the hash file
+     */
+    @Override
+    public ExtendibleHashingStats getStats() throws IOException {
+        this.structureLock.writeLock().lock();
+        try {
+            ExtendibleHashingStats stats = new ExtendibleHashingStats();
+            stats.globalDepth = this.globalDepth;
+            stats.directorySize = this.directory.length;
+            stats.totalRecords = this.totalRecords.get();
+            stats.totalBlocks = this.bucketCount;
+            stats.loadFactor = this.getLoadFactor();
+            stats.overflowBlocks = this.overflowFile.getUsedOverflowBlocks();
+            stats.splits = this.splits;
+            stats.merges = this.merges;
+
+            for (int i = 0; i < this.localDepth.length; i++) {
+                if (this.localDepth[i] < 0) continue;
+                LHBlock<T> block = this.readBucket(i);
+                if (!block.isEmpty()) {
+                    stats.nonEmptyBlocks++;
+                    stats.totalOverflowRecords += block.getOverflowRecordCount();
+                }
+            }
+
+            return stats;
+        } finally {
+            this.structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Statistics container class for Extendible Hashing
+     */
+    public static class ExtendibleHashingStats extends HashIndexStats {
+        public int globalDepth;
+        public int directorySize;
+    }
+
+    /**
+     * Durability checkpoint of the buckets, the directory and the overflow file
+     */
+    @Override
+    public void checkpoint() throws IOException {
+        this.structureLock.writeLock().lock();
+        try {
+            this.saveMetadata();
+            this.directoryFile.checkpoint();
+            this.overflowFile.checkpoint();
+            this.flush();
+            this.getFile().force();
+        } finally {
+            this.structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the hash file
+     */
+    @Override
+    public void close() throws IOException {
+        this.structureLock.writeLock().lock();
+        try {
+            this.saveMetadata();
+            this.directoryFile.close();
+            this.overflowFile.close();
+            this.releaseBufferPool();
+            super.getFile().close();
+        } finally {
+            this.structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Displays the directory and all buckets with their overflow chains
+     */
+    @Override
+    public String displayAllBlocks(String title) throws IOException {
+        this.structureLock.writeLock().lock();
+        try {
+            StringBuilder sb = new StringBuilder();
+            ExtendibleHashingStats stats = this.getStats();
+
+            if (title != null && !title.isBlank()) {
+                sb.append(title).append("\n\n");
+            }
+            sb.append("ŠTATISTIKY:\n");
+            sb.append("• Globálna hĺbka: ").append(stats.globalDepth).append("\n");
+            sb.append("• Veľkosť adresára: ").append(stats.directorySize).append("\n");
+            sb.append("• Celkový počet záznamov: ").append(stats.totalRecords).append("\n");
+            sb.append("• Bloky (buckety): ").append(stats.totalBlocks).append("\n");
+            sb.append("• Overflow bloky: ").append(stats.overflowBlocks).append("\n");
+            sb.append("• Záznamy v overflow: ").append(stats.totalOverflowRecords).append("\n");
+            sb.append("• Hustota: ").append(String.format("%.2f", stats.loadFactor)).append("\n\n");
+
+            sb.append("ADRESÁR:\n");
+            for (int e = 0; e < this.directory.length; e++) {
+                sb.append(" ").append(e).append(" → ").append(this.directory[e]).append("\n");
+            }
+            sb.append("\n");
+
+            for (int i = 0; i < this.localDepth.length; i++) {
+                if (this.localDepth[i] < 0) continue;
+
+                sb.append("════════════════════════════════════════════════════════════════════════════════\n");
+                sb.append("BUCKET ").append(i).append(" | Lokálna hĺbka: ").append(this.localDepth[i]).append("\n");
+                sb.append("════════════════════════════════════════════════════════════════════════════════\n");
+
+                LHBlock<T> bucket = this.readBucket(i);
+                sb.append("Záznamy: ").append(bucket.getValidCount()).append("/").append(bucket.getRecordsPerBlock())
+                        .append(" | Overflow pointer: ").append(bucket.getNextOverflow())
+                        .append(" | Overflow záznamov: ").append(bucket.getOverflowRecordCount()).append("\n\n");
+
+                if (bucket.isEmpty()) {
+                    sb.append(" Žiadne záznamy\n");
+                }
+                int recordNum = 1;
+                for (T record : bucket.getRecords()) {
+                    sb.append(" ").append(recordNum++).append(". ").append(record).append("\n");
+                }
+                for (OverflowBlock<T> overflowBlock : this.overflowFile.collectAllBlocksFromChain(
+                        bucket.getNextOverflow(), bucket.getChainLength())) {
+                    sb.append(" ├─ OVERFLOW BLOK ").append(overflowBlock.getAddress()).append("\n");
+                    for (T record : overflowBlock.getRecords()) {
+                        sb.append(" │ ").append(recordNum++).append(". ").append(record).append("\n");
+                    }
+                }
+                sb.append("\n");
+            }
+            return sb.toString();
+        } finally {
+            this.structureLock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package hash;
+
+import heap.KeyHash;
+
+/**
+ * Hash function of the keys, the choice is stored in the metadata of the hash file
+ * Hashes are treated as unsigned 64-bit values
+ */
+public enum HashFunction {
+    /**
+     * |String.hashCode()|, addressing of files created before the hash function was stored
+     * Sequential numeric keys get sequential hashes and fill neighbouring buckets unevenly
+     */
+    JAVA_STRING(0) {
+        @Override
+        public long hash(String key) {
+            return Math.abs((long) key.hashCode());
+        }
+    },
+
+    /**
+     * {@link KeyHash#mix64}, similar keys spread over all buckets
+     */
+    MIX64(1) {
+        @Override
+        public long hash(String key) {
+            return KeyHash.mix64(key);
+        }
+    };
+
+    public static final HashFunction DEFAULT = MIX64;
+
+    private final int id;
+
+    HashFunction(int id) {
+        this.id = id;
+    }
+
+    public abstract long hash(String key);
+
+    /**
+     * Identifier written to the metadata file
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    public static HashFunction fromId(int id) {
+        for (HashFunction function : values()) {
+            if (function.id == id) {
+                return function;
+            }
+        }
+        throw new IllegalArgumentException("Unknown hash function id: " + id);
+    }
+}
@@ -0,0 +1,184 @@
+package hash;
+
+import data.Record;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Hash file of records addressed by their key
+ * Implemented by {@link LinearHashing}, {@link ExtendibleHashing} and {@link SeparatorHashing}
+ */
+public interface HashIndex<T extends Record<T>> {
+    /**
+     * Inserts a new record, keys are not checked for duplicates
+     */
+    void insert(T record, String key) throws IOException;
+
+    /**
+     * @return record with the key or null
+     */
+    T get(String key) throws IOException;
+
+    /**
+     * Retrieves the records of many keys, the default implementation gets them one by one
+     * @return found records by key, keys without a record are left out
+     */
+    default Map<String, T> getAll(Collection<String> keys) throws IOException {
+        Map<String, T> found = new HashMap<>();
+        for (String key : keys) {
+            T record = this.get(key);
+            if (record != null) {
+                found.put(key, record);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Inserts a batch of records, the default implementation inserts them one by one
+     * @return number of inserted records
+     */
+    default int insertAll(Collection<T> records) throws IOException {
+        int inserted = 0;
+        for (T record : records) {
+            if (record != null && record.getKey() != null && !record.getKey().isBlank()) {
+                this.insert(record, record.getKey());
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Replaces the record with the key of the updated record
+     * @return false if there is no such record
+     */
+    boolean update(T updated) throws IOException;
+
+    /**
+     * Updates a batch of records, the default implementation updates them one by one
+     * @return number of updated records
+     */
+    default int updateAll(Collection<T> records) throws IOException {
+        int updated = 0;
+        for (T record : records) {
+            if (this.update(record)) {
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Inserts the record unless a record with its key exists
+     * The default implementation gets the record and inserts it, writers of the key are serialized by the caller
+     * @return the existing record or null if the record was inserted
+     */
+    default T putIfAbsent(T record) throws IOException {
+        T existing = this.get(record.getKey());
+        if (existing == null) {
+            this.insert(record, record.getKey());
+        }
+        return existing;
+    }
+
+    /**
+     * Inserts the record or replaces the record with its key
+     * @return the replaced record or null if the record was inserted
+     */
+    default T upsert(T record) throws IOException {
+        T previous = this.get(record.getKey());
+        if (previous == null) {
+            this.insert(record, record.getKey());
+        } else {
+            this.update(record);
+        }
+        return previous;
+    }
+
+    /**
+     * Replaces the record with the key by the result of the function
+     * The function gets the current record or null, a null result deletes the record
+     * @return the new record or null
+     */
+    default T compute(String key, UnaryOperator<T> function) throws IOException {
+        T current = this.get(key);
+        T result = function.apply(current);
+        if (result != null && !key.equals(result.getKey())) {
+            throw new IllegalArgumentException("Record key " + result.getKey() + " does not match " + key);
+        }
+
+        if (result == null) {
+            if (current != null) {
+                this.delete(key);
+            }
+        } else if (current == null) {
+            this.insert(result, key);
+        } else {
+            this.update(result);
+        }
+        return result;
+    }
+
+    /**
+     * @return false if there is no record with the key
+     */
+    boolean delete(String key) throws IOException;
+
+    /**
+     * Deletes a batch of keys, the default implementation deletes them one by one
+     * @return number of deleted records
+     */
+    default int deleteAll(Collection<String> keys) throws IOException {
+        int deleted = 0;
+        for (String key : keys) {
+            if (key != null && this.delete(key)) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    HashIndexStats getStats() throws IOException;
+
+    int getTotalRecords();
+
+    /**
+     * Builds an empty file from a stream of records
+     * The default implementation inserts the records one by one and leaves the load factor to the splits
+     * @return number of loaded records
+     */
+    default int bulkLoad(Iterator<T> records, double targetLoadFactor) throws IOException {
+        if (this.getTotalRecords() != 0) {
+            throw new IllegalStateException("Bulk load requires an empty hash file.");
+        }
+
+        int count = 0;
+        while (records.hasNext()) {
+            T record = records.next();
+            if (record == null || record.getKey() == null || record.getKey().isBlank()) {
+                continue;
+            }
+            this.insert(record, record.getKey());
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Text dump of all blocks for the GUI
+     */
+    String displayAllBlocks(String title) throws IOException;
+
+    /**
+     * Durability checkpoint of all files of the index
+     */
+    void checkpoint() throws IOException;
+
+    void close() throws IOException;
+}
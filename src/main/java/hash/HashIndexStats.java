@@ -0,0 +1,15 @@
+package hash;
+
+/**
+ * Statistics of a hash file common to all hashing engines
+ */
+public class HashIndexStats {
+    public int totalRecords;
+    public int totalBlocks; // primary blocks (buckets)
+    public int nonEmptyBlocks;
+    public int overflowBlocks;
+    public int totalOverflowRecords;
+    public double loadFactor;
+    public long splits; // since the file was opened
+    public long merges;
+}
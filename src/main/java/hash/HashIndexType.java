@@ -0,0 +1,54 @@
+package hash;
+
+import data.Record;
+import heap.BufferPool;
+import heap.StorageMode;
+
+import java.io.IOException;
+
+/**
+ * Hashing engine of a hash file
+ */
+public enum HashIndexType {
+    LINEAR {
+        @Override
+        public <T extends Record<T>> HashIndex<T> open(String filename, int blockSize, int overflowBlockSize,
+                                                      T recordTemplate, int initialBuckets, BufferPool bufferPool,
+                                                      StorageMode storageMode) throws IOException {
+            return new LinearHashing<>(filename, blockSize, overflowBlockSize, recordTemplate, initialBuckets,
+                    bufferPool, storageMode);
+        }
+    },
+
+    /**
+     * Splits only the overflowing bucket, for skewed key distributions
+     */
+    EXTENDIBLE {
+        @Override
+        public <T extends Record<T>> HashIndex<T> open(String filename, int blockSize, int overflowBlockSize,
+                                                      T recordTemplate, int initialBuckets, BufferPool bufferPool,
+                                                      StorageMode storageMode) throws IOException {
+            return new ExtendibleHashing<>(filename, blockSize, overflowBlockSize, recordTemplate, initialBuckets,
+                    bufferPool, storageMode);
+        }
+    },
+
+    /**
+     * Reads exactly one block per get, the overflow block size is not used
+     */
+    SEPARATOR {
+        @Override
+        public <T extends Record<T>> HashIndex<T> open(String filename, int blockSize, int overflowBlockSize,
+                                                      T recordTemplate, int initialBuckets, BufferPool bufferPool,
+                                                      StorageMode storageMode) throws IOException {
+            return new SeparatorHashing<>(filename, blockSize, recordTemplate, initialBuckets, bufferPool, storageMode);
+        }
+    };
+
+    /**
+     * Opens or creates the hash file with this engine
+     */
+    public abstract <T extends Record<T>> HashIndex<T> open(String filename, int blockSize, int overflowBlockSize,
+                                                           T recordTemplate, int initialBuckets, BufferPool bufferPool,
+                                                           StorageMode storageMode) throws IOException;
+}
@@ -1,19 +1,83 @@
 package hash;
 
 import heap.Block;
+import heap.BlockView;
+import heap.KeyHash;
+import overflow.OverflowFile;
 import data.Record;
 
-import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Primary block of the hash file
+ * Header: [validCount][nextOverflow][overflowRecordCount][chainLength][chainTail][freeSpaceHint][chainFilter]
+ *         [slot bitmap][slot fingerprints]
+ * The tail and the free space hint let an overflow insert touch at most two chain blocks
+ * The chain filter has one bit set per key stored in the overflow chain, a clear bit means the key is not there
+ */
 public class LHBlock<T extends Record<T>> extends Block<T> {
+    public static final int FIXED_HEADER_SIZE = 32;
+    public static final int NEXT_OVERFLOW_OFFSET = 4;
+    public static final int OVERFLOW_COUNT_OFFSET = 8;
+    public static final int CHAIN_LENGTH_OFFSET = 12;
+    public static final int CHAIN_TAIL_OFFSET = 16;
+    public static final int FREE_SPACE_HINT_OFFSET = 20;
+    public static final int CHAIN_FILTER_OFFSET = 24;
+
     private int nextBlockPointer = -1;
     private int overflowRecordCount = 0;
     private int chainLength = 0;
+    private int chainTail = -1;      // last block of the overflow chain, -1 when unknown
+    private int freeSpaceHint = -1;  // chain block with a free slot, -1 when all blocks may be full
+    private long chainFilter = 0;
+
+    // keys added to the chain through this instance, all keys of the chain if it was built through it
+    private final List<String> chainKeys = new ArrayList<>();
+    private boolean chainKeysComplete = true;
 
     public LHBlock(int address, int blockSize, T template) {
-        super(address, blockSize, template);
+        super(address, blockSize, template, FIXED_HEADER_SIZE, true);
+    }
+
+    /**
+     * Reads the next overflow pointer from a serialized block, with the same normalization as fromBytes
+     */
+    public static int readNextOverflow(BlockView<?> view) {
+        int next = view.getInt(NEXT_OVERFLOW_OFFSET);
+        int overflowCount = view.getInt(OVERFLOW_COUNT_OFFSET);
+        int chainLength = view.getInt(CHAIN_LENGTH_OFFSET);
+
+        return normalizeNext(next, overflowCount, chainLength);
+    }
+
+    /**
+     * Reads the number of overflow blocks from a serialized block
+     */
+    public static int readChainLength(BlockView<?> view) {
+        return Math.max(0, view.getInt(CHAIN_LENGTH_OFFSET));
+    }
+
+    /**
+     * Checks the chain filter of a serialized block
+     * @return false when the key is certainly not in the overflow chain
+     */
+    public static boolean chainMayContain(BlockView<?> view, String key) {
+        return (view.getLong(CHAIN_FILTER_OFFSET) & chainFilterBit(key)) != 0;
+    }
+
+    /**
+     * Filter bit of a key, taken from hash bits used neither for addressing nor for the slot fingerprint
+     */
+    public static long chainFilterBit(String key) {
+        return 1L << ((KeyHash.mix64(key) >>> 48) & 63);
+    }
+
+    private static int normalizeNext(int next, int overflowCount, int chainLength) {
+        if (next == 0 && overflowCount <= 0 && chainLength <= 0) return -1;
+        if (next == 65535 || next < 0) return -1;
+        return next;
     }
 
     /**
@@ -58,104 +122,126 @@ public class LHBlock<T extends Record<T>> extends Block<T> {
         this.chainLength = length;
     }
 
+    public int getChainTail() {
+        return this.chainTail;
+    }
+
+    public void setChainTail(int chainTail) {
+        this.chainTail = chainTail;
+    }
+
+    public int getFreeSpaceHint() {
+        return this.freeSpaceHint;
+    }
+
+    public void setFreeSpaceHint(int freeSpaceHint) {
+        this.freeSpaceHint = freeSpaceHint;
+    }
+
     /**
-     * Checks if the block is empty
+     * Returns the chain pointers in the holder layout of {@link OverflowFile#addToChain}
      */
-    @Override
-    public boolean isEmpty() {
-        return this.getValidCount() == 0 && this.overflowRecordCount == 0;
+    public int[] getChainState() {
+        int[] chain = new int[OverflowFile.CHAIN_STATE_SIZE];
+        chain[OverflowFile.CHAIN_FIRST] = this.nextBlockPointer;
+        chain[OverflowFile.CHAIN_TAIL] = this.chainTail;
+        chain[OverflowFile.CHAIN_FREE] = this.freeSpaceHint;
+        chain[OverflowFile.CHAIN_LENGTH] = this.chainLength;
+        return chain;
     }
 
     /**
-     * Serializes the block to byte array
+     * Takes over the chain pointers updated by the overflow file
      */
-    @Override
-    public byte[] getBytes() {
-        final int recordSize = this.getRecordTemplate().getSize();
-        final int recordsPerBlock = this.getRecordsPerBlock();
-        final int payloadBytes = recordSize * recordsPerBlock;
-        final ByteBuffer buffer = ByteBuffer.allocate(16 + payloadBytes);
+    public void setChainState(int[] chain) {
+        this.nextBlockPointer = chain[OverflowFile.CHAIN_FIRST];
+        this.chainTail = chain[OverflowFile.CHAIN_TAIL];
+        this.freeSpaceHint = chain[OverflowFile.CHAIN_FREE];
+        this.chainLength = chain[OverflowFile.CHAIN_LENGTH];
+    }
 
-        buffer.putInt(this.validCount);
-        buffer.putInt(this.nextBlockPointer);
-        buffer.putInt(this.overflowRecordCount);
-        buffer.putInt(this.chainLength);
+    /**
+     * Clears all overflow chain fields
+     */
+    public void resetChain() {
+        this.nextBlockPointer = -1;
+        this.overflowRecordCount = 0;
+        this.chainLength = 0;
+        this.chainTail = -1;
+        this.freeSpaceHint = -1;
+        this.chainFilter = 0;
+        this.chainKeys.clear();
+        this.chainKeysComplete = true;
+    }
 
-        for (int i = 0; i < recordsPerBlock; i++) {
-            T rec = (this.records != null && i < this.records.length) ? this.records[i] : null;
-            byte[] rb;
-            if (rec != null && !isEmptyRecord(rec)) {
-                rb = rec.getBytes();
-                if (rb.length != recordSize) {
-                    byte[] tmp = new byte[recordSize];
-                    System.arraycopy(rb, 0, tmp, 0, Math.min(rb.length, recordSize));
-                    rb = tmp;
-                }
-            } else {
-                rb = new byte[recordSize];
-            }
-            buffer.put(rb);
-        }
-        return buffer.array();
+    public long getChainFilter() {
+        return this.chainFilter;
     }
 
     /**
-     * Deserializes the block from byte array
-     * Reconstructs header fields and record data based on block type
+     * Sets the chain filter, 0 for a block without overflow chain
      */
+    public void setChainFilter(long chainFilter) {
+        this.chainFilter = chainFilter;
+    }
 
-    public void fromBytes(byte[] data) throws IOException {
-        if (data == null) throw new IOException("Null block data");
+    /**
+     * Records that the key was stored in the overflow chain
+     * Bits are not cleared on delete, they are recomputed when the chain is rebuilt
+     */
+    public void addToChainFilter(String key) {
+        this.chainFilter |= chainFilterBit(key);
+        this.chainKeys.add(key);
+    }
 
-        final int recordSize = this.getRecordTemplate().getSize();
-        final int recordsPerBlock = this.getRecordsPerBlock();
-        final int expected = 16 + recordSize * recordsPerBlock;
+    /**
+     * Keys stored in the overflow chain since the block was read or its chain was reset
+     */
+    public List<String> getAddedChainKeys() {
+        return this.chainKeys;
+    }
 
-        if (data.length < expected) {
-            byte[] padded = new byte[expected];
-            System.arraycopy(data, 0, padded, 0, data.length);
-            data = padded;
-        }
+    /**
+     * @return true if the added chain keys are all keys of the chain - the block has no chain
+     *         or the chain was built after the block was created or reset
+     */
+    public boolean hasAllChainKeys() {
+        return this.nextBlockPointer == -1 || this.chainKeysComplete;
+    }
 
-        final ByteBuffer buffer = ByteBuffer.wrap(data);
-
-        int hdrValid     = buffer.getInt();
-        int hdrNext      = buffer.getInt();
-        int hdrOvCount   = buffer.getInt();
-        int hdrChainLen  = buffer.getInt();
-
-        this.clearRecords();
-        int actualValid = 0;
-        for (int i = 0; i < recordsPerBlock; i++) {
-            byte[] recData = new byte[recordSize];
-            buffer.get(recData);
-            if (!this.isEmptySlot(recData)) {
-                try {
-                    T rec = this.getRecordTemplate().createClass();
-                    rec.fromBytes(recData);
-                    if (!isEmptyRecord(rec)) {
-                        this.records[i] = rec;
-                        actualValid++;
-                    } else {
-                        this.records[i] = null;
-                    }
-                } catch (Exception e) {
-                    throw new IOException("Failed to deserialize record", e);
-                }
-            } else {
-                this.records[i] = null;
-            }
-        }
+    /**
+     * Checks if the block is empty
+     */
+    @Override
+    public boolean isEmpty() {
+        return this.getValidCount() == 0 && this.overflowRecordCount == 0;
+    }
 
-        this.validCount = actualValid;
-        this.overflowRecordCount = Math.max(0, hdrOvCount);
-        this.chainLength = Math.max(0, hdrChainLen);
+    @Override
+    protected void writeHeaderFields(ByteBuffer buffer) {
+        buffer.putInt(this.nextBlockPointer);
+        buffer.putInt(this.overflowRecordCount);
+        buffer.putInt(this.chainLength);
+        buffer.putInt(this.chainTail);
+        buffer.putInt(this.freeSpaceHint);
+        buffer.putLong(this.chainFilter);
+    }
 
-        if (hdrNext == 0 && this.overflowRecordCount == 0 && this.chainLength == 0) {
-            this.nextBlockPointer = -1;
-        } else {
-            this.nextBlockPointer = hdrNext;
-        }
+    @Override
+    protected void readHeaderFields(ByteBuffer buffer, int storedValidCount) {
+        int hdrNext = buffer.getInt();
+        this.overflowRecordCount = Math.max(0, buffer.getInt());
+        this.chainLength = Math.max(0, buffer.getInt());
+        int hdrTail = buffer.getInt();
+        int hdrFree = buffer.getInt();
+        this.chainFilter = buffer.getLong();
+        this.nextBlockPointer = normalizeNext(hdrNext, this.overflowRecordCount, this.chainLength);
+
+        boolean hasChain = this.nextBlockPointer != -1;
+        this.chainTail = hasChain && hdrTail >= 0 ? hdrTail : -1;
+        this.freeSpaceHint = hasChain && hdrFree >= 0 ? hdrFree : -1;
+        this.chainKeys.clear();
+        this.chainKeysComplete = !hasChain;
     }
 
     /**
@@ -163,13 +249,11 @@ public class LHBlock<T extends Record<T>> extends Block<T> {
      * Returns true if record was found and updated, false otherwise
      */
     public boolean updateRecord(T pattern, T updatedRecord) {
-        for (int i = 0; i < this.records.length; i++) {
-            T record = this.records[i];
-            if (record.equals(pattern)) {
-                this.records[i] = updatedRecord;
-                return true;
-            }
+        int slot = this.findSlot(pattern.getKey());
+        if (slot == -1) {
+            return false;
         }
-        return false;
+        this.records[slot] = updatedRecord;
+        return true;
     }
-}
\ No newline at end of file
+}
@@ -1,47 +1,135 @@
 package hash;
 
 import heap.Block;
+import heap.BufferPool;
 import heap.HeapFile;
+import heap.StorageMode;
 import data.Record;
 import overflow.OverflowBlock;
 import overflow.OverflowFile;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-
-public class LinearHashing<T extends Record<T>> extends HeapFile<T> {
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+public class LinearHashing<T extends Record<T>> extends HeapFile<T> implements HashIndex<T> {
     private int level = 0;
     private int splitPointer = 0;
-    private int totalRecords = 0;
+    private final AtomicInteger totalRecords = new AtomicInteger();
     private final int M;
-
-    private static final double D_MAX = 0.8;
-    private static final double D_MIN = 0.4;
+    private final int mShift; // log2(M) when M is a power of two, otherwise -1
+    private HashFunction hashFunction;
+    private AddressingScheme addressing;
+    private volatile SplitPolicy splitPolicy = SplitPolicy.DEFAULT;
+    private final AtomicInteger chainSplitRequests = new AtomicInteger();
+    private long splits = 0; // changed only under the structure write lock
+    private long merges = 0;
+
+    private static final int LOCK_STRIPES = 64;
+    // how far the load factor may leave the thresholds before an operation restructures inline in background mode
+    private static final double BACKGROUND_OVERSHOOT = 0.1;
+    // overflow file is compacted once this many blocks and more than a quarter of it are free
+    private static final int COMPACT_MIN_FREE_BLOCKS = 64;
 
     private final OverflowFile<T> overflowFile;
+    private final BucketDirectory headers;
+    private final BucketFilter filter; // answers most lookups of absent keys without reading the bucket
     private final String metadataFile;
-    private boolean metadataChanged = false;
+    private volatile boolean metadataChanged = false;
+
+    // split and merge take the write lock, bucket operations the read lock and their bucket stripe
+    private final ReentrantReadWriteLock structureLock = new ReentrantReadWriteLock();
+    private final StripedLock bucketLocks = new StripedLock(LOCK_STRIPES);
+    private final Object workerLock = new Object();
+    private volatile RestructureWorker worker = null; // null when restructuring runs inline
 
     public LinearHashing(String filename, int primaryBlockSize, int overflowBlockSize, T recordTemplate, int initialM) throws IOException {
+        this(filename, primaryBlockSize, overflowBlockSize, recordTemplate, initialM,
+                new BufferPool(BufferPool.DEFAULT_MEMORY_BUDGET));
+    }
+
+    /**
+     * Opens the hash file with a buffer pool shared by the primary and the overflow file
+     * The pool may also be shared with other hash files
+     */
+    public LinearHashing(String filename, int primaryBlockSize, int overflowBlockSize, T recordTemplate, int initialM,
+                         BufferPool bufferPool) throws IOException {
+        this(filename, primaryBlockSize, overflowBlockSize, recordTemplate, initialM, bufferPool, StorageMode.FILE_CHANNEL);
+    }
+
+    /**
+     * Opens the hash file with the given block storage backend for both the primary and the overflow file
+     */
+    public LinearHashing(String filename, int primaryBlockSize, int overflowBlockSize, T recordTemplate, int initialM,
+                         BufferPool bufferPool, StorageMode storageMode) throws IOException {
+        this(filename, primaryBlockSize, overflowBlockSize, recordTemplate, initialM, bufferPool, storageMode,
+                HashFunction.DEFAULT);
+    }
+
+    /**
+     * Opens the hash file with the given hash function
+     * The function is used for new files, an existing file keeps the function stored in its metadata
+     */
+    public LinearHashing(String filename, int primaryBlockSize, int overflowBlockSize, T recordTemplate, int initialM,
+                         BufferPool bufferPool, StorageMode storageMode, HashFunction hashFunction) throws IOException {
+        this(filename, primaryBlockSize, overflowBlockSize, recordTemplate, initialM, bufferPool, storageMode,
+                hashFunction, AddressingScheme.DEFAULT);
+    }
+
+    /**
+     * Opens the hash file with the given hash function and addressing scheme
+     * Both are used for new files, an existing file keeps the ones stored in its metadata
+     */
+    public LinearHashing(String filename, int primaryBlockSize, int overflowBlockSize, T recordTemplate, int initialM,
+                         BufferPool bufferPool, StorageMode storageMode, HashFunction hashFunction,
+                         AddressingScheme addressing) throws IOException {
+        if (initialM < 1) {
+            throw new IllegalArgumentException("Initial number of blocks must be positive: " + initialM);
+        }
         if (primaryBlockSize <= overflowBlockSize) {
             throw new IllegalArgumentException(
                     "Primary block size must be greater than overflow block size (primary="
                             + primaryBlockSize + ", overflow=" + overflowBlockSize + ")."
             );
         }
-        super(filename, primaryBlockSize, recordTemplate);
+        super(filename, primaryBlockSize, recordTemplate, bufferPool, storageMode);
         this.M = initialM;
+        this.mShift = Integer.bitCount(initialM) == 1 ? Integer.numberOfTrailingZeros(initialM) : -1;
+        this.hashFunction = hashFunction;
+        this.addressing = addressing;
         this.metadataFile = filename + ".meta";
-        this.overflowFile = new OverflowFile<>(filename + ".overflow", overflowBlockSize, recordTemplate);
+        this.overflowFile = new OverflowFile<>(filename + ".overflow", overflowBlockSize, recordTemplate, bufferPool, storageMode);
+        this.headers = new BucketDirectory(filename + ".hdr");
+        this.filter = new BucketFilter(filename + ".bloom",
+                this.getRecordsPerBlock() + this.overflowFile.getRecordsPerBlock());
         this.loadMetadata();
         if (this.getFile().length() == 0) {
             this.initializeFile();
+        } else {
+            if (!this.headers.load(this.primaryBlocksCount())) {
+                this.rebuildHeaders();
+            }
+            if (!this.filter.load(this.primaryBlocksCount())) {
+                this.rebuildFilter();
+            }
         }
     }
 
     /**
-     * Loads metadata from disk including level, split pointer, record count and overflow block count
+     * Loads metadata from disk including level, split pointer, record count, overflow block count
+     * and the statistics of the bucket directory
      */
     private void loadMetadata() throws IOException {
         File metadata = new File(this.metadataFile);
@@ -53,7 +141,7 @@ public class LinearHashing<T extends Record<T>> extends HeapFile<T> {
         try (DataInputStream dis = new DataInputStream(new FileInputStream(metadata))) {
             this.level = dis.readInt();
             this.splitPointer = dis.readInt();
-            this.totalRecords = dis.readInt();
+            this.totalRecords.set(dis.readInt());
 
             try {
                 int savedOverflowBlocks = dis.readInt();
@@ -69,6 +157,42 @@ public class LinearHashing<T extends Record<T>> extends HeapFile<T> {
                 this.overflowFile.setUsedOverflowBlocks(0);
                 this.metadataChanged = true;
             }
+
+            // files written before the hash function was stored use String.hashCode
+            try {
+                this.hashFunction = HashFunction.fromId(dis.readInt());
+            } catch (EOFException e) {
+                this.hashFunction = HashFunction.JAVA_STRING;
+                this.addressing = AddressingScheme.LINEAR;
+                this.metadataChanged = true;
+                return;
+            }
+
+            // files written before the split policy was stored use the original thresholds
+            try {
+                this.splitPolicy = SplitPolicy.read(dis);
+            } catch (EOFException e) {
+                this.splitPolicy = SplitPolicy.DEFAULT;
+                this.addressing = AddressingScheme.LINEAR;
+                this.metadataChanged = true;
+                return;
+            }
+
+            // files written before the addressing scheme was stored use classic linear hashing
+            try {
+                this.addressing = AddressingScheme.fromId(dis.readInt());
+            } catch (EOFException e) {
+                this.addressing = AddressingScheme.LINEAR;
+                this.metadataChanged = true;
+                return;
+            }
+
+            // files written before the statistics were stored count them from the bucket directory
+            try {
+                this.headers.readStatistics(dis);
+            } catch (EOFException e) {
+                this.metadataChanged = true;
+            }
         }
     }
 
@@ -81,8 +205,12 @@ public class LinearHashing<T extends Record<T>> extends HeapFile<T> {
         try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(this.metadataFile))) {
             dos.writeInt(this.level);
             dos.writeInt(this.splitPointer);
-            dos.writeInt(this.totalRecords);
+            dos.writeInt(this.totalRecords.get());
             dos.writeInt(this.overflowFile.getUsedOverflowBlocks());
+            dos.writeInt(this.hashFunction.getId());
+            this.splitPolicy.write(dos);
+            dos.writeInt(this.addressing.getId());
+            this.headers.writeStatistics(dos);
         }
         this.metadataChanged = false;
     }
@@ -102,6 +230,39 @@ public class LinearHashing<T extends Record<T>> extends HeapFile<T> {
         this.metadataChanged = true;
     }
 
+    /**
+     * Reads the headers of all primary blocks into the bucket directory
+     * Used for files without a cleanly saved directory
+     */
+    private void rebuildHeaders() throws IOException {
+        for (int i = 0; i < this.primaryBlocksCount(); i++) {
+            this.headers.update(i, this.readPrimaryBlock(i));
+        }
+    }
+
+    /**
+     * Reads the keys of all buckets into the bucket filter
+     * Used for files without a cleanly saved filter
+     */
+    private void rebuildFilter() throws IOException {
+        for (int i = 0; i < this.primaryBlocksCount(); i++) {
+            LHBlock<T> primary = this.readPrimaryBlock(i);
+            List<String> keys = new ArrayList<>();
+            for (T record : primary.getRecords()) {
+                keys.add(record.getKey());
+            }
+            if (primary.getNextOverflow() != -1) {
+                for (OverflowBlock<T> block : this.overflowFile.collectAllBlocksFromChain(
+                        primary.getNextOverflow(), primary.getChainLength())) {
+                    for (T record : block.getRecords()) {
+                        keys.add(record.getKey());
+                    }
+                }
+            }
+            this.filter.rebuild(i, keys);
+        }
+    }
+
     /**
      * Reads a primary block from disk
      * Returns empty block if index is out of bounds
@@ -115,9 +276,7 @@ public class LinearHashing<T extends Record<T>> extends HeapFile<T> {
             return empty;
         }
 
-        Block<T> genericBlock = this.readBlock(index);
-        LHBlock<T> lhBlock = (LHBlock<T>) this.createBlock(index);
-        lhBlock.fromBytes(genericBlock.getBytes());
+        LHBlock<T> lhBlock = (LHBlock<T>) this.readBlock(index);
 
         int next = lhBlock.getNextOverflow();
         if (next == 65535 || next < 0) {
@@ -126,6 +285,28 @@ public class LinearHashing<T extends Record<T>> extends HeapFile<T> {
         return lhBlock;
     }
 
+    /**
+     * Writes a primary block, keeps its header in the bucket directory and its keys in the bucket filter
+     * The filter bits of the bucket are rebuilt if the block knows all keys of its chain, otherwise added to
+     */
+    @Override
+    public void writeBlock(int blockIndex, Block<T> block) throws IOException {
+        super.writeBlock(blockIndex, block);
+        LHBlock<T> primary = (LHBlock<T>) block;
+        this.headers.update(blockIndex, primary);
+
+        List<String> keys = new ArrayList<>(primary.getAddedChainKeys());
+        for (T record : primary.getRecords()) {
+            keys.add(record.getKey());
+        }
+        if (primary.hasAllChainKeys()) {
+            this.filter.rebuild(blockIndex, keys);
+        } else {
+            this.filter.add(blockIndex, keys);
+        }
+        this.metadataChanged = true;
+    }
+
     @Override
     protected Block<T> createBlock(int blockIndex) {
         return new LHBlock<>(blockIndex, this.getClusterSize(), this.getRecordTemplate());
@@ -135,22 +316,91 @@ public class LinearHashing<T extends Record<T>> extends HeapFile<T> {
         return this.overflowFile;
     }
 
+    /**
+     * Headers of the primary blocks, valid for buckets below the primary block count
+     */
+    public BucketDirectory getBucketDirectory() {
+        return this.headers;
+    }
+
+    /**
+     * Bloom filter of the keys by bucket, valid for buckets below the primary block count
+     */
+    public BucketFilter getBucketFilter() {
+        return this.filter;
+    }
+
     /**
      * Calculates current number of primary blocks in the hash file
-     * Formula: M * 2^level + splitPointer
+     * Formula: groupSize * groupCount + splitPointer, M * 2^level + splitPointer with linear addressing
      */
     private int primaryBlocksCount() {
-        return this.M * (int) Math.pow(2, this.level) + this.splitPointer;
+        return (int) this.addressing.bucketCount(this.M, this.level, this.splitPointer);
+    }
+
+    /**
+     * Number of primary blocks at the start of the given level
+     */
+    int primaryBlocksAtLevel(int level) {
+        return (int) this.addressing.bucketCount(this.M, level, 0);
+    }
+
+    public AddressingScheme getAddressingScheme() {
+        return this.addressing;
     }
 
+    /**
+     * Bucket of the key at the current level of classic linear hashing
+     */
     public int hash0(String key) {
-        int mod = this.M * (int) Math.pow(2, this.level);
-        return Math.abs(key.hashCode()) % mod;
+        return this.address(this.hashFunction.hash(key), this.level);
     }
 
+    /**
+     * Bucket of the key at the next level of classic linear hashing
+     */
     public int hash1(String key) {
-        int mod = this.M * (int) Math.pow(2, this.level + 1);
-        return Math.abs(key.hashCode()) % mod;
+        return this.address(this.hashFunction.hash(key), this.level + 1);
+    }
+
+    /**
+     * Bucket of the hash at the given level, h mod (M * 2^level) for an unsigned h
+     * Computed as (h mod M) + M * ((h / M) & (2^level - 1)), so only the mask depends on the level
+     * and the division by M is a shift when M is a power of two
+     */
+    private int address(long hash, int level) {
+        long quotient = this.mShift >= 0 ? hash >>> this.mShift : Long.divideUnsigned(hash, this.M);
+        int remainder = (int) (hash - quotient * this.M);
+        return remainder + this.M * (int) (quotient & ((1L << level) - 1));
+    }
+
+    public SplitPolicy getSplitPolicy() {
+        return this.splitPolicy;
+    }
+
+    /**
+     * Replaces the split policy, it is stored in the metadata and the file is restructured to the new thresholds
+     */
+    public void setSplitPolicy(SplitPolicy splitPolicy) throws IOException {
+        if (splitPolicy == null) {
+            throw new IllegalArgumentException("Split policy must not be null");
+        }
+
+        this.structureLock.writeLock().lock();
+        try {
+            if (splitPolicy.equals(this.splitPolicy)) {
+                return;
+            }
+            this.splitPolicy = splitPolicy;
+            this.metadataChanged = true;
+        } finally {
+            this.structureLock.writeLock().unlock();
+        }
+        this.restructure();
+    }
+
+    public HashFunction getHashFunction() {
+        return this.hashFunction;
     }
 
     public int getM() {
@@ -161,6 +411,7 @@ public class LinearHashing<T extends Record<T>> extends HeapFile<T> {
      * Updates an existing record by key
      * Returns true if record was found and updated, false otherwise
      */
+    @Override
     public boolean update(T updated) throws IOException {
         if (updated == null) return false;
 
@@ -169,418 +420,1105 @@ public class LinearHashing<T extends Record<T>> extends HeapFile<T> {
             return false;
         }
 
-        int blockIndex = this.getTargetBlock(key);
-        LHBlock<T> primaryBlock = this.readPrimaryBlock(blockIndex);
+        return this.inBucket(key, true, blockIndex -> {
+            if (!this.filter.mightContain(blockIndex, key)) {
+                return false;
+            }
+            LHBlock<T> primaryBlock = this.readPrimaryBlock(blockIndex);
+
+            boolean updatedInPrimary = primaryBlock.updateRecord(this.createPattern(key), updated);
+            if (updatedInPrimary) {
+                this.writeBlock(blockIndex, primaryBlock);
+                return true;
+            }
 
-        boolean updatedInPrimary = primaryBlock.updateRecord(this.createPattern(key), updated);
-        if (updatedInPrimary) {
-            this.writeBlock(blockIndex, primaryBlock);
-            return true;
+            int firstOverflow = primaryBlock.getNextOverflow();
+            if (firstOverflow != -1) {
+                return this.overflowFile.updateInChain(firstOverflow, key, updated, primaryBlock.getChainLength());
+            }
+
+            return false;
+        });
+    }
+
+    /**
+     * Inserts the record unless a record with its key exists, the bucket is searched once
+     * @return the existing record or null if the record was inserted
+     */
+    @Override
+    public T putIfAbsent(T record) throws IOException {
+        return this.modify(keyOf(record), current -> current != null ? current : record, true);
+    }
+
+    /**
+     * Inserts the record or replaces the record with its key, the bucket is searched once
+     * @return the replaced record or null if the record was inserted
+     */
+    @Override
+    public T upsert(T record) throws IOException {
+        return this.modify(keyOf(record), current -> record, true);
+    }
+
+    /**
+     * Replaces the record with the key by the result of the function, all under one lock of the bucket
+     * The function gets the current record or null, a null result deletes the record
+     * @return the new record or null
+     */
+    @Override
+    public T compute(String key, UnaryOperator<T> function) throws IOException {
+        if (key == null || key.isBlank()) {
+            throw new IllegalArgumentException("Key must not be blank");
         }
+        return this.modify(key, function, false);
+    }
 
-        int firstOverflow = primaryBlock.getNextOverflow();
-        if (firstOverflow != -1) {
-            return this.overflowFile.updateInChain(firstOverflow, key, updated);
+    private static String keyOf(Record<?> record) {
+        if (record == null || record.getKey() == null || record.getKey().isBlank()) {
+            throw new IllegalArgumentException("Record must have a key");
         }
+        return record.getKey();
+    }
+
+    /**
+     * Read-modify-write of one record - the primary block is read once, the chain only if its filter
+     * may hold the key, the function is applied to the found record and only the block holding it is written
+     * Inserts and deletes go through the same path as insert and delete with the block already read,
+     * a result equal to the current record writes nothing
+     * @return the record before the change if returnPrevious is set, otherwise the new record
+     */
+    private T modify(String key, UnaryOperator<T> function, boolean returnPrevious) throws IOException {
+        int[] change = new int[]{0}; // 1 inserted, -1 deleted
+        boolean[] freedOverflow = new boolean[]{false};
+        RestructureWorker background = this.worker;
+
+        T value = this.inBucket(key, true, blockIndex -> {
+            LHBlock<T> primaryBlock = this.readPrimaryBlock(blockIndex);
+            T pattern = this.createPattern(key);
+
+            // a key the filter rules out is inserted without searching the bucket
+            boolean mayExist = this.filter.mightContain(blockIndex, key);
+            T current = mayExist ? primaryBlock.findRecord(pattern) : null;
+            OverflowBlock<T> chainBlock = null;
+            if (current == null && mayExist && primaryBlock.getNextOverflow() != -1
+                    && (primaryBlock.getChainFilter() & LHBlock.chainFilterBit(key)) != 0) {
+                chainBlock = this.overflowFile.findBlockInChain(primaryBlock.getNextOverflow(), key,
+                        primaryBlock.getChainLength());
+                current = chainBlock != null ? chainBlock.findRecord(pattern) : null;
+            }
+
+            // the function may change the current record in place
+            byte[] before = current != null ? current.getBytes() : null;
+            T result = function.apply(current);
+            if (result != null && !key.equals(result.getKey())) {
+                throw new IllegalArgumentException("Record key " + result.getKey() + " does not match " + key);
+            }
 
-        return false;
+            if (current == null && result != null) {
+                change[0] = this.insertInBucket(blockIndex, primaryBlock, result, key) ? 1 : 0;
+            } else if (current != null && result == null) {
+                change[0] = this.deleteInBucket(blockIndex, primaryBlock, key, background, freedOverflow) ? -1 : 0;
+            } else if (current != null && !Arrays.equals(before, result.getBytes())) {
+                if (chainBlock == null) {
+                    primaryBlock.updateRecord(pattern, result);
+                    this.writeBlock(blockIndex, primaryBlock);
+                } else {
+                    chainBlock.updateRecord(key, result);
+                    this.overflowFile.writeOverflowBlock(chainBlock);
+                }
+            }
+            return returnPrevious ? current : result;
+        });
+
+        if (change[0] > 0) {
+            this.afterInsert();
+        } else if (change[0] < 0) {
+            this.afterDelete(true, background, freedOverflow[0]);
+        }
+        return value;
     }
 
     /**
      * Inserts a new record into the hash file.
      */
+    @Override
     public void insert(T record, String key) throws IOException {
-        int blockIndex = this.getTargetBlock(key);
-        LHBlock<T> primaryBlock = this.readPrimaryBlock(blockIndex);
+        this.inBucket(key, true, blockIndex -> this.insertInBucket(blockIndex,
+                this.readPrimaryBlock(blockIndex), record, key));
+        this.afterInsert();
+    }
 
+    /**
+     * Adds the record to the primary block or its chain and writes the primary block, the bucket is locked
+     */
+    private boolean insertInBucket(int blockIndex, LHBlock<T> primaryBlock, T record, String key) throws IOException {
         boolean insertedInPrimary = (primaryBlock.addRecord(record) != -1);
         boolean actuallyInserted = insertedInPrimary;
 
         if (!insertedInPrimary) {
-            int firstOverflow = primaryBlock.getNextOverflow();
-            int[] result = this.overflowFile.addToChain(firstOverflow, record);
-            if (result != null) {
+            int[] chain = primaryBlock.getChainState();
+            if (this.overflowFile.addToChain(chain, record)) {
                 actuallyInserted = true;
-                if (firstOverflow == -1) {
-                    primaryBlock.setNextOverflow(result[0]);
-                }
+                primaryBlock.setChainState(chain);
                 primaryBlock.setOverflowRecordCount(primaryBlock.getOverflowRecordCount() + 1);
-
-                primaryBlock.setChainLength(result[1]);
+                primaryBlock.addToChainFilter(key);
+                if (this.splitPolicy.chainTooLong(chain[OverflowFile.CHAIN_LENGTH])) {
+                    this.chainSplitRequests.incrementAndGet();
+                }
             }
         }
 
         if (actuallyInserted) {
             this.writeBlock(blockIndex, primaryBlock);
-            this.totalRecords++;
+            this.totalRecords.incrementAndGet();
             this.metadataChanged = true;
         }
+        return actuallyInserted;
+    }
 
-        while (this.getLoadFactor() > D_MAX) {
-            this.split();
+    /**
+     * Splits after an insert, the bucket is no longer locked
+     */
+    private void afterInsert() throws IOException {
+        SplitPolicy policy = this.splitPolicy;
+        double loadFactor = this.getLoadFactor();
+        if (loadFactor > policy.getMaxLoad() || this.chainSplitRequests.get() > 0) {
+            RestructureWorker background = this.worker;
+            if (background != null && loadFactor <= policy.getMaxLoad() + BACKGROUND_OVERSHOOT) {
+                this.checkWorker(background);
+                background.requestRestructure();
+            } else {
+                this.restructure();
+            }
         }
     }
 
     /**
      * Retrieves a record matching the record from specified block
+     * Blocks are searched through a view over the page, only the matching record is deserialized
      */
+    @Override
     public T get(String key) throws IOException {
-        int blockIndex = this.getTargetBlock(key);
-        LHBlock<T> primaryBlock = this.readPrimaryBlock(blockIndex);
+        return this.inBucket(key, false, blockIndex -> {
+            if (!this.filter.mightContain(blockIndex, key)) {
+                return null;
+            }
+            int[] chainHolder = new int[]{-1, 0};
 
-        T result = primaryBlock.findRecord(this.createPattern(key));
-        if (result != null) {
-            return result;
-        }
+            T result = this.readView(blockIndex, view -> {
+                T found = view.find(key);
+                if (found == null && LHBlock.chainMayContain(view, key)) {
+                    chainHolder[0] = LHBlock.readNextOverflow(view);
+                    chainHolder[1] = LHBlock.readChainLength(view);
+                }
+                return found;
+            });
+            if (result != null) {
+                return result;
+            }
 
-        int firstOverflow = primaryBlock.getNextOverflow();
-        if (firstOverflow != -1) {
-            return this.overflowFile.findInChain(firstOverflow, key);
-        }
+            int firstOverflow = chainHolder[0];
+            if (firstOverflow != -1) {
+                return this.overflowFile.findInChain(firstOverflow, key, chainHolder[1]);
+            }
 
-        return null;
+            return null;
+        });
     }
 
     /**
-     * Deletes a record by key
+     * Retrieves the records of many keys in one pass over their buckets in file order
+     * The primary block and the overflow chain of a bucket are read once for all keys addressed to it
+     * @return found records by key, keys without a record are left out
      */
-    public boolean delete(String key) throws IOException {
-        int blockIndex = this.getTargetBlock(key);
-        LHBlock<T> primaryBlock = this.readPrimaryBlock(blockIndex);
-
-        boolean deleted = primaryBlock.deleteRecord(this.createPattern(key));
-
-        if (deleted) {
-            // record was in primary block
-            this.writeBlock(blockIndex, primaryBlock);
-            this.totalRecords--;
-            this.metadataChanged = true;
-        } else {
-            // try to delete from overflow chain
-            int firstOverflow = primaryBlock.getNextOverflow();
-            if (firstOverflow != -1) {
-                int[] overflowHolder = new int[]{firstOverflow};
-
-                int[] deleteResult = this.overflowFile.deleteFromChain(overflowHolder, key);
-
-                if (deleteResult != null && deleteResult[0] == 1) {
-                    deleted = true;
-                    primaryBlock.setNextOverflow(overflowHolder[0]);
-                    primaryBlock.setOverflowRecordCount(Math.max(0, primaryBlock.getOverflowRecordCount() - 1));
+    @Override
+    public Map<String, T> getAll(Collection<String> keys) throws IOException {
+        Map<String, T> found = new HashMap<>();
 
-                    primaryBlock.setChainLength(deleteResult[1]);
+        this.structureLock.readLock().lock();
+        try {
+            for (Map.Entry<Integer, List<String>> entry : this.groupByBucket(keys, key -> key).entrySet()) {
+                this.inStripe(entry.getKey(), false, blockIndex -> {
+                    this.getAllInBucket(blockIndex, entry.getValue(), found);
+                    return null;
+                });
+            }
+        } finally {
+            this.structureLock.readLock().unlock();
+        }
+        return found;
+    }
 
-                    this.writeBlock(blockIndex, primaryBlock);
-                    this.totalRecords--;
-                    this.metadataChanged = true;
-                }
+    /**
+     * Looks up the keys of one bucket, keys missing in the primary block are searched in one walk over the chain
+     */
+    private void getAllInBucket(int blockIndex, List<String> keys, Map<String, T> found) throws IOException {
+        List<String> candidates = new ArrayList<>();
+        for (String key : keys) {
+            if (this.filter.mightContain(blockIndex, key)) {
+                candidates.add(key);
             }
         }
+        if (candidates.isEmpty()) {
+            return;
+        }
 
-        if (deleted) {
-            boolean mergePerformed = false;
+        List<String> inChain = new ArrayList<>();
+        int[] chainHolder = new int[]{-1, 0};
 
-            while (this.primaryBlocksCount() > this.M && this.getLoadFactor() < D_MIN) {
-                mergePerformed = true;
-                this.merge();
+        this.readView(blockIndex, view -> {
+            for (String key : candidates) {
+                T record = view.find(key);
+                if (record != null) {
+                    found.put(key, record);
+                } else if (LHBlock.chainMayContain(view, key)) {
+                    inChain.add(key);
+                }
             }
+            if (!inChain.isEmpty()) {
+                chainHolder[0] = LHBlock.readNextOverflow(view);
+                chainHolder[1] = LHBlock.readChainLength(view);
+            }
+            return null;
+        });
 
-            if (!mergePerformed) this.compactBlock(blockIndex);
+        if (chainHolder[0] != -1) {
+            this.overflowFile.findAllInChain(chainHolder[0], inChain, chainHolder[1], found);
         }
-
-        return deleted;
     }
 
     /**
-     * Determines the target block index for a given key
-     * Uses linear hashing algorithm: if h0(key) < splitPointer, use h1(key), else use h0(key)
+     * Inserts a batch of records, keys are not checked for duplicates, same as insert
+     * Records are grouped by bucket, every bucket is read and written once,
+     * the load factor is checked and the file split once after the whole batch
+     * @return number of inserted records
      */
-    public int getTargetBlock(String key) {
-        int h0 = this.hash0(key);
-        return (h0 < this.splitPointer) ? this.hash1(key) : h0;
+    @Override
+    public int insertAll(Collection<T> records) throws IOException {
+        int inserted = 0;
+
+        this.structureLock.readLock().lock();
+        try {
+            for (Map.Entry<Integer, List<T>> entry : this.groupByBucket(records, Record::getKey).entrySet()) {
+                inserted += this.inStripe(entry.getKey(), true,
+                        blockIndex -> this.insertAllInBucket(blockIndex, entry.getValue()));
+            }
+        } finally {
+            this.structureLock.readLock().unlock();
+        }
+
+        if (inserted > 0) {
+            this.totalRecords.addAndGet(inserted);
+            this.metadataChanged = true;
+            this.restructureAfterBatch(false);
+        }
+        return inserted;
     }
 
     /**
-     * Algorithm:
-     * 1. Read all records from primary block and its overflow chain
-     * 2. Split records between old and new block based on h1
-     * 3. Rebuild both blocks with minimum overflow usage
-     * 4. Write changes and update structure
+     * Fills the primary block first, a few remaining records are appended to the chain,
+     * more than one overflow block worth rebuilds the chain as one extent with the new records
      */
-    private void split() throws IOException {
-        int blockToSplit = this.splitPointer;
-
-        // read primary block + overflow chain
-        LHBlock<T> primaryBlock = this.readPrimaryBlock(blockToSplit);
-        List<OverflowBlock<T>> overflowBlocks = this.overflowFile.collectAllBlocksFromChain(primaryBlock.getNextOverflow());
+    private int insertAllInBucket(int blockIndex, List<T> records) throws IOException {
+        LHBlock<T> primary = this.readPrimaryBlock(blockIndex);
+        int position = 0;
+        while (position < records.size() && primary.addRecord(records.get(position)) != -1) {
+            position++;
+        }
+        List<T> remaining = records.subList(position, records.size());
+
+        if (remaining.size() >= this.overflowFile.getRecordsPerBlock()) {
+            List<T> all = new ArrayList<>(primary.getRecords());
+            all.addAll(this.releaseChain(primary));
+            all.addAll(remaining);
+            primary = this.emptyBucket(blockIndex);
+            this.fillBucket(primary, all);
+            if (this.splitPolicy.chainTooLong(primary.getChainLength())) {
+                this.chainSplitRequests.incrementAndGet();
+            }
+            this.writeBlock(blockIndex, primary);
+            return records.size();
+        }
 
-        List<T> allRecords = new ArrayList<>(primaryBlock.getRecords());
-        for (OverflowBlock<T> overflowBlock : overflowBlocks) {
-            allRecords.addAll(overflowBlock.getRecords());
+        int inserted = position;
+        int[] chain = primary.getChainState();
+        for (T record : remaining) {
+            if (this.overflowFile.addToChain(chain, record)) {
+                inserted++;
+                primary.setOverflowRecordCount(primary.getOverflowRecordCount() + 1);
+                primary.addToChainFilter(record.getKey());
+            }
+        }
+        primary.setChainState(chain);
+        if (this.splitPolicy.chainTooLong(chain[OverflowFile.CHAIN_LENGTH])) {
+            this.chainSplitRequests.incrementAndGet();
         }
 
-        // create new primary block in memory
-        int newBlockIndex = this.primaryBlocksCount();
-        LHBlock<T> newBlock = (LHBlock<T>) this.createBlock(newBlockIndex);
-        newBlock.clearRecords();
-        newBlock.setNextOverflow(-1);
-        newBlock.setOverflowRecordCount(0);
+        if (inserted > 0) {
+            this.writeBlock(blockIndex, primary);
+        }
+        return inserted;
+    }
 
-        // reset original primary block
-        primaryBlock.clearRecords();
-        primaryBlock.setNextOverflow(-1);
-        primaryBlock.setOverflowRecordCount(0);
+    /**
+     * Updates a batch of records by key, every bucket and chain block is read and written at most once
+     * @return number of updated records
+     */
+    @Override
+    public int updateAll(Collection<T> records) throws IOException {
+        int updated = 0;
 
-        // reset all overflow blocks
-        for (OverflowBlock<T> overflowBlock : overflowBlocks) {
-            overflowBlock.clearRecords();
-            overflowBlock.setNextOverflow(-1);
+        this.structureLock.readLock().lock();
+        try {
+            for (Map.Entry<Integer, List<T>> entry : this.groupByBucket(records, Record::getKey).entrySet()) {
+                updated += this.inStripe(entry.getKey(), true,
+                        blockIndex -> this.updateAllInBucket(blockIndex, entry.getValue()));
+            }
+        } finally {
+            this.structureLock.readLock().unlock();
         }
+        return updated;
+    }
 
-        // split records
-        List<T> recordsForOldBlock = new ArrayList<>();
-        List<T> recordsForNewBlock = new ArrayList<>();
+    private int updateAllInBucket(int blockIndex, List<T> records) throws IOException {
+        LHBlock<T> primary = this.readPrimaryBlock(blockIndex);
+        int updated = 0;
+        List<T> inChain = new ArrayList<>();
 
-        for (T record : allRecords) {
-            int h1 = this.hash1(record.getKey());
-            if (h1 == blockToSplit) {
-                recordsForOldBlock.add(record);
+        for (T record : records) {
+            if (primary.updateRecord(this.createPattern(record.getKey()), record)) {
+                updated++;
             } else {
-                recordsForNewBlock.add(record);
+                inChain.add(record);
             }
         }
+        if (updated > 0) {
+            this.writeBlock(blockIndex, primary);
+        }
 
-        // create overflow chains in memory
-        int poolIdx = 0;
-
-        OverflowBlock<T> tailOld = null;
-        OverflowBlock<T> tailNew = null;
-
-        // original block
-        for (T record : recordsForOldBlock) {
-            if (primaryBlock.addRecord(record) == -1) {
-                if (tailOld == null) {
-                    OverflowBlock<T> b = overflowBlocks.get(poolIdx++);
-                    primaryBlock.setNextOverflow(b.getAddress());
-                    tailOld = b;
-                }
-
-                // try to add to current tail
-                int pos = tailOld.addRecord(record);
-                if (pos == -1) {
-                    OverflowBlock<T> nb = overflowBlocks.get(poolIdx++);
-                    tailOld.setNextOverflow(nb.getAddress());
-                    tailOld = nb;
-
-                    pos = tailOld.addRecord(record);
-                    if (pos == -1) {
-                        throw new IllegalStateException("New overflow block didn't accept record.");
+        if (!inChain.isEmpty() && primary.getNextOverflow() != -1) {
+            for (OverflowBlock<T> block : this.overflowFile.collectAllBlocksFromChain(
+                    primary.getNextOverflow(), primary.getChainLength())) {
+                boolean changed = false;
+                for (Iterator<T> it = inChain.iterator(); it.hasNext(); ) {
+                    T record = it.next();
+                    if (block.updateRecord(record.getKey(), record)) {
+                        it.remove();
+                        changed = true;
+                        updated++;
                     }
                 }
-
-                primaryBlock.setOverflowRecordCount(primaryBlock.getOverflowRecordCount() + 1);
+                if (changed) {
+                    this.overflowFile.writeOverflowBlock(block);
+                }
+                if (inChain.isEmpty()) {
+                    break;
+                }
             }
         }
+        return updated;
+    }
 
-        // new block
-        for (T record : recordsForNewBlock) {
-            if (newBlock.addRecord(record) == -1) {
-                if (tailNew == null) {
-                    OverflowBlock<T> b = overflowBlocks.get(poolIdx++);
-                    newBlock.setNextOverflow(b.getAddress());
-                    tailNew = b;
-                }
+    /**
+     * Deletes a batch of keys, every bucket is read and written once
+     * A bucket that lost records from its chain is rewritten compacted,
+     * merges and trimming of the overflow file run once after the whole batch
+     * @return number of deleted records
+     */
+    @Override
+    public int deleteAll(Collection<String> keys) throws IOException {
+        int deleted = 0;
+        boolean[] chainRewritten = new boolean[]{false};
 
-                // try to add to current tail
-                int pos = tailNew.addRecord(record);
-                if (pos == -1) {
-                    OverflowBlock<T> nb = overflowBlocks.get(poolIdx++);
-                    tailNew.setNextOverflow(nb.getAddress());
-                    tailNew = nb;
+        this.structureLock.readLock().lock();
+        try {
+            for (Map.Entry<Integer, List<String>> entry : this.groupByBucket(keys, key -> key).entrySet()) {
+                deleted += this.inStripe(entry.getKey(), true,
+                        blockIndex -> this.deleteAllInBucket(blockIndex, entry.getValue(), chainRewritten));
+            }
+        } finally {
+            this.structureLock.readLock().unlock();
+        }
 
-                    pos = tailNew.addRecord(record);
-                    if (pos == -1) {
-                        throw new IllegalStateException("New overflow block didn't accept record.");
-                    }
-                }
+        if (deleted > 0) {
+            this.totalRecords.addAndGet(-deleted);
+            this.metadataChanged = true;
+            this.restructureAfterBatch(chainRewritten[0]);
+        }
+        return deleted;
+    }
 
-                newBlock.setOverflowRecordCount(newBlock.getOverflowRecordCount() + 1);
+    private int deleteAllInBucket(int blockIndex, List<String> keys, boolean[] chainRewritten) throws IOException {
+        LHBlock<T> primary = this.readPrimaryBlock(blockIndex);
+        int deleted = 0;
+        boolean rewritten = false;
+        List<String> inChain = new ArrayList<>();
+
+        for (String key : keys) {
+            if (primary.deleteRecord(this.createPattern(key))) {
+                deleted++;
+            } else if (primary.getNextOverflow() != -1) {
+                inChain.add(key);
             }
         }
 
-        int oldChainLength = 0;
-        int newChainLength = 0;
+        // the chain is read when it holds keys of the batch or when it may shrink by a block, as in compactBlock
+        int chainLength = primary.getChainLength();
+        int capacityWithOneLess = this.getRecordsPerBlock() + (chainLength - 1) * this.overflowFile.getRecordsPerBlock();
+        boolean mayShrink = deleted > 0 && primary.getNextOverflow() != -1
+                && primary.getValidCount() + primary.getOverflowRecordCount() <= capacityWithOneLess;
+
+        if (!inChain.isEmpty() || mayShrink) {
+            List<OverflowBlock<T>> chain = this.overflowFile.collectAllBlocksFromChain(
+                    primary.getNextOverflow(), chainLength);
+            List<T> chainRecords = new ArrayList<>();
+            for (OverflowBlock<T> block : chain) {
+                chainRecords.addAll(block.getRecords());
+            }
+            int chainDeleted = 0;
+            for (String key : inChain) {
+                for (int i = 0; i < chainRecords.size(); i++) {
+                    if (key.equals(chainRecords.get(i).getKey())) {
+                        chainRecords.remove(i);
+                        chainDeleted++;
+                        break;
+                    }
+                }
+            }
 
-        // tracking overflow blocks in old block
-        int currentOverflow = primaryBlock.getNextOverflow();
-        while (currentOverflow != -1) {
-            oldChainLength++;
-            for (OverflowBlock<T> block : overflowBlocks) {
-                if (block.getAddress() == currentOverflow) {
-                    currentOverflow = block.getNextOverflow();
-                    break;
+            if (chainDeleted > 0
+                    || primary.getValidCount() + chainRecords.size() <= capacityWithOneLess) {
+                for (OverflowBlock<T> block : chain) {
+                    this.overflowFile.markOverflowBlockAsEmpty(block.getAddress());
                 }
+                List<T> all = new ArrayList<>(primary.getRecords());
+                all.addAll(chainRecords);
+                primary = this.emptyBucket(blockIndex);
+                this.fillBucket(primary, all);
+                deleted += chainDeleted;
+                chainRewritten[0] = true;
+                rewritten = true;
             }
         }
 
-        // tracking overflow blocks in new block
-        currentOverflow = newBlock.getNextOverflow();
-        while (currentOverflow != -1) {
-            newChainLength++;
-            for (OverflowBlock<T> block : overflowBlocks) {
-                if (block.getAddress() == currentOverflow) {
-                    currentOverflow = block.getNextOverflow();
-                    break;
+        // a rewritten chain moved to new blocks, the primary must point at them even if nothing was deleted
+        if (deleted > 0 || rewritten) {
+            this.writeBlock(blockIndex, primary);
+        }
+        return deleted;
+    }
+
+    /**
+     * Reads the records of the overflow chain of a primary block and frees its blocks
+     * The primary block still points to the released chain, it is rebuilt by the caller
+     */
+    private List<T> releaseChain(LHBlock<T> primary) throws IOException {
+        List<T> records = new ArrayList<>();
+        if (primary.getNextOverflow() == -1) {
+            return records;
+        }
+        for (OverflowBlock<T> block : this.overflowFile.collectAllBlocksFromChain(
+                primary.getNextOverflow(), primary.getChainLength())) {
+            records.addAll(block.getRecords());
+            this.overflowFile.markOverflowBlockAsEmpty(block.getAddress());
+        }
+        return records;
+    }
+
+    /**
+     * Deferred restructuring of a batch - one check of the thresholds and, if needed,
+     * splits or merges until the load factor is back between them
+     * The overflow file is trimmed when the batch released chain blocks
+     */
+    private void restructureAfterBatch(boolean chainRewritten) throws IOException {
+        SplitPolicy policy = this.splitPolicy;
+        double loadFactor = this.getLoadFactor();
+        if (loadFactor <= policy.getMaxLoad() && this.chainSplitRequests.get() == 0 && !this.needsMerge()
+                && !chainRewritten) {
+            return;
+        }
+
+        RestructureWorker background = this.worker;
+        if (background != null && loadFactor <= policy.getMaxLoad() + BACKGROUND_OVERSHOOT
+                && loadFactor >= policy.getMinLoad() - BACKGROUND_OVERSHOOT) {
+            this.checkWorker(background);
+            background.requestRestructure();
+        } else {
+            this.restructure();
+        }
+    }
+
+    /**
+     * Deletes a record by key
+     * Without a pending merge the bucket is compacted while it is still locked,
+     * merges and trimming of the overflow file run under the structure lock afterwards
+     * In background mode compaction and merges are left to the worker
+     */
+    @Override
+    public boolean delete(String key) throws IOException {
+        boolean[] freedOverflow = new boolean[]{false};
+        RestructureWorker background = this.worker;
+
+        boolean deleted = this.inBucket(key, true, blockIndex -> this.filter.mightContain(blockIndex, key)
+                && this.deleteInBucket(blockIndex, this.readPrimaryBlock(blockIndex), key, background, freedOverflow));
+        this.afterDelete(deleted, background, freedOverflow[0]);
+
+        return deleted;
+    }
+
+    /**
+     * Removes the record from the primary block or its chain and compacts the bucket, the bucket is locked
+     */
+    private boolean deleteInBucket(int blockIndex, LHBlock<T> primaryBlock, String key, RestructureWorker background,
+                                   boolean[] freedOverflow) throws IOException {
+        boolean removed = primaryBlock.deleteRecord(this.createPattern(key));
+
+        if (removed) {
+            // record was in primary block
+            this.writeBlock(blockIndex, primaryBlock);
+            this.totalRecords.decrementAndGet();
+            this.metadataChanged = true;
+        } else {
+            // try to delete from overflow chain
+            int firstOverflow = primaryBlock.getNextOverflow();
+            if (firstOverflow != -1) {
+                int[] chain = primaryBlock.getChainState();
+
+                if (this.overflowFile.deleteFromChain(chain, key)) {
+                    removed = true;
+                    primaryBlock.setChainState(chain);
+                    primaryBlock.setOverflowRecordCount(Math.max(0, primaryBlock.getOverflowRecordCount() - 1));
+                    if (chain[OverflowFile.CHAIN_FIRST] == -1) {
+                        primaryBlock.setChainFilter(0);
+                    }
+
+                    this.writeBlock(blockIndex, primaryBlock);
+                    this.totalRecords.decrementAndGet();
+                    this.metadataChanged = true;
                 }
             }
         }
 
-        // set chain lengths
-        primaryBlock.setChainLength(oldChainLength);
-        newBlock.setChainLength(newChainLength);
+        if (removed && background != null) {
+            if (primaryBlock.getNextOverflow() != -1) {
+                background.requestCompaction(blockIndex);
+            }
+        } else if (removed && !this.needsMerge()) {
+            freedOverflow[0] = this.compactBlock(blockIndex);
+        }
+        return removed;
+    }
 
-        // mark unused overflow blocks as empty
-        for (int i = poolIdx; i < overflowBlocks.size(); i++) {
-            OverflowBlock<T> empty = overflowBlocks.get(i);
-            this.overflowFile.markOverflowBlockAsEmpty(empty.getAddress());
+    /**
+     * Merges and trims the overflow file after a delete, the bucket is no longer locked
+     */
+    private void afterDelete(boolean deleted, RestructureWorker background, boolean freedOverflow) throws IOException {
+        if (deleted && background != null && this.getLoadFactor() >= this.splitPolicy.getMinLoad() - BACKGROUND_OVERSHOOT) {
+            this.checkWorker(background);
+            if (this.needsMerge()) {
+                background.requestRestructure();
+            }
+        } else if (deleted && (this.needsMerge() || freedOverflow)) {
+            this.restructure();
         }
+    }
 
-        // write changes to file
-        this.writeBlock(blockToSplit, primaryBlock);
-        this.writeBlock(newBlockIndex, newBlock);
+    /**
+     * Merge is due below the minimum load factor, unless the merged file would be within the hysteresis of a split
+     */
+    private boolean needsMerge() {
+        int primaryBlocks = this.primaryBlocksCount();
+        SplitPolicy policy = this.splitPolicy;
+        return primaryBlocks > this.M && this.getLoadFactor() < policy.getMinLoad()
+                && this.loadFactorWith(primaryBlocks - 1) <= policy.getMaxLoad() - policy.getHysteresis();
+    }
+
+    /**
+     * A split requested by a long chain is done only if the file stays above the merge threshold plus hysteresis
+     */
+    private boolean chainSplitAllowed() {
+        SplitPolicy policy = this.splitPolicy;
+        return this.loadFactorWith(this.primaryBlocksCount() + 1) >= policy.getMinLoad() + policy.getHysteresis();
+    }
+
+    /**
+     * Operation on the bucket of a key, runs while the bucket stripe is locked
+     */
+    @FunctionalInterface
+    private interface BucketOperation<R> {
+        R apply(int blockIndex) throws IOException;
+    }
 
-        for (OverflowBlock<T> overflowBlock : overflowBlocks) {
-            this.overflowFile.writeOverflowBlock(overflowBlock);
+    /**
+     * Runs the operation on the bucket of the key
+     * The structure read lock keeps level and split pointer stable, the stripe lock serializes
+     * writers of the same bucket, so operations on independent buckets run in parallel
+     */
+    private <R> R inBucket(String key, boolean write, BucketOperation<R> operation) throws IOException {
+        this.structureLock.readLock().lock();
+        try {
+            return this.inStripe(this.getTargetBlock(key), write, operation);
+        } finally {
+            this.structureLock.readLock().unlock();
         }
+    }
 
-        // update structure
-        this.splitPointer++;
+    /**
+     * Runs the operation on a bucket under its stripe lock, the caller holds the structure lock
+     */
+    private <R> R inStripe(int blockIndex, boolean write, BucketOperation<R> operation) throws IOException {
+        ReentrantReadWriteLock stripe = this.bucketLocks.get(this.bucketLocks.stripeOf(blockIndex));
+        Lock lock = write ? stripe.writeLock() : stripe.readLock();
+
+        lock.lock();
+        try {
+            return operation.apply(blockIndex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Groups batch items by their target bucket, buckets are ordered by block index
+     * Runs under the structure lock
+     */
+    private <V> TreeMap<Integer, List<V>> groupByBucket(Collection<V> items, Function<V, String> keyOf) {
+        TreeMap<Integer, List<V>> groups = new TreeMap<>();
+        for (V item : items) {
+            String key = item == null ? null : keyOf.apply(item);
+            if (key != null && !key.isBlank()) {
+                groups.computeIfAbsent(this.getTargetBlock(key), bucket -> new ArrayList<>()).add(item);
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Splits or merges until the load factor is back between the thresholds and trims the overflow file
+     * Runs with the structure write lock, so no bucket operation is in progress
+     */
+    private void restructure() throws IOException {
+        this.structureLock.writeLock().lock();
+        try {
+            while (this.getLoadFactor() > this.splitPolicy.getMaxLoad()) {
+                this.split();
+            }
+            if (this.chainSplitRequests.getAndSet(0) > 0 && this.chainSplitAllowed()) {
+                this.split();
+            }
+            while (this.needsMerge() && this.merge()) {
+                // merge until the load factor is back above the threshold
+            }
+            this.overflowFile.removeEmptyBlocksFromEnd();
+            if (this.overflowFragmented()) {
+                this.relocateOverflowBlocks();
+            }
+        } finally {
+            this.structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves splits, merges and bucket compaction to a background worker
+     * The load factor may then leave the thresholds by BACKGROUND_OVERSHOOT before an operation
+     * restructures inline, disabling stops the worker and catches up inline
+     */
+    public void setBackgroundRestructuring(boolean enabled) throws IOException {
+        synchronized (this.workerLock) {
+            if (enabled == (this.worker != null)) {
+                return;
+            }
+
+            if (enabled) {
+                RestructureWorker background = new RestructureWorker(this,
+                        "restructure-" + new File(this.metadataFile).getName());
+                background.start();
+                this.worker = background;
+                background.requestRestructure();
+            } else {
+                RestructureWorker background = this.worker;
+                this.worker = null;
+                background.stop();
+                this.restructure();
+                this.checkWorker(background);
+            }
+        }
+    }
+
+    public boolean isBackgroundRestructuring() {
+        return this.worker != null;
+    }
+
+    private void checkWorker(RestructureWorker background) throws IOException {
+        IOException failure = background.getFailure();
+        if (failure != null) {
+            throw new IOException("Background restructuring failed: " + failure.getMessage(), failure);
+        }
+    }
+
+    /**
+     * One step of background restructuring, a single split or merge under the structure lock
+     * @return false when the load factor is within the thresholds and only the overflow file was trimmed
+     */
+    boolean restructureStep() throws IOException {
+        this.structureLock.writeLock().lock();
+        try {
+            if (this.getLoadFactor() > this.splitPolicy.getMaxLoad()) {
+                this.split();
+                return true;
+            }
+            if (this.chainSplitRequests.getAndSet(0) > 0 && this.chainSplitAllowed()) {
+                this.split();
+                return true;
+            }
+            if (this.needsMerge() && this.merge()) {
+                return true;
+            }
+            this.overflowFile.removeEmptyBlocksFromEnd();
+            if (this.overflowFragmented()) {
+                this.relocateOverflowBlocks();
+            }
+            return false;
+        } finally {
+            this.structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Compacts the chain of a bucket queued by a delete, the bucket is locked the same way as by the delete
+     */
+    void compactBucket(int bucket) throws IOException {
+        this.structureLock.readLock().lock();
+        try {
+            if (bucket >= this.primaryBlocksCount()) {
+                return;
+            }
+
+            Lock lock = this.bucketLocks.get(this.bucketLocks.stripeOf(bucket)).writeLock();
+            lock.lock();
+            try {
+                this.compactBlock(bucket);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            this.structureLock.readLock().unlock();
+        }
+    }
+
+    private boolean overflowFragmented() throws IOException {
+        int blockCount = this.overflowFile.getBlockCount();
+        int free = blockCount - this.overflowFile.getUsedOverflowBlocks();
+        return free >= COMPACT_MIN_FREE_BLOCKS && free * 4 > blockCount;
+    }
+
+    /**
+     * Moves live overflow blocks from the end of the overflow file into free blocks and truncates the file
+     * Runs online, bucket operations wait on the structure lock only while the blocks are moved
+     * @return number of blocks removed from the overflow file
+     */
+    public int compactOverflowFile() throws IOException {
+        this.structureLock.writeLock().lock();
+        try {
+            return this.relocateOverflowBlocks();
+        } finally {
+            this.structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Builds the file from a stream of records, see {@link #bulkLoad(Iterator, double, long)}
+     */
+    @Override
+    public int bulkLoad(Iterator<T> records, double targetLoadFactor) throws IOException {
+        return this.bulkLoad(records, targetLoadFactor, BulkLoader.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Builds an empty hash file from a stream of records without incremental splits
+     * Level and split pointer are set for the target load factor and every block is written once
+     * Keys are not checked for duplicates, same as insert
+     * @return number of loaded records
+     */
+    public int bulkLoad(Iterator<T> records, double targetLoadFactor, long memoryBudget) throws IOException {
+        SplitPolicy policy = this.splitPolicy;
+        if (targetLoadFactor <= policy.getMinLoad() || targetLoadFactor > policy.getMaxLoad()) {
+            throw new IllegalArgumentException("Target load factor must be in (" + policy.getMinLoad() + ", "
+                    + policy.getMaxLoad() + "]: " + targetLoadFactor);
+        }
+
+        this.structureLock.writeLock().lock();
+        try {
+            if (this.totalRecords.get() != 0 || this.primaryBlocksCount() != this.M
+                    || this.overflowFile.getBlockCount() != 0) {
+                throw new IllegalStateException("Bulk load requires an empty hash file.");
+            }
+
+            BulkLoader<T> loader = new BulkLoader<>(this, this.getRecordTemplate(), this.metadataFile, memoryBudget);
+            return loader.load(records, targetLoadFactor);
+        } finally {
+            this.structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the file shape computed by the bulk loader
+     */
+    void setStructure(int level, int splitPointer, int totalRecords) {
+        this.level = level;
+        this.splitPointer = splitPointer;
+        this.totalRecords.set(totalRecords);
         this.metadataChanged = true;
+    }
+
+    @Override
+    public int getTotalRecords() {
+        return this.totalRecords.get();
+    }
 
-        if (this.splitPointer >= this.M * (int) Math.pow(2, this.level)) {
+    /**
+     * Determines the target block index for a given key
+     * Uses linear hashing algorithm: if h0(key) < splitPointer, use h1(key), else use h0(key)
+     * Other addressing schemes map the key through {@link AddressingScheme#address}
+     */
+    public int getTargetBlock(String key) {
+        long hash = this.hashFunction.hash(key);
+        if (this.addressing != AddressingScheme.LINEAR) {
+            return this.addressing.address(hash, this.M, this.level, this.splitPointer);
+        }
+        int h0 = this.address(hash, this.level);
+        return (h0 < this.splitPointer) ? this.address(hash, this.level + 1) : h0;
+    }
+
+    /**
+     * Algorithm:
+     * 1. Advance the split pointer, the group it pointed to gets a new bucket at the end of the file
+     * 2. Read all records from the primary blocks of the group and their overflow chains
+     * 3. Release the old chains and spread the records over the group and the new bucket by the new addressing,
+     *    each bucket is rebuilt with one contiguous overflow extent
+     * With linear addressing the group is the single bucket at the split pointer
+     */
+    private void split() throws IOException {
+        int group = this.splitPointer;
+        int groupSize = this.addressing.groupSize(this.level);
+        int groupCount = this.addressing.groupCount(this.M, this.level);
+
+        int[] sources = new int[groupSize];
+        for (int i = 0; i < groupSize; i++) {
+            sources[i] = group + i * groupCount;
+        }
+        int[] targets = new int[groupSize + 1];
+        System.arraycopy(sources, 0, targets, 0, groupSize);
+        targets[groupSize] = this.primaryBlocksCount();
+
+        // update structure
+        this.splitPointer++;
+        if (this.splitPointer >= groupCount) {
             this.level++;
             this.splitPointer = 0;
         }
 
+        this.redistribute(sources, targets);
+
+        this.splits++;
+        this.metadataChanged = true;
         this.overflowFile.removeEmptyBlocksFromEnd();
     }
 
     /**
      * Algorithm:
-     * a) if S > 0: a = S + M*2^u - 1, b = S - 1, S := b
-     * b) if S = 0 and u > 0: a = M*2^u - 1, b = M*2^(u-1) - 1, S := b, u := u - 1
+     * 1. Move the split pointer one group back, the last bucket of the file belongs to that group
+     *    a) if S > 0: S := S - 1
+     *    b) if S = 0 and u > 0: u := u - 1, S := number of groups at level u - 1
+     * 2. Spread the records of the group and of the last bucket over the buckets of the group
+     * With linear addressing the last bucket a = S + M*2^u - 1 is merged into b = S - 1
+     * @return false if the merge was not done, also when the merged chains would exceed the chain length limit
      */
-    private void merge() throws IOException {
+    private boolean merge() throws IOException {
         if (this.primaryBlocksCount() <= this.M) {
-            return;
+            return false;
         }
 
-        // determine indices a (last group) and b (target group)
-        int base = this.M * (int) Math.pow(2, this.level);
-        int a, b;
+        int previousLevel, previousSplitPointer;
         if (this.splitPointer > 0) {
-            a = this.splitPointer + base - 1;
-            b = this.splitPointer - 1;
-        } else if (this.splitPointer == 0 && this.level > 0) {
-            a = base - 1;
-            b = this.M * (int) Math.pow(2, this.level - 1) - 1;
+            previousLevel = this.level;
+            previousSplitPointer = this.splitPointer - 1;
+        } else if (this.level > 0) {
+            previousLevel = this.level - 1;
+            previousSplitPointer = this.addressing.groupCount(this.M, previousLevel) - 1;
         } else {
-            return;
+            return false;
         }
 
-        List<T> allRecords = new ArrayList<>();
-
-        LHBlock<T> blockB = this.readPrimaryBlock(b);
-        allRecords.addAll(blockB.getRecords());
-
-        int bOverflow = blockB.getNextOverflow();
-        while (bOverflow != -1) {
-            OverflowBlock<T> overflowBlock = this.overflowFile.readOverflowBlock(bOverflow);
-            allRecords.addAll(overflowBlock.getRecords());
-            bOverflow = overflowBlock.getNextOverflow();
+        int groupSize = this.addressing.groupSize(previousLevel);
+        int groupCount = this.addressing.groupCount(this.M, previousLevel);
+        int[] targets = new int[groupSize];
+        for (int i = 0; i < groupSize; i++) {
+            targets[i] = previousSplitPointer + i * groupCount;
         }
-
-        LHBlock<T> blockA = this.readPrimaryBlock(a);
-        allRecords.addAll(blockA.getRecords());
-
-        int aOverflow = blockA.getNextOverflow();
-        while (aOverflow != -1) {
-            OverflowBlock<T> overflowBlock = this.overflowFile.readOverflowBlock(aOverflow);
-            allRecords.addAll(overflowBlock.getRecords());
-            aOverflow = overflowBlock.getNextOverflow();
+        int[] sources = new int[groupSize + 1];
+        System.arraycopy(targets, 0, sources, 0, groupSize);
+        sources[groupSize] = this.primaryBlocksCount() - 1;
+
+        SplitPolicy policy = this.splitPolicy;
+        if (policy.getMaxChainLength() > 0) {
+            long records = 0;
+            for (int bucket : sources) {
+                records += this.headers.getValidCount(bucket) + this.headers.getOverflowRecordCount(bucket);
+            }
+            long capacity = groupSize * (this.getRecordsPerBlock()
+                    + (long) policy.getMaxChainLength() * this.overflowFile.getRecordsPerBlock());
+            if (records > capacity) {
+                return false;
+            }
         }
 
-        allRecords.removeIf(record -> record == null || record.getKey() == null || record.getKey().isEmpty());
+        this.level = previousLevel;
+        this.splitPointer = previousSplitPointer;
 
-        blockB.clearRecords();
-        blockB.setNextOverflow(-1);
-        blockB.setOverflowRecordCount(0);
-        blockB.setChainLength(0);
+        this.redistribute(sources, targets);
 
-        blockA.clearRecords();
-        blockA.setNextOverflow(-1);
-        blockA.setOverflowRecordCount(0);
-        blockA.setChainLength(0);
+        this.merges++;
+        this.metadataChanged = true;
+        this.overflowFile.removeEmptyBlocksFromEnd();
+        return true;
+    }
 
-        this.writeBlock(a, blockA);
+    /**
+     * Reads the source buckets with their chains, releases the chains and writes the records
+     * to the target buckets by the current addressing, sources that are not targets are written empty
+     * The old chains are released first, so the new extents can reuse their blocks
+     */
+    private void redistribute(int[] sources, int[] targets) throws IOException {
+        List<T> allRecords = new ArrayList<>();
+        List<Integer> oldChainBlocks = new ArrayList<>();
 
-        this.overflowFile.markOverflowBlockAsEmpty(blockA.getNextOverflow());
-        this.overflowFile.markOverflowBlockAsEmpty(blockB.getNextOverflow());
+        for (int bucket : sources) {
+            if (this.headers.isEmpty(bucket)) {
+                continue;
+            }
+            LHBlock<T> block = this.readPrimaryBlock(bucket);
+            allRecords.addAll(block.getRecords());
+            for (OverflowBlock<T> overflowBlock : this.overflowFile.collectAllBlocksFromChain(
+                    block.getNextOverflow(), block.getChainLength())) {
+                allRecords.addAll(overflowBlock.getRecords());
+                oldChainBlocks.add(overflowBlock.getAddress());
+            }
+        }
+        allRecords.removeIf(record -> record == null || record.getKey() == null || record.getKey().isEmpty());
 
-        blockA.setNextOverflow(-1);
-        blockB.setNextOverflow(-1);
+        for (int index : oldChainBlocks) {
+            this.overflowFile.markOverflowBlockAsEmpty(index);
+        }
 
+        List<List<T>> recordsByTarget = new ArrayList<>();
+        for (int i = 0; i < targets.length; i++) {
+            recordsByTarget.add(new ArrayList<>());
+        }
         for (T record : allRecords) {
-            if (record != null && record.getKey() != null) {
-                this.insertRecordIntoBlock(blockB, record);
+            int bucket = this.getTargetBlock(record.getKey());
+            int i = 0;
+            while (i < targets.length && targets[i] != bucket) {
+                i++;
+            }
+            if (i == targets.length) {
+                throw new IllegalStateException("Record " + record.getKey() + " addressed to bucket " + bucket
+                        + " outside of the restructured group.");
             }
+            recordsByTarget.get(i).add(record);
         }
 
-        this.writeBlock(b, blockB);
-
-        if (this.splitPointer > 0) {
-            this.splitPointer--;
-        } else {
-            this.level--;
-            this.splitPointer = this.M * (int) Math.pow(2, this.level) - 1;
+        for (int bucket : sources) {
+            boolean target = false;
+            for (int t : targets) {
+                target |= t == bucket;
+            }
+            if (!target) {
+                this.writeBlock(bucket, this.emptyBucket(bucket));
+            }
         }
+        for (int i = 0; i < targets.length; i++) {
+            LHBlock<T> block = this.emptyBucket(targets[i]);
+            this.fillBucket(block, recordsByTarget.get(i));
+            this.writeBlock(targets[i], block);
+        }
+    }
 
-        this.metadataChanged = true;
-        this.overflowFile.removeEmptyBlocksFromEnd();
+    private LHBlock<T> emptyBucket(int index) {
+        LHBlock<T> block = (LHBlock<T>) this.createBlock(index);
+        block.clearRecords();
+        block.resetChain();
+        return block;
+    }
+
+    /**
+     * Fills an emptied bucket, records that do not fit in the primary block are written
+     * to one extent of contiguous overflow blocks, so the chain is read sequentially
+     */
+    private void fillBucket(LHBlock<T> primary, List<T> records) throws IOException {
+        fillBucket(primary, records, this.overflowFile);
     }
 
-    private boolean insertRecordIntoBlock(LHBlock<T> block, T record) throws IOException {
-        if (block.addRecord(record) != -1) {
-            return true;
+    /**
+     * Fills an emptied bucket of any hashing engine that keeps its overflow chains in the overflow file
+     */
+    static <T extends Record<T>> void fillBucket(LHBlock<T> primary, List<T> records,
+                                                 OverflowFile<T> overflowFile) throws IOException {
+        int position = 0;
+        while (position < records.size() && primary.addRecord(records.get(position)) != -1) {
+            position++;
         }
 
-        int firstOverflow = block.getNextOverflow();
-        int[] result = this.overflowFile.addToChain(firstOverflow, record);
+        int overflowRecords = records.size() - position;
+        if (overflowRecords == 0) {
+            return;
+        }
+
+        int overflowCapacity = overflowFile.getRecordsPerBlock();
+        int chainLength = (overflowRecords + overflowCapacity - 1) / overflowCapacity;
+        int first = overflowFile.allocateExtent(chainLength);
 
-        if (result != null) {
-            if (firstOverflow == -1) {
-                block.setNextOverflow(result[0]);
+        for (int c = 0; c < chainLength; c++) {
+            OverflowBlock<T> block = overflowFile.createBlock(first + c);
+            for (int i = 0; i < overflowCapacity && position < records.size(); i++) {
+                T record = records.get(position++);
+                if (block.addRecord(record) == -1) {
+                    throw new IllegalStateException("New overflow block didn't accept record.");
+                }
+                primary.addToChainFilter(record.getKey());
             }
-            block.setOverflowRecordCount(block.getOverflowRecordCount() + 1);
-            block.setChainLength(result[1]);
-            return true;
+            block.setNextOverflow(c == chainLength - 1 ? -1 : first + c + 1);
+            overflowFile.writeOverflowBlock(block);
         }
 
-        return false;
+        int tail = first + chainLength - 1;
+        primary.setNextOverflow(first);
+        primary.setOverflowRecordCount(overflowRecords);
+        primary.setChainLength(chainLength);
+        primary.setChainTail(tail);
+        primary.setFreeSpaceHint(overflowRecords < chainLength * overflowCapacity ? tail : -1);
     }
 
     /**
      * Compaction of a single block
-     * Performed only if at least 1 overflow block can be freed
+     * Performed only if at least 1 overflow block can be freed, the remaining chain is rewritten as one extent
      */
     private boolean compactBlock(int blockIndex) throws IOException {
-        LHBlock<T> primary = this.readPrimaryBlock(blockIndex);
-        int firstOverflow = primary.getNextOverflow();
+        int firstOverflow = this.headers.getNextOverflow(blockIndex);
         if (firstOverflow == -1) {
             return false;
         }
 
-        List<OverflowBlock<T>> chain = this.overflowFile.collectAllBlocksFromChain(firstOverflow);
+        int primaryCapacity = this.getRecordsPerBlock();
+        int overflowCapacity = this.overflowFile.getRecordsPerBlock();
+
+        // decided from the bucket directory, the blocks are read only when a block can be freed
+        int records = this.headers.getValidCount(blockIndex) + this.headers.getOverflowRecordCount(blockIndex);
+        if (records > primaryCapacity + (this.headers.getChainLength(blockIndex) - 1) * overflowCapacity) {
+            return false;
+        }
+
+        LHBlock<T> primary = this.readPrimaryBlock(blockIndex);
+        List<OverflowBlock<T>> chain = this.overflowFile.collectAllBlocksFromChain(firstOverflow, primary.getChainLength());
         int L = chain.size();
         if (L == 0) return false;
 
@@ -589,85 +1527,108 @@ public class LinearHashing<T extends Record<T>> extends HeapFile<T> {
             allRecords.addAll(ob.getRecords());
         }
 
-        int primaryCapacity = this.getRecordsPerBlock();
-        int overflowCapacity = this.overflowFile.getRecordsPerBlock();
-
         int capacityWithOneLess = primaryCapacity + (L - 1) * overflowCapacity;
         if (allRecords.size() > capacityWithOneLess) {
             return false;
         }
 
         primary.clearRecords();
-        primary.setNextOverflow(-1);
-        primary.setOverflowRecordCount(0);
-        primary.setChainLength(0);
+        primary.resetChain();
 
         for (OverflowBlock<T> ob : chain) {
-            ob.clearRecords();
-            ob.setNextOverflow(-1);
+            this.overflowFile.markOverflowBlockAsEmpty(ob.getAddress());
         }
 
-        List<T> remaining = new ArrayList<>();
-        for (T rec : allRecords) {
-            if (primary.addRecord(rec) == -1) {
-                remaining.add(rec);
-            }
-        }
-
-        int overflowCount = 0;
-        int chainLength = 0;
-        OverflowBlock<T> currentOverflow = null;
-        OverflowBlock<T> previousOverflow = null;
+        this.fillBucket(primary, allRecords);
+        this.writeBlock(blockIndex, primary);
 
-        for (int i = 0; i < chain.size() && !remaining.isEmpty(); i++) {
-            currentOverflow = chain.get(i);
-            chainLength++;
+        this.metadataChanged = true;
 
-            List<T> toAdd = new ArrayList<>(remaining);
-            remaining.clear();
+        return primary.getChainLength() < L;
+    }
 
-            for (T rec : toAdd) {
-                if (currentOverflow.addRecord(rec) == -1) {
-                    remaining.add(rec);
-                }
+    /**
+     * Packs all live overflow blocks into the first blocks of the overflow file
+     * Live blocks are the ones reachable from the primary blocks, so blocks lost by older versions are reclaimed too
+     * Every block at or past the live count is copied into the lowest free block below it,
+     * its predecessor and the chain pointers of the primary block are rewritten
+     */
+    private int relocateOverflowBlocks() throws IOException {
+        int blockCount = this.overflowFile.getBlockCount();
+        if (blockCount == 0) {
+            return 0;
+        }
+        int buckets = this.primaryBlocksCount();
+
+        BitSet live = new BitSet(blockCount);
+        int liveCount = 0;
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            int current = this.headers.getNextOverflow(bucket);
+            while (current != -1) {
+                live.set(current);
+                liveCount++;
+                current = this.overflowFile.readOverflowBlock(current).getNextOverflow();
             }
+        }
 
-            if (previousOverflow != null) {
-                previousOverflow.setNextOverflow(currentOverflow.getAddress());
-            } else {
-                primary.setNextOverflow(currentOverflow.getAddress());
+        int freeCursor = 0;
+        for (int bucket = 0; bucket < buckets && live.nextSetBit(liveCount) != -1; bucket++) {
+            if (this.headers.getNextOverflow(bucket) == -1) {
+                continue;
             }
+            LHBlock<T> primary = this.readPrimaryBlock(bucket);
 
-            overflowCount += currentOverflow.getValidCount();
-            previousOverflow = currentOverflow;
+            List<OverflowBlock<T>> chain = this.overflowFile.collectAllBlocksFromChain(
+                    primary.getNextOverflow(), primary.getChainLength());
+            boolean[] changed = new boolean[chain.size()];
+            boolean moved = false;
 
-            if (remaining.isEmpty()) {
-                currentOverflow.setNextOverflow(-1);
-                break;
-            }
-        }
-
-        if (!remaining.isEmpty()) {
-            throw new IllegalStateException("Cannot fit records after compaction");
-        }
+            for (int i = 0; i < chain.size(); i++) {
+                OverflowBlock<T> block = chain.get(i);
+                if (block.getAddress() < liveCount) {
+                    continue;
+                }
 
-        primary.setOverflowRecordCount(overflowCount);
-        primary.setChainLength(chainLength);
+                freeCursor = live.nextClearBit(freeCursor);
+                OverflowBlock<T> copy = this.overflowFile.createBlock(freeCursor);
+                for (T record : block.getRecords()) {
+                    copy.addRecord(record);
+                }
+                copy.setNextOverflow(block.getNextOverflow());
+                live.set(freeCursor);
+                live.clear(block.getAddress());
 
-        this.writeBlock(blockIndex, primary);
+                if (primary.getChainTail() == block.getAddress()) {
+                    primary.setChainTail(freeCursor);
+                }
+                if (primary.getFreeSpaceHint() == block.getAddress()) {
+                    primary.setFreeSpaceHint(freeCursor);
+                }
 
-        for (int i = 0; i < chainLength; i++) {
-            this.overflowFile.writeOverflowBlock(chain.get(i));
-        }
+                chain.set(i, copy);
+                changed[i] = true;
+                if (i > 0) {
+                    chain.get(i - 1).setNextOverflow(freeCursor);
+                    changed[i - 1] = true;
+                } else {
+                    primary.setNextOverflow(freeCursor);
+                }
+                moved = true;
+            }
 
-        for (int i = chainLength; i < chain.size(); i++) {
-            this.overflowFile.markOverflowBlockAsEmpty(chain.get(i).getAddress());
+            if (!moved) {
+                continue;
+            }
+            for (int i = 0; i < chain.size(); i++) {
+                if (changed[i]) {
+                    this.overflowFile.writeOverflowBlock(chain.get(i));
+                }
+            }
+            this.writeBlock(bucket, primary);
         }
 
-        this.overflowFile.removeEmptyBlocksFromEnd();
-        this.metadataChanged = true;
-
-        return chainLength < L;
+        this.overflowFile.truncateToLiveBlocks(liveCount);
+        return blockCount - liveCount;
     }
 
     private T createPattern(String key) {
@@ -685,52 +1646,97 @@ public class LinearHashing<T extends Record<T>> extends HeapFile<T> {
      * Load factor = total records / total capacity (primary + overflow)
      */
     private double getLoadFactor() {
-        int primaryBlocks = this.primaryBlocksCount();
-        int primaryCapacity = primaryBlocks * this.getRecordsPerBlock();
+        return this.loadFactorWith(this.primaryBlocksCount());
+    }
 
-        int overflowBlocks = this.overflowFile.getUsedOverflowBlocks();
-        int overflowCapacity = overflowBlocks * this.overflowFile.getRecordsPerBlock();
+    /**
+     * Load factor the file would have with the given number of primary blocks
+     * Overflow capacity is counted unless the split policy measures the primary area only
+     */
+    private double loadFactorWith(int primaryBlocks) {
+        long primaryCapacity = (long) primaryBlocks * this.getRecordsPerBlock();
 
-        int totalCapacity = primaryCapacity + overflowCapacity;
+        long overflowCapacity = 0;
+        if (!this.splitPolicy.isPrimaryLoad()) {
+            int overflowBlocks = this.overflowFile.getUsedOverflowBlocks();
+            overflowCapacity = (long) overflowBlocks * this.overflowFile.getRecordsPerBlock();
+        }
+
+        long totalCapacity = primaryCapacity + overflowCapacity;
 
-        return totalCapacity == 0 ? 0 : (double) this.totalRecords / totalCapacity;
+        return totalCapacity == 0 ? 0 : (double) this.totalRecords.get() / totalCapacity;
     }
 
     /**
      * Gets statistics about the hash file
+     * The counters and histograms are kept by the bucket directory, no block is read
+     * The structure read lock keeps level and split pointer stable, bucket operations go on meanwhile
      */
+    @Override
     public LinearHashingStats getStats() throws IOException {
-        LinearHashingStats stats = new LinearHashingStats();
-        stats.level = this.level;
-        stats.splitPointer = this.splitPointer;
-        stats.totalRecords = this.totalRecords;
-        stats.totalBlocks = this.primaryBlocksCount();
-        stats.loadFactor = this.getLoadFactor();
-        stats.overflowBlocks = this.overflowFile.getUsedOverflowBlocks();
-
-        for (int i = 0; i < stats.totalBlocks; i++) {
-            LHBlock<T> block = this.readPrimaryBlock(i);
-            if (!block.isEmpty()) {
-                stats.nonEmptyBlocks++;
-                stats.totalOverflowRecords += block.getOverflowRecordCount();
-            }
+        this.structureLock.readLock().lock();
+        try {
+            LinearHashingStats stats = new LinearHashingStats();
+            stats.level = this.level;
+            stats.splitPointer = this.splitPointer;
+            stats.totalRecords = this.totalRecords.get();
+            stats.totalBlocks = this.primaryBlocksCount();
+            stats.loadFactor = this.getLoadFactor();
+            stats.overflowBlocks = this.overflowFile.getUsedOverflowBlocks();
+            stats.splits = this.splits;
+            stats.merges = this.merges;
+            stats.nonEmptyBlocks = this.headers.getNonEmptyBuckets();
+            stats.totalOverflowRecords = this.headers.getOverflowRecords();
+            stats.fillHistogram = this.headers.getFillHistogram(stats.totalBlocks);
+            stats.chainLengthHistogram = this.headers.getChainLengthHistogram(stats.totalBlocks);
+
+            return stats;
+        } finally {
+            this.structureLock.readLock().unlock();
         }
-
-        return stats;
     }
 
     /**
      * Statistics container class for Linear Hashing
      */
-    public static class LinearHashingStats {
+    public static class LinearHashingStats extends HashIndexStats {
         public int level;
         public int splitPointer;
-        public int totalRecords;
-        public int totalBlocks;
-        public int nonEmptyBlocks;
-        public int overflowBlocks;
-        public int totalOverflowRecords;
-        public double loadFactor;
+        public int[] fillHistogram; // primary blocks by number of records
+        public int[] chainLengthHistogram; // buckets by number of overflow blocks
+
+        /**
+         * Formats a histogram as value:count pairs, values without buckets are left out
+         */
+        public static String formatHistogram(int[] histogram) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < histogram.length; i++) {
+                if (histogram[i] != 0) {
+                    sb.append(sb.isEmpty() ? "" : ", ").append(i).append(": ").append(histogram[i]);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Durability checkpoint of the primary and the overflow file
+     * Data blocks are forced before the bucket directory and the filter are saved as clean,
+     * a crash in between leaves them marked dirty and they are rebuilt on open
+     */
+    @Override
+    public void checkpoint() throws IOException {
+        this.structureLock.writeLock().lock();
+        try {
+            this.overflowFile.checkpoint();
+            this.flush();
+            this.getFile().force();
+            this.saveMetadata();
+            this.headers.checkpoint();
+            this.filter.checkpoint();
+        } finally {
+            this.structureLock.writeLock().unlock();
+        }
     }
 
     /**
@@ -738,69 +1744,89 @@ public class LinearHashing<T extends Record<T>> extends HeapFile<T> {
      */
     @Override
     public void close() throws IOException {
-        this.saveMetadata();
-        this.overflowFile.close();
-        super.getFile().close();
+        this.setBackgroundRestructuring(false);
+        this.structureLock.writeLock().lock();
+        try {
+            this.overflowFile.close();
+            this.releaseBufferPool();
+            this.saveMetadata();
+            this.headers.close();
+            this.filter.close();
+            super.getFile().close();
+        } finally {
+            this.structureLock.writeLock().unlock();
+        }
     }
 
     /**
      * Displays the whole hashfile - all primary anf ovewflow blocks
+     * Only the structure read lock is held, a bucket changed meanwhile is shown as it was when read
      */
+    @Override
     public String displayAllBlocks(String title) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        LinearHashingStats stats = this.getStats();
-
-        if (title != null && !title.isBlank()) {
-            sb.append(title).append("\n\n");
-        }
-        sb.append("ŠTATISTIKY:\n");
-        sb.append("• Úroveň (level): ").append(stats.level).append("\n");
-        sb.append("• Split pointer: ").append(stats.splitPointer).append("\n");
-        sb.append("• Celkový počet záznamov: ").append(stats.totalRecords).append("\n");
-        sb.append("• Primárne bloky: ").append(stats.totalBlocks).append("\n");
-        sb.append("• Overflow bloky: ").append(stats.overflowBlocks).append("\n");
-        sb.append("• Záznamy v overflow: ").append(stats.totalOverflowRecords).append("\n");
-        sb.append("• Hustota: ").append(String.format("%.2f", stats.loadFactor)).append("\n\n");
-
-        for (int i = 0; i < stats.totalBlocks; i++) {
-            sb.append("════════════════════════════════════════════════════════════════════════════════\n");
-            sb.append("PRIMÁRNY BLOK ").append(i).append("\n");
-            sb.append("════════════════════════════════════════════════════════════════════════════════\n");
-
-            LHBlock<T> primaryBlock = this.readPrimaryBlock(i);
-            sb.append("Adresa: ").append(primaryBlock.getAddress()).append(" bytes\n");
-            sb.append("Stav: ");
-            if (primaryBlock.isEmpty()) sb.append("PRÁZDNY");
-            else if (!primaryBlock.hasSpace()) sb.append("PLNÝ");
-            else sb.append("ČIASTOČNE VOĽNÝ");
-            sb.append(" | Záznamy: ").append(primaryBlock.getValidCount())
-                    .append("/").append(primaryBlock.getRecordsPerBlock()).append("\n");
-            sb.append("Overflow pointer: ").append(primaryBlock.getNextOverflow())
-                    .append(" | Overflow záznamov: ").append(primaryBlock.getOverflowRecordCount())
-                    .append(" | Dĺžka reťazca: ").append(primaryBlock.getChainLength()).append("\n\n");
-
-            if (primaryBlock.isEmpty()) {
-                sb.append(" Žiadne záznamy\n");
-            } else {
-                int recordNum = 1;
-                for (T record : primaryBlock.getRecords()) {
-                    if (record != null && record.getKey() != null && !record.getKey().trim().isEmpty()) {
-                        sb.append(" ").append(recordNum).append(". ").append(record).append("\n");
-                        recordNum++;
+        this.structureLock.readLock().lock();
+        try {
+            StringBuilder sb = new StringBuilder();
+            LinearHashingStats stats = this.getStats();
+
+            if (title != null && !title.isBlank()) {
+                sb.append(title).append("\n\n");
+            }
+            sb.append("ŠTATISTIKY:\n");
+            sb.append("• Úroveň (level): ").append(stats.level).append("\n");
+            sb.append("• Split pointer: ").append(stats.splitPointer).append("\n");
+            sb.append("• Celkový počet záznamov: ").append(stats.totalRecords).append("\n");
+            sb.append("• Primárne bloky: ").append(stats.totalBlocks).append("\n");
+            sb.append("• Overflow bloky: ").append(stats.overflowBlocks).append("\n");
+            sb.append("• Záznamy v overflow: ").append(stats.totalOverflowRecords).append("\n");
+            sb.append("• Naplnenie primárnych blokov: ")
+                    .append(LinearHashingStats.formatHistogram(stats.fillHistogram)).append("\n");
+            sb.append("• Dĺžky overflow reťazcov: ")
+                    .append(LinearHashingStats.formatHistogram(stats.chainLengthHistogram)).append("\n");
+            sb.append("• Hustota: ").append(String.format("%.2f", stats.loadFactor)).append("\n\n");
+
+            for (int i = 0; i < stats.totalBlocks; i++) {
+                sb.append("════════════════════════════════════════════════════════════════════════════════\n");
+                sb.append("PRIMÁRNY BLOK ").append(i).append("\n");
+                sb.append("════════════════════════════════════════════════════════════════════════════════\n");
+
+                LHBlock<T> primaryBlock = this.readPrimaryBlock(i);
+                sb.append("Adresa: ").append(primaryBlock.getAddress()).append(" bytes\n");
+                sb.append("Stav: ");
+                if (primaryBlock.isEmpty()) sb.append("PRÁZDNY");
+                else if (!primaryBlock.hasSpace()) sb.append("PLNÝ");
+                else sb.append("ČIASTOČNE VOĽNÝ");
+                sb.append(" | Záznamy: ").append(primaryBlock.getValidCount())
+                        .append("/").append(primaryBlock.getRecordsPerBlock()).append("\n");
+                sb.append("Overflow pointer: ").append(primaryBlock.getNextOverflow())
+                        .append(" | Overflow záznamov: ").append(primaryBlock.getOverflowRecordCount())
+                        .append(" | Dĺžka reťazca: ").append(primaryBlock.getChainLength()).append("\n\n");
+
+                if (primaryBlock.isEmpty()) {
+                    sb.append(" Žiadne záznamy\n");
+                } else {
+                    int recordNum = 1;
+                    for (T record : primaryBlock.getRecords()) {
+                        if (record != null && record.getKey() != null && !record.getKey().trim().isEmpty()) {
+                            sb.append(" ").append(recordNum).append(". ").append(record).append("\n");
+                            recordNum++;
+                        }
                     }
                 }
-            }
 
-            // overflow chain
-            int overflowPointer = primaryBlock.getNextOverflow();
-            if (overflowPointer != -1) {
-                sb.append("\n ┌─ OVERFLOW REŤAZEC ──────────────────────────────────────────────\n");
-                displayOverflowChain(sb, overflowPointer, 1);
-                sb.append(" └──────────────────────────────────────────────────────────────────\n");
+                // overflow chain
+                int overflowPointer = primaryBlock.getNextOverflow();
+                if (overflowPointer != -1) {
+                    sb.append("\n ┌─ OVERFLOW REŤAZEC ──────────────────────────────────────────────\n");
+                    displayOverflowChain(sb, overflowPointer, 1);
+                    sb.append(" └──────────────────────────────────────────────────────────────────\n");
+                }
+                sb.append("\n");
             }
-            sb.append("\n");
+            return sb.toString();
+        } finally {
+            this.structureLock.readLock().unlock();
         }
-        return sb.toString();
     }
 
     private void displayOverflowChain(StringBuilder sb, int overflowBlockIndex, int level) {
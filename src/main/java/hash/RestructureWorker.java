@@ -0,0 +1,119 @@
+package hash;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Background thread that restructures a linear hashing file
+ * Splits and merges are done one at a time, each under its own short hold of the structure lock,
+ * so foreground operations run between the steps instead of waiting for the whole rehash
+ */
+class RestructureWorker implements Runnable {
+    private final LinearHashing<?> target;
+    private final Thread thread;
+    private final Queue<Integer> compactions = new ConcurrentLinkedQueue<>();
+    private final Set<Integer> queuedBuckets = ConcurrentHashMap.newKeySet();
+
+    private boolean pending = false; // guarded by this
+    private boolean stopped = false; // guarded by this
+    private volatile IOException failure = null;
+
+    RestructureWorker(LinearHashing<?> target, String name) {
+        this.target = target;
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        this.thread.start();
+    }
+
+    /**
+     * Wakes the worker up to split or merge until the load factor is within the thresholds
+     */
+    synchronized void requestRestructure() {
+        this.pending = true;
+        this.notifyAll();
+    }
+
+    /**
+     * Queues a bucket whose overflow chain may be compacted, a bucket is queued at most once
+     */
+    void requestCompaction(int bucket) {
+        if (this.queuedBuckets.add(bucket)) {
+            this.compactions.add(bucket);
+            this.requestRestructure();
+        }
+    }
+
+    /**
+     * Stops the worker and waits until the step in progress is finished
+     */
+    void stop() {
+        synchronized (this) {
+            this.stopped = true;
+            this.notifyAll();
+        }
+        if (Thread.currentThread() == this.thread) {
+            return;
+        }
+
+        boolean interrupted = false;
+        while (this.thread.isAlive()) {
+            try {
+                this.thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return error that stopped the worker or null
+     */
+    IOException getFailure() {
+        return this.failure;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (this.awaitWork()) {
+                Integer bucket;
+                while (!this.isStopped() && (bucket = this.compactions.poll()) != null) {
+                    this.queuedBuckets.remove(bucket);
+                    this.target.compactBucket(bucket);
+                }
+                while (!this.isStopped() && this.target.restructureStep()) {
+                    Thread.yield();
+                }
+            }
+        } catch (IOException e) {
+            this.failure = e;
+        } catch (RuntimeException e) {
+            this.failure = new IOException("Background restructuring failed", e);
+        }
+    }
+
+    private synchronized boolean awaitWork() {
+        while (!this.pending && !this.stopped) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                this.stopped = true;
+            }
+        }
+        this.pending = false;
+        return !this.stopped;
+    }
+
+    private synchronized boolean isStopped() {
+        return this.stopped;
+    }
+}
@@ -0,0 +1,656 @@
+package hash;
+
+import heap.Block;
+import heap.BufferPool;
+import heap.HeapFile;
+import heap.KeyHash;
+import heap.StorageMode;
+import data.Record;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Hashing with separators (Larson and Kajla) - a successful get reads exactly one block
+ * Every key has a probe sequence of buckets and an 8-bit signature for each probe,
+ * every bucket has a separator kept in memory, a key is stored in the first bucket of its probe sequence
+ * whose separator is greater than the key's signature for that probe
+ * A get finds that bucket from the separators alone, so it reads one block and there are no overflow chains
+ * When a bucket overflows, its separator is lowered to the smallest signature that must leave and the records
+ * with signatures at or above it move on to their next probe
+ * Above {@link #MAX_LOAD} the file grows by one bucket as in linear hashing - the bucket at the split pointer
+ * is split with its separator copied to the new bucket, so only its own records move, and below
+ * {@link #MIN_LOAD} the last bucket is merged back into its partner
+ * Only a record that runs out of probes makes the file rebuild with twice the buckets and open separators,
+ * which rewrites the whole file under the structure write lock and stalls every operation meanwhile
+ */
+public class SeparatorHashing<T extends Record<T>> extends HeapFile<T> implements HashIndex<T> {
+    public static final double MAX_LOAD = 0.6; // buckets not yet split this round hold twice the load of the split ones
+    public static final double MIN_LOAD = 0.25;
+    public static final int MAX_PROBES = 64;
+
+    private static final int LOCK_STRIPES = 64;
+    private static final int OPEN_SEPARATOR = 256; // greater than every 8-bit signature
+    private static final long PROBE_SALT = 0x9E3779B97F4A7C15L;
+
+    private int bucketCount;
+    private int baseBuckets; // buckets of round 0, round k has baseBuckets * 2^k buckets
+    private int roundBuckets; // buckets at the start of the current round, bucketCount - roundBuckets is the split pointer
+    private short[] separators; // one per bucket, OPEN_SEPARATOR until the bucket first overflows
+    private final int initialBuckets;
+    private final AtomicInteger totalRecords = new AtomicInteger();
+    private HashFunction hashFunction;
+    private long expansions = 0; // since the file was opened, changed under the structure write lock
+    private long contractions = 0;
+    private long rebuilds = 0;
+
+    private final String metadataFile;
+    private volatile boolean metadataChanged = false;
+
+    // rebuilds and inserts that move records between buckets take the write lock,
+    // other bucket operations the read lock and their bucket stripe
+    private final ReentrantReadWriteLock structureLock = new ReentrantReadWriteLock();
+    private final StripedLock bucketLocks = new StripedLock(LOCK_STRIPES);
+
+    public SeparatorHashing(String filename, int blockSize, T recordTemplate, int initialBuckets,
+                            BufferPool bufferPool, StorageMode storageMode) throws IOException {
+        this(filename, blockSize, recordTemplate, initialBuckets, bufferPool, storageMode, HashFunction.DEFAULT);
+    }
+
+    /**
+     * Opens the hash file, the hash function is used for new files,
+     * an existing file keeps the function stored in its metadata
+     */
+    public SeparatorHashing(String filename, int blockSize, T recordTemplate, int initialBuckets,
+                            BufferPool bufferPool, StorageMode storageMode, HashFunction hashFunction) throws IOException {
+        if (initialBuckets < 1) {
+            throw new IllegalArgumentException("Initial number of buckets must be positive: " + initialBuckets);
+        }
+        super(filename, blockSize, recordTemplate, bufferPool, storageMode);
+        this.initialBuckets = initialBuckets;
+        this.hashFunction = hashFunction;
+        this.metadataFile = filename + ".meta";
+
+        if (!this.loadMetadata()) {
+            this.baseBuckets = initialBuckets;
+            this.setBucketCount(initialBuckets);
+            this.separators = new short[initialBuckets];
+            Arrays.fill(this.separators, (short) OPEN_SEPARATOR);
+            for (int i = 0; i < initialBuckets; i++) {
+                this.writeBlock(i, this.createBlock(i));
+            }
+            this.metadataChanged = true;
+        }
+    }
+
+    /**
+     * Loads bucket count, record count, hash function, the separator table and the base bucket count
+     * Files without the base bucket count were only doubled, the odd part of their bucket count is the base
+     * @return false for a new file
+     */
+    private boolean loadMetadata() throws IOException {
+        File metadata = new File(this.metadataFile);
+        if (!metadata.exists()) {
+            if (this.getFile().length() != 0) {
+                throw new IOException("Missing metadata of separator hash file: " + this.metadataFile);
+            }
+            return false;
+        }
+
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(metadata)))) {
+            int buckets = dis.readInt();
+            this.totalRecords.set(dis.readInt());
+            this.hashFunction = HashFunction.fromId(dis.readInt());
+            this.separators = new short[buckets];
+            for (int i = 0; i < buckets; i++) {
+                this.separators[i] = dis.readShort();
+            }
+            this.baseBuckets = dis.available() >= Integer.BYTES ? dis.readInt()
+                    : buckets >> Integer.numberOfTrailingZeros(buckets);
+            this.setBucketCount(buckets);
+        }
+        return true;
+    }
+
+    private void saveMetadata() throws IOException {
+        if (!this.metadataChanged) return;
+
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.metadataFile)))) {
+            dos.writeInt(this.bucketCount);
+            dos.writeInt(this.totalRecords.get());
+            dos.writeInt(this.hashFunction.getId());
+            for (int i = 0; i < this.bucketCount; i++) {
+                dos.writeShort(this.separators[i]);
+            }
+            dos.writeInt(this.baseBuckets);
+        }
+        this.metadataChanged = false;
+    }
+
+    /**
+     * Sets the number of buckets and the round it falls into, the largest baseBuckets * 2^k not above it
+     */
+    private void setBucketCount(int buckets) {
+        int round = this.baseBuckets;
+        while (2L * round <= buckets) {
+            round *= 2;
+        }
+        this.bucketCount = buckets;
+        this.roundBuckets = round;
+    }
+
+    public HashFunction getHashFunction() {
+        return this.hashFunction;
+    }
+
+    /**
+     * Probe i of a hash, the low bits select the bucket and the top 8 bits are the signature
+     */
+    private static long probe(long hash, int i) {
+        return KeyHash.mix64(hash + (i + 1) * PROBE_SALT);
+    }
+
+    /**
+     * Bucket of a probe by linear hashing, buckets before the split pointer use the next round
+     */
+    private int bucketOf(long probe) {
+        int bucket = (int) Long.remainderUnsigned(probe, this.roundBuckets);
+        if (bucket < this.bucketCount - this.roundBuckets) {
+            bucket = (int) Long.remainderUnsigned(probe, 2L * this.roundBuckets);
+        }
+        return bucket;
+    }
+
+    private static int signatureOf(long probe) {
+        return (int) (probe >>> 56);
+    }
+
+    /**
+     * @return index of the first probe whose signature is below the separator of its bucket, -1 if there is none
+     */
+    private int locate(long hash) {
+        for (int i = 0; i < MAX_PROBES; i++) {
+            long probe = probe(hash, i);
+            if (signatureOf(probe) < this.separators[this.bucketOf(probe)]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Bucket the key is stored in, -1 if no bucket may hold it
+     */
+    public int getTargetBlock(String key) {
+        long hash = this.hashFunction.hash(key);
+        int i = this.locate(hash);
+        return i == -1 ? -1 : this.bucketOf(probe(hash, i));
+    }
+
+    /**
+     * Operation on the bucket of a key, runs while the bucket stripe is locked
+     * The bucket is -1 when the key cannot be in the file
+     */
+    @FunctionalInterface
+    private interface BucketOperation<R> {
+        R apply(int blockIndex) throws IOException;
+    }
+
+    /**
+     * Runs the operation on the bucket of the key
+     * The structure read lock keeps the separators stable, the stripe lock serializes writers of the same bucket
+     */
+    private <R> R inBucket(String key, boolean write, BucketOperation<R> operation) throws IOException {
+        this.structureLock.readLock().lock();
+        try {
+            int blockIndex = this.getTargetBlock(key);
+            if (blockIndex == -1) {
+                return operation.apply(-1);
+            }
+            ReentrantReadWriteLock stripe = this.bucketLocks.get(this.bucketLocks.stripeOf(blockIndex));
+            Lock lock = write ? stripe.writeLock() : stripe.readLock();
+
+            lock.lock();
+            try {
+                return operation.apply(blockIndex);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            this.structureLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts a new record
+     * A record that fits in its bucket is written under the bucket lock, otherwise records are moved
+     * between buckets under the structure lock
+     */
+    @Override
+    public void insert(T record, String key) throws IOException {
+        boolean inserted = this.inBucket(key, true, blockIndex -> {
+            if (blockIndex == -1) {
+                return false;
+            }
+            Block<T> bucket = this.readBlock(blockIndex);
+            if (bucket.addRecord(record) == -1) {
+                return false;
+            }
+            this.writeBlock(blockIndex, bucket);
+            this.totalRecords.incrementAndGet();
+            this.metadataChanged = true;
+            return true;
+        });
+        if (inserted && this.getLoadFactor() <= MAX_LOAD) {
+            return;
+        }
+
+        this.structureLock.writeLock().lock();
+        try {
+            if (!inserted) {
+                List<T> homeless = this.place(record);
+                if (!homeless.isEmpty()) {
+                    this.rebuild(this.bucketCount * 2, homeless);
+                    this.rebuilds++;
+                }
+                this.totalRecords.incrementAndGet();
+                this.metadataChanged = true;
+            }
+
+            while (this.getLoadFactor() > MAX_LOAD) {
+                this.split();
+                this.expansions++;
+            }
+        } finally {
+            this.structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stores the record and every record it displaces, runs under the structure write lock
+     * @return records that ran out of probes, they are no longer in the file
+     */
+    private List<T> place(T record) throws IOException {
+        List<T> homeless = new ArrayList<>();
+        Deque<T> pending = new ArrayDeque<>();
+        pending.add(record);
+
+        while (!pending.isEmpty()) {
+            T current = pending.poll();
+            long hash = this.hashFunction.hash(current.getKey());
+            int i = this.locate(hash);
+            if (i == -1) {
+                homeless.add(current);
+                continue;
+            }
+
+            int blockIndex = this.bucketOf(probe(hash, i));
+            Block<T> bucket = this.readBlock(blockIndex);
+            if (bucket.addRecord(current) != -1) {
+                this.writeBlock(blockIndex, bucket);
+                continue;
+            }
+
+            // the bucket overflows - lower its separator until the remaining records fit
+            List<T> records = new ArrayList<>(bucket.getRecords());
+            records.add(current);
+            int[] signatures = new int[records.size()];
+            Integer[] order = new Integer[records.size()];
+            for (int r = 0; r < records.size(); r++) {
+                long recordHash = this.hashFunction.hash(records.get(r).getKey());
+                signatures[r] = signatureOf(probe(recordHash, this.locate(recordHash)));
+                order[r] = r;
+            }
+            Arrays.sort(order, Comparator.comparingInt(r -> signatures[r]));
+
+            int separator = signatures[order[bucket.getRecordsPerBlock()]];
+            this.separators[blockIndex] = (short) separator;
+            this.metadataChanged = true;
+
+            bucket.clearRecords();
+            for (int r = 0; r < records.size(); r++) {
+                if (signatures[r] < separator) {
+                    bucket.addRecord(records.get(r));
+                } else {
+                    pending.add(records.get(r));
+                }
+            }
+            this.writeBlock(blockIndex, bucket);
+        }
+        return homeless;
+    }
+
+    /**
+     * Splits the bucket at the split pointer into itself and a new bucket at the end of the file
+     * A probe of the bucket now addresses one of the two, both keep its separator, so every key still skips
+     * or stops at the same probe and only the records of the split bucket may move to the new one
+     */
+    private void split() throws IOException {
+        int bucket = this.bucketCount - this.roundBuckets;
+        int newBucket = this.bucketCount;
+        List<T> records = this.readBlock(bucket).getRecords();
+
+        if (this.separators.length == newBucket) {
+            this.separators = Arrays.copyOf(this.separators, newBucket * 2);
+        }
+        this.separators[newBucket] = this.separators[bucket];
+        this.setBucketCount(newBucket + 1);
+        this.metadataChanged = true;
+
+        Block<T> kept = this.createBlock(bucket);
+        Block<T> moved = this.createBlock(newBucket);
+        for (T record : records) {
+            int target = this.getTargetBlock(record.getKey());
+            if (target != bucket && target != newBucket) {
+                throw new IllegalStateException("Record " + record.getKey() + " addressed to bucket " + target
+                        + " outside of the split bucket " + bucket + ".");
+            }
+            (target == bucket ? kept : moved).addRecord(record);
+        }
+        this.writeBlock(bucket, kept);
+        this.writeBlock(newBucket, moved);
+        this.claimBlock(newBucket); // a block cut off by an earlier merge is marked empty
+    }
+
+    /**
+     * Merges the last bucket back into the bucket it was split from, the reverse of {@link #split}
+     * The merged bucket gets the lower separator of the two, so keys that skipped either bucket still skip it,
+     * records of both buckets are placed again and those at or above the separator move on to their next probe
+     * @return records that ran out of probes, they are no longer in the file
+     */
+    private List<T> merge() throws IOException {
+        int last = this.bucketCount - 1;
+        List<T> records = new ArrayList<>(this.readBlock(last).getRecords());
+        short lastSeparator = this.separators[last];
+
+        this.setBucketCount(last);
+        int bucket = last - this.roundBuckets;
+        records.addAll(this.readBlock(bucket).getRecords());
+        this.separators[bucket] = (short) Math.min(this.separators[bucket], lastSeparator);
+        this.separators[last] = (short) OPEN_SEPARATOR;
+        this.metadataChanged = true;
+
+        this.writeBlock(bucket, this.createBlock(bucket));
+        this.truncate(last);
+
+        List<T> homeless = new ArrayList<>();
+        for (T record : records) {
+            homeless.addAll(this.place(record));
+        }
+        return homeless;
+    }
+
+    /**
+     * Reads all records, resizes the file to the given number of buckets with open separators and stores
+     * the records again, grows further if a record still runs out of probes
+     * Runs under the structure write lock, all records are held in memory - only records that ran out
+     * of probes lead here, growing and shrinking go bucket by bucket
+     */
+    private void rebuild(int buckets, List<T> extraRecords) throws IOException {
+        List<T> records = new ArrayList<>(extraRecords);
+        for (int i = 0; i < this.bucketCount; i++) {
+            records.addAll(this.readBlock(i).getRecords());
+        }
+
+        while (true) {
+            this.setBucketCount(buckets);
+            this.separators = new short[buckets];
+            Arrays.fill(this.separators, (short) OPEN_SEPARATOR);
+            for (int i = 0; i < buckets; i++) {
+                this.writeBlock(i, this.createBlock(i));
+                this.claimBlock(i);
+            }
+            this.metadataChanged = true;
+
+            List<T> homeless = new ArrayList<>();
+            for (T record : records) {
+                homeless.addAll(this.place(record));
+            }
+            if (homeless.isEmpty()) {
+                return;
+            }
+
+            records.clear();
+            records.addAll(homeless);
+            for (int i = 0; i < this.bucketCount; i++) {
+                records.addAll(this.readBlock(i).getRecords());
+            }
+            buckets *= 2;
+        }
+    }
+
+    /**
+     * Cuts the file to the given number of blocks
+     */
+    private void truncate(int blocks) throws IOException {
+        for (int i = blocks; i < this.getBlockCount(); i++) {
+            Block<T> empty = this.createBlock(i);
+            this.writeBlock(i, empty);
+            this.updateBlockLists(i, empty);
+        }
+        this.removeEmptyBlocksFromEnd();
+    }
+
+    /**
+     * Retrieves a record by key with exactly one block read, or none when no bucket may hold the key
+     */
+    @Override
+    public T get(String key) throws IOException {
+        return this.inBucket(key, false, blockIndex -> {
+            if (blockIndex == -1) {
+                return null;
+            }
+            return this.readView(blockIndex, view -> view.find(key));
+        });
+    }
+
+    /**
+     * Updates an existing record by key
+     * Returns true if record was found and updated, false otherwise
+     */
+    @Override
+    public boolean update(T updated) throws IOException {
+        if (updated == null) return false;
+
+        String key = updated.getKey();
+        if (key == null || key.isBlank()) {
+            return false;
+        }
+
+        return this.inBucket(key, true, blockIndex -> {
+            if (blockIndex == -1) {
+                return false;
+            }
+            Block<T> bucket = this.readBlock(blockIndex);
+            if (!bucket.deleteRecord(updated)) {
+                return false;
+            }
+            bucket.addRecord(updated);
+            this.writeBlock(blockIndex, bucket);
+            return true;
+        });
+    }
+
+    /**
+     * Deletes a record by key, separators are not raised again until the next rebuild
+     * Below {@link #MIN_LOAD} the last buckets are merged back one by one
+     */
+    @Override
+    public boolean delete(String key) throws IOException {
+        boolean deleted = this.inBucket(key, true, blockIndex -> {
+            if (blockIndex == -1) {
+                return false;
+            }
+            Block<T> bucket = this.readBlock(blockIndex);
+            if (!bucket.deleteRecord(this.createPattern(key))) {
+                return false;
+            }
+            this.writeBlock(blockIndex, bucket);
+            this.totalRecords.decrementAndGet();
+            this.metadataChanged = true;
+            return true;
+        });
+
+        if (deleted && this.needsContraction()) {
+            this.structureLock.writeLock().lock();
+            try {
+                while (this.needsContraction()) {
+                    List<T> homeless = this.merge();
+                    this.contractions++;
+                    if (!homeless.isEmpty()) {
+                        this.rebuild(this.bucketCount, homeless);
+                        this.rebuilds++;
+                    }
+                }
+            } finally {
+                this.structureLock.writeLock().unlock();
+            }
+        }
+        return deleted;
+    }
+
+    private boolean needsContraction() {
+        return this.bucketCount > Math.max(this.initialBuckets, this.baseBuckets)
+                && this.getLoadFactor() < MIN_LOAD;
+    }
+
+    private T createPattern(String key) {
+        try {
+            T pattern = this.getRecordTemplate().createClass();
+            pattern.setKey(key);
+            return pattern;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to create search pattern", e);
+        }
+    }
+
+    @Override
+    public int getTotalRecords() {
+        return this.totalRecords.get();
+    }
+
+    private double getLoadFactor() {
+        return (double) this.totalRecords.get() / ((long) this.bucketCount * this.getRecordsPerBlock());
+    }
+
+    /**
+     * Gets statistics about the hash file
+     */
+    @Override
+    public SeparatorHashingStats getStats() throws IOException {
+        this.structureLock.writeLock().lock();
+        try {
+            SeparatorHashingStats stats = new SeparatorHashingStats();
+            stats.totalRecords = this.totalRecords.get();
+            stats.totalBlocks = this.bucketCount;
+            stats.loadFactor = this.getLoadFactor();
+            stats.splits = this.expansions;
+            stats.merges = this.contractions;
+            stats.rebuilds = this.rebuilds;
+            stats.splitPointer = this.bucketCount - this.roundBuckets;
+
+            for (int i = 0; i < this.bucketCount; i++) {
+                if (this.separators[i] < OPEN_SEPARATOR) {
+                    stats.restrictedBuckets++;
+                }
+                if (!this.readBlock(i).isEmpty()) {
+                    stats.nonEmptyBlocks++;
+                }
+            }
+            return stats;
+        } finally {
+            this.structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Statistics container class for Separator Hashing
+     */
+    public static class SeparatorHashingStats extends HashIndexStats {
+        public int restrictedBuckets; // buckets whose separator was lowered
+        public int splitPointer;
+        public long rebuilds; // whole file rebuilds after a record ran out of probes
+    }
+
+    /**
+     * Durability checkpoint of the buckets and the separator table
+     */
+    @Override
+    public void checkpoint() throws IOException {
+        this.structureLock.writeLock().lock();
+        try {
+            this.saveMetadata();
+            this.flush();
+            this.getFile().force();
+        } finally {
+            this.structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the hash file
+     */
+    @Override
+    public void close() throws IOException {
+        this.structureLock.writeLock().lock();
+        try {
+            this.saveMetadata();
+            this.releaseBufferPool();
+            super.getFile().close();
+        } finally {
+            this.structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Displays all buckets with their separators
+     */
+    @Override
+    public String displayAllBlocks(String title) throws IOException {
+        this.structureLock.writeLock().lock();
+        try {
+            StringBuilder sb = new StringBuilder();
+            SeparatorHashingStats stats = this.getStats();
+
+            if (title != null && !title.isBlank()) {
+                sb.append(title).append("\n\n");
+            }
+            sb.append("ŠTATISTIKY:\n");
+            sb.append("• Celkový počet záznamov: ").append(stats.totalRecords).append("\n");
+            sb.append("• Bloky (buckety): ").append(stats.totalBlocks).append("\n");
+            sb.append("• Split pointer: ").append(stats.splitPointer).append("\n");
+            sb.append("• Buckety so zníženým separátorom: ").append(stats.restrictedBuckets).append("\n");
+            sb.append("• Prestavby súboru: ").append(stats.rebuilds).append("\n");
+            sb.append("• Hustota: ").append(String.format("%.2f", stats.loadFactor)).append("\n\n");
+
+            for (int i = 0; i < this.bucketCount; i++) {
+                sb.append("════════════════════════════════════════════════════════════════════════════════\n");
+                sb.append("BUCKET ").append(i).append(" | Separátor: ").append(this.separators[i]).append("\n");
+                sb.append("════════════════════════════════════════════════════════════════════════════════\n");
+
+                Block<T> bucket = this.readBlock(i);
+                sb.append("Záznamy: ").append(bucket.getValidCount()).append("/")
+                        .append(bucket.getRecordsPerBlock()).append("\n\n");
+                if (bucket.isEmpty()) {
+                    sb.append(" Žiadne záznamy\n");
+                }
+                int recordNum = 1;
+                for (T record : bucket.getRecords()) {
+                    sb.append(" ").append(recordNum++).append(". ").append(record).append("\n");
+                }
+                sb.append("\n");
+            }
+            return sb.toString();
+        } finally {
+            this.structureLock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package hash;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * When a linear hashing file splits and merges, stored in the metadata of the hash file
+ * Splits are triggered by the load factor and optionally by an overflow chain longer than a limit,
+ * merges by the load factor, held back by a hysteresis margin so that a merge cannot bring
+ * the file straight back to a split
+ */
+public final class SplitPolicy {
+    /**
+     * Thresholds used before the policy was configurable
+     */
+    public static final SplitPolicy DEFAULT = new SplitPolicy(0.8, 0.4, false, 0, 0.0);
+
+    private final double maxLoad;
+    private final double minLoad;
+    private final boolean primaryLoad;
+    private final int maxChainLength;
+    private final double hysteresis;
+
+    /**
+     * @param maxLoad        load factor above which the file splits
+     * @param minLoad        load factor below which the file merges
+     * @param primaryLoad    load factor counts only the capacity of primary blocks, otherwise overflow blocks too
+     * @param maxChainLength an insert that leaves a chain longer than this requests a split, 0 disables it
+     * @param hysteresis     a merge must leave the load factor at least this far below maxLoad,
+     *                       a chain split must leave it at least this far above minLoad
+     */
+    public SplitPolicy(double maxLoad, double minLoad, boolean primaryLoad, int maxChainLength, double hysteresis) {
+        if (!(minLoad > 0 && minLoad < maxLoad)) {
+            throw new IllegalArgumentException("Load thresholds must satisfy 0 < min < max: min=" + minLoad
+                    + ", max=" + maxLoad);
+        }
+        if (maxChainLength < 0) {
+            throw new IllegalArgumentException("Chain length limit must not be negative: " + maxChainLength);
+        }
+        if (hysteresis < 0 || hysteresis >= maxLoad - minLoad) {
+            throw new IllegalArgumentException("Hysteresis must be in [0, max - min): " + hysteresis);
+        }
+        this.maxLoad = maxLoad;
+        this.minLoad = minLoad;
+        this.primaryLoad = primaryLoad;
+        this.maxChainLength = maxChainLength;
+        this.hysteresis = hysteresis;
+    }
+
+    public double getMaxLoad() {
+        return this.maxLoad;
+    }
+
+    public double getMinLoad() {
+        return this.minLoad;
+    }
+
+    public boolean isPrimaryLoad() {
+        return this.primaryLoad;
+    }
+
+    public int getMaxChainLength() {
+        return this.maxChainLength;
+    }
+
+    public double getHysteresis() {
+        return this.hysteresis;
+    }
+
+    /**
+     * @return true if a chain of this length requests a split
+     */
+    public boolean chainTooLong(int chainLength) {
+        return this.maxChainLength > 0 && chainLength > this.maxChainLength;
+    }
+
+    void write(DataOutputStream dos) throws IOException {
+        dos.writeDouble(this.maxLoad);
+        dos.writeDouble(this.minLoad);
+        dos.writeBoolean(this.primaryLoad);
+        dos.writeInt(this.maxChainLength);
+        dos.writeDouble(this.hysteresis);
+    }
+
+    static SplitPolicy read(DataInputStream dis) throws IOException {
+        double maxLoad = dis.readDouble();
+        double minLoad = dis.readDouble();
+        boolean primaryLoad = dis.readBoolean();
+        int maxChainLength = dis.readInt();
+        double hysteresis = dis.readDouble();
+        return new SplitPolicy(maxLoad, minLoad, primaryLoad, maxChainLength, hysteresis);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SplitPolicy other)) return false;
+        return this.maxLoad == other.maxLoad && this.minLoad == other.minLoad && this.primaryLoad == other.primaryLoad
+                && this.maxChainLength == other.maxChainLength && this.hysteresis == other.hysteresis;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = Double.hashCode(this.maxLoad);
+        h = 31 * h + Double.hashCode(this.minLoad);
+        h = 31 * h + Boolean.hashCode(this.primaryLoad);
+        h = 31 * h + this.maxChainLength;
+        return 31 * h + Double.hashCode(this.hysteresis);
+    }
+
+    @Override
+    public String toString() {
+        return "SplitPolicy{max=" + this.maxLoad + ", min=" + this.minLoad + ", primaryLoad=" + this.primaryLoad
+                + ", maxChain=" + this.maxChainLength + ", hysteresis=" + this.hysteresis + "}";
+    }
+}
@@ -0,0 +1,48 @@
+package hash;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Fixed set of read-write locks, bucket indices and keys are mapped to stripes by hash
+ * Independent buckets rarely share a stripe, so operations on them run in parallel
+ */
+public class StripedLock {
+    private final ReentrantReadWriteLock[] stripes;
+    private final int mask;
+
+    /**
+     * @param count number of stripes, rounded up to a power of two
+     */
+    public StripedLock(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Stripe count must be positive: " + count);
+        }
+        int size = Integer.highestOneBit(count);
+        if (size < count) size <<= 1;
+
+        this.stripes = new ReentrantReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantReadWriteLock();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Stripe number of a bucket, consecutive buckets fall into different stripes
+     */
+    public int stripeOf(int index) {
+        return index & this.mask;
+    }
+
+    /**
+     * Stripe number of a key
+     */
+    public int stripeOf(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & this.mask;
+    }
+
+    public ReentrantReadWriteLock get(int stripe) {
+        return this.stripes[stripe];
+    }
+}
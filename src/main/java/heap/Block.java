@@ -8,24 +8,57 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Block layout: [validCount][subclass header fields][slot bitmap][slot fingerprints][record slots]
+ * Bit i of the slot bitmap is set when slot i holds a valid record
+ * Fingerprints (one key hash byte per slot) are stored only by blocks created with them
+ */
 public class Block<T extends data.Record<T>> {
+    public static final int FIXED_HEADER_SIZE = 4;
+
     private final int address;
     private final int blockSize;
     private final T recordTemplate;
+    private final int fixedHeaderSize; // header bytes before the slot bitmap
     private final int recordsPerBlock; // maximum number of records that fit in the block
     protected T[] records;
+    protected final long[] occupied; // slot bitmap
+    protected final byte[] fingerprints; // key fingerprint of each slot, null when the block has none
     protected int validCount;
 
-    @SuppressWarnings("unchecked")
     public Block(int index, int blockSize, T recordTemplate) {
+        this(index, blockSize, recordTemplate, FIXED_HEADER_SIZE, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Block(int index, int blockSize, T recordTemplate, int fixedHeaderSize, boolean fingerprinted) {
         this.address = index;
         this.blockSize = blockSize;
         this.recordTemplate = recordTemplate;
-        this.recordsPerBlock = blockSize / recordTemplate.getSize();
+        this.fixedHeaderSize = fixedHeaderSize;
+        this.recordsPerBlock = slotsFitting(blockSize, fixedHeaderSize,
+                recordTemplate.getSize() + (fingerprinted ? 1 : 0));
         this.records = (T[]) new Record[this.recordsPerBlock];
+        this.occupied = new long[(this.recordsPerBlock + 63) >>> 6];
+        this.fingerprints = fingerprinted ? new byte[this.recordsPerBlock] : null;
         this.validCount = 0;
     }
 
+    /**
+     * Largest slot count whose slots, bitmap and header fit in the block
+     */
+    private static int slotsFitting(int blockSize, int fixedHeaderSize, int slotSize) {
+        int slots = Math.max(0, (blockSize - fixedHeaderSize) / slotSize);
+        while (slots > 0 && fixedHeaderSize + bitmapBytes(slots) + slots * slotSize > blockSize) {
+            slots--;
+        }
+        return slots;
+    }
+
+    private static int bitmapBytes(int slots) {
+        return (slots + 7) >>> 3;
+    }
+
     public int getAddress() { return this.address; }
 
     public int getRecordsPerBlock() {
@@ -43,6 +76,34 @@ public class Block<T extends data.Record<T>> {
 
     public T getRecordTemplate() { return recordTemplate; }
 
+    /**
+     * Offset of the slot bitmap in the serialized block
+     */
+    public int getBitmapOffset() { return this.fixedHeaderSize; }
+
+    /**
+     * Offset of the slot fingerprints in the serialized block, -1 when the block has none
+     */
+    public int getFingerprintOffset() {
+        return this.fingerprints == null ? -1 : this.fixedHeaderSize + bitmapBytes(this.recordsPerBlock);
+    }
+
+    /**
+     * Size of the serialized header that precedes the record slots
+     */
+    public int getHeaderSize() {
+        int fingerprintBytes = this.fingerprints == null ? 0 : this.recordsPerBlock;
+        return this.fixedHeaderSize + bitmapBytes(this.recordsPerBlock) + fingerprintBytes;
+    }
+
+    /**
+     * Smallest block size that holds one record of the template
+     */
+    public int getMinimumBlockSize() {
+        int fingerprintBytes = this.fingerprints == null ? 0 : 1;
+        return this.fixedHeaderSize + bitmapBytes(1) + fingerprintBytes + this.recordTemplate.getSize();
+    }
+
     /**
      * Checks if there is space for at least one more record
      */
@@ -57,6 +118,45 @@ public class Block<T extends data.Record<T>> {
         return this.validCount == 0;
     }
 
+    /**
+     * Checks if the slot holds a valid record
+     */
+    public boolean isOccupied(int slot) {
+        return (this.occupied[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    /**
+     * Returns the next occupied slot at or after from, or -1
+     */
+    protected int nextOccupied(int from) {
+        int word = from >>> 6;
+        if (word >= this.occupied.length) return -1;
+
+        long bits = this.occupied[word] & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                int slot = (word << 6) + Long.numberOfTrailingZeros(bits);
+                return slot < this.recordsPerBlock ? slot : -1;
+            }
+            if (++word >= this.occupied.length) return -1;
+            bits = this.occupied[word];
+        }
+    }
+
+    /**
+     * Returns the first free slot, or -1
+     */
+    private int firstFree() {
+        for (int word = 0; word < this.occupied.length; word++) {
+            long free = ~this.occupied[word];
+            if (free != 0) {
+                int slot = (word << 6) + Long.numberOfTrailingZeros(free);
+                return slot < this.recordsPerBlock ? slot : -1;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Adds a record to the first available slot in the block
      * @return index where record was added, or -1 if no space is available
@@ -66,15 +166,18 @@ public class Block<T extends data.Record<T>> {
             return -1;
         }
 
-        for (int i = 0; i < this.recordsPerBlock; i++) {
-            if (this.records[i] == null || isEmptyRecord(this.records[i])) {
-                this.records[i] = record;
-                this.validCount++;
-                return i;
-            }
+        int slot = this.firstFree();
+        if (slot == -1) {
+            return -1;
         }
 
-        return -1;
+        this.records[slot] = record;
+        this.occupied[slot >>> 6] |= 1L << slot;
+        if (this.fingerprints != null) {
+            this.fingerprints[slot] = fingerprintOf(record);
+        }
+        this.validCount++;
+        return slot;
     }
 
     /**
@@ -82,17 +185,22 @@ public class Block<T extends data.Record<T>> {
      * @return true if record was found and deleted, false otherwise
      */
     public boolean deleteRecord(T record) {
-        for (int i = 0; i < this.recordsPerBlock; i++) {
-            if (records[i] != null && records[i].getKey() != null &&
-                    records[i].getKey().equals(record.getKey())) {
-
-                this.records[i] = null;
-                this.validCount--;
-                return true;
-            }
+        int slot = this.findSlot(record.getKey());
+        if (slot == -1) {
+            return false;
         }
 
-        return false;
+        this.removeSlot(slot);
+        return true;
+    }
+
+    /**
+     * Empties the slot
+     */
+    protected void removeSlot(int slot) {
+        this.records[slot] = null;
+        this.occupied[slot >>> 6] &= ~(1L << slot);
+        this.validCount--;
     }
 
     /**
@@ -100,27 +208,36 @@ public class Block<T extends data.Record<T>> {
      * @return found record or null if record was not found
      */
     public T findRecord(T record) {
-        for (int i = 0; i < this.recordsPerBlock; i++) {
-            if (this.records[i] != null && this.records[i].getKey() != null &&
-                    this.records[i].getKey().equals(record.getKey())) {
-                return this.records[i];
+        int slot = this.findSlot(record.getKey());
+        return slot == -1 ? null : this.records[slot];
+    }
+
+    /**
+     * Finds the slot of the record with the given key
+     * @return slot index or -1
+     */
+    protected int findSlot(String key) {
+        if (key == null) return -1;
+
+        byte fingerprint = this.fingerprints != null ? KeyHash.fingerprint(key) : 0;
+        for (int i = this.nextOccupied(0); i != -1; i = this.nextOccupied(i + 1)) {
+            if (this.fingerprints != null && this.fingerprints[i] != fingerprint) {
+                continue;
+            }
+            if (key.equals(this.records[i].getKey())) {
+                return i;
             }
         }
-
-        return null;
+        return -1;
     }
 
     /**
      * Returns a list of all valid records in the block
      */
     public List<T> getRecords() {
-        List<T> result = new ArrayList<>();
-        if (records != null) {
-            for (T record : records) {
-                if (record != null && !isEmptyRecord(record)) {
-                    result.add(record);
-                }
-            }
+        List<T> result = new ArrayList<>(this.validCount);
+        for (int i = this.nextOccupied(0); i != -1; i = this.nextOccupied(i + 1)) {
+            result.add(this.records[i]);
         }
         return result;
     }
@@ -129,6 +246,10 @@ public class Block<T extends data.Record<T>> {
         if (records != null) {
             Arrays.fill(records, null);
         }
+        Arrays.fill(this.occupied, 0L);
+        if (this.fingerprints != null) {
+            Arrays.fill(this.fingerprints, (byte) 0);
+        }
         validCount = 0;
     }
 
@@ -137,29 +258,24 @@ public class Block<T extends data.Record<T>> {
      */
     public byte[] getBytes() {
         int recSize = this.recordTemplate.getSize();
-        ByteBuffer buffer = ByteBuffer.allocate(4 + recSize * this.recordsPerBlock);
+        ByteBuffer buffer = ByteBuffer.allocate(this.getHeaderSize() + recSize * this.recordsPerBlock);
 
         buffer.putInt(this.validCount);
+        this.writeHeaderFields(buffer);
 
-        for (int i = 0; i < this.recordsPerBlock; i++) {
-            if (this.records[i] != null) {
-                byte[] rb = this.records[i].getBytes();
-                if (rb.length != recSize) {
-                    byte[] tmp = new byte[recSize];
-                    System.arraycopy(rb, 0, tmp, 0, Math.min(rb.length, recSize));
-
-                    for (int j = rb.length; j < recSize; j++) {
-                        tmp[j] = (byte) ' ';
-                    }
-                    buffer.put(tmp);
-                } else {
-                    buffer.put(rb);
-                }
-            } else {
-                for (int k = 0; k < recSize; k++) {
-                    buffer.put((byte) ' ');
-                }
-            }
+        byte[] bitmap = new byte[bitmapBytes(this.recordsPerBlock)];
+        for (int i = this.nextOccupied(0); i != -1; i = this.nextOccupied(i + 1)) {
+            bitmap[i >>> 3] |= (byte) (1 << (i & 7));
+        }
+        buffer.put(bitmap);
+        if (this.fingerprints != null) {
+            buffer.put(this.fingerprints);
+        }
+
+        for (int i = this.nextOccupied(0); i != -1; i = this.nextOccupied(i + 1)) {
+            buffer.position(this.getHeaderSize() + i * recSize);
+            byte[] rb = this.records[i].getBytes();
+            buffer.put(rb, 0, Math.min(rb.length, recSize));
         }
 
         return buffer.array();
@@ -167,56 +283,61 @@ public class Block<T extends data.Record<T>> {
 
     /**
      * Deserializes the block from byte array
+     * Only slots marked in the bitmap are decoded
      */
     public void fromBytes(byte[] data) throws IOException {
         if (data == null) throw new IOException("Block data null");
 
         int recSize = this.recordTemplate.getSize();
-        int expectedSize = 4 + recSize * this.recordsPerBlock;
+        int expectedSize = this.getHeaderSize() + recSize * this.recordsPerBlock;
 
         if (data.length < expectedSize) {
-            byte[] padded = new byte[expectedSize];
-            System.arraycopy(data, 0, padded, 0, data.length);
-            for (int i = data.length; i < expectedSize; i++) {
-                padded[i] = (byte) ' ';
-            }
-            data = padded;
+            data = Arrays.copyOf(data, expectedSize);
         }
 
         ByteBuffer buffer = ByteBuffer.wrap(data);
 
-        this.validCount = buffer.getInt();
+        int storedValidCount = buffer.getInt();
+        this.readHeaderFields(buffer, storedValidCount);
 
+        this.clearRecords();
+        int bitmapOffset = this.getBitmapOffset();
         for (int i = 0; i < this.recordsPerBlock; i++) {
-            byte[] recData = new byte[recSize];
-            buffer.get(recData);
+            if ((data[bitmapOffset + (i >>> 3)] & (1 << (i & 7))) == 0) {
+                continue;
+            }
 
-            if (isEmptySlot(recData)) {
-                this.records[i] = null;
-            } else {
+            byte[] recData = new byte[recSize];
+            buffer.get(this.getHeaderSize() + i * recSize, recData);
+            try {
                 T rec = this.recordTemplate.createClass();
                 rec.fromBytes(recData);
                 this.records[i] = rec;
+                if (this.fingerprints != null) {
+                    this.fingerprints[i] = fingerprintOf(rec);
+                }
+            } catch (Exception e) {
+                throw new IOException("Failed to deserialize record", e);
             }
+            this.occupied[i >>> 6] |= 1L << i;
+            this.validCount++;
         }
     }
 
-    protected boolean isEmptyRecord(T record) {
-        if (record == null) return true;
-        try {
-            byte[] recordBytes = record.getBytes();
-            return isEmptySlot(recordBytes);
-        } catch (Exception e) {
-            return false;
-        }
+    private static byte fingerprintOf(Record<?> record) {
+        String key = record.getKey();
+        return key == null ? 0 : KeyHash.fingerprint(key);
     }
 
-    protected boolean isEmptySlot(byte[] data) {
-        for (byte b : data) {
-            if (b != 0 && b != ' ') {
-                return false;
-            }
-        }
-        return true;
+    /**
+     * Writes the subclass header fields that follow the valid count
+     */
+    protected void writeHeaderFields(ByteBuffer buffer) {
+    }
+
+    /**
+     * Reads the subclass header fields that follow the valid count
+     */
+    protected void readHeaderFields(ByteBuffer buffer, int storedValidCount) {
     }
-}
\ No newline at end of file
+}
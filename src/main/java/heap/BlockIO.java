@@ -0,0 +1,23 @@
+package heap;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Low level storage backend of a block file
+ * Positions are absolute byte offsets, reads past the end of the file are padded with blanks
+ */
+public interface BlockIO extends Closeable {
+    void read(long position, byte[] target) throws IOException;
+
+    void write(long position, byte[] source) throws IOException;
+
+    long length() throws IOException;
+
+    void setLength(long length) throws IOException;
+
+    /**
+     * Forces written data to the storage device
+     */
+    void force() throws IOException;
+}
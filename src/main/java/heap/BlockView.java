@@ -0,0 +1,122 @@
+package heap;
+
+import data.Record;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight read-only view over the serialized bytes of a block
+ * Keys are compared directly at slot offsets, a record object is created only for the matching slot
+ */
+public class BlockView<T extends Record<T>> {
+    private final T recordTemplate;
+    private final int bitmapOffset;
+    private final int fingerprintOffset; // -1 when slots have no fingerprints
+    private final int headerSize;
+    private final int recordSize;
+    private final int slots;
+    private ByteBuffer page;
+
+    public BlockView(T recordTemplate, int bitmapOffset, int fingerprintOffset, int headerSize, int slots) {
+        this.recordTemplate = recordTemplate;
+        this.bitmapOffset = bitmapOffset;
+        this.fingerprintOffset = fingerprintOffset;
+        this.headerSize = headerSize;
+        this.recordSize = recordTemplate.getSize();
+        this.slots = slots;
+    }
+
+    /**
+     * Creates a view matching the layout of the given block
+     */
+    public static <T extends Record<T>> BlockView<T> of(Block<T> layout) {
+        return new BlockView<>(layout.getRecordTemplate(), layout.getBitmapOffset(), layout.getFingerprintOffset(),
+                layout.getHeaderSize(), layout.getRecordsPerBlock());
+    }
+
+    /**
+     * Points the view to another page, the view itself is reused
+     */
+    public BlockView<T> wrap(byte[] data) {
+        this.page = ByteBuffer.wrap(data);
+        return this;
+    }
+
+    /**
+     * Reads an int header field at the given byte offset
+     */
+    public int getInt(int offset) {
+        return this.page.getInt(offset);
+    }
+
+    /**
+     * Reads a long header field at the given byte offset
+     */
+    public long getLong(int offset) {
+        return this.page.getLong(offset);
+    }
+
+    /**
+     * Checks the slot bit in the bitmap
+     */
+    public boolean isOccupied(int slot) {
+        return (this.page.get(this.bitmapOffset + (slot >>> 3)) & (1 << (slot & 7))) != 0;
+    }
+
+    /**
+     * Finds the occupied slot holding a record with the given key
+     * Slots whose fingerprint differs from the key fingerprint are skipped without touching the record bytes
+     * @return slot index or -1 if no slot matches
+     */
+    public int findSlot(String key) {
+        boolean fingerprinted = this.fingerprintOffset >= 0;
+        byte fingerprint = fingerprinted ? KeyHash.fingerprint(key) : 0;
+
+        for (int base = 0; base < this.slots; base += 8) {
+            int bits = this.page.get(this.bitmapOffset + (base >>> 3)) & 0xFF;
+            while (bits != 0) {
+                int slot = base + Integer.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (slot >= this.slots) {
+                    break;
+                }
+                if (fingerprinted && this.page.get(this.fingerprintOffset + slot) != fingerprint) {
+                    continue;
+                }
+                if (this.recordTemplate.keyEquals(this.page, this.slotOffset(slot), key)) {
+                    return slot;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds and deserializes the record with the given key
+     * @return found record or null
+     */
+    public T find(String key) {
+        int slot = this.findSlot(key);
+        return slot == -1 ? null : this.materialize(slot);
+    }
+
+    /**
+     * Deserializes the record stored in the slot
+     * @return record or null if the slot is empty
+     */
+    public T materialize(int slot) {
+        if (!this.isOccupied(slot)) {
+            return null;
+        }
+
+        byte[] data = new byte[this.recordSize];
+        this.page.get(this.slotOffset(slot), data);
+        T record = this.recordTemplate.createClass();
+        record.fromBytes(data);
+        return record;
+    }
+
+    private int slotOffset(int slot) {
+        return this.headerSize + slot * this.recordSize;
+    }
+}
@@ -0,0 +1,526 @@
+package heap;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded page cache shared by several block files
+ * Pages are keyed by (file, block index), pinned while in use and evicted with the CLOCK algorithm
+ * Dirty pages are written back to their file on eviction or on flush
+ * The frames are split into partitions by page key, each with its own monitor, page table and CLOCK hand,
+ * disk reads and write-backs run outside of the monitor while the frame is latched, pins of it wait for the latch
+ */
+public class BufferPool {
+    public static final long DEFAULT_MEMORY_BUDGET = 4L * 1024 * 1024;
+    // smallest budget of one partition, small pools keep a single partition
+    private static final long MIN_PARTITION_BYTES = 64 * 1024;
+    private static final int MAX_PARTITIONS = 16;
+
+    /**
+     * Raw page access of one registered file
+     */
+    public interface PageSource {
+        void readPage(int blockIndex, byte[] target) throws IOException;
+        void writePage(int blockIndex, byte[] source) throws IOException;
+
+        /**
+         * Reads count consecutive pages into one buffer, sources with sequential access read them at once
+         */
+        default void readPages(int firstBlock, int count, byte[] target) throws IOException {
+            int pageSize = target.length / count;
+            byte[] page = new byte[pageSize];
+            for (int i = 0; i < count; i++) {
+                this.readPage(firstBlock + i, page);
+                System.arraycopy(page, 0, target, i * pageSize, pageSize);
+            }
+        }
+    }
+
+    /**
+     * One cached page
+     */
+    public static final class Frame {
+        private final byte[] data;
+        private int fileId;
+        private int blockIndex;
+        private int slot;
+        private int pinCount;
+        private boolean dirty;
+        private boolean referenced;
+        private CountDownLatch io; // set while the page is read or written back
+
+        private Frame(int pageSize) {
+            this.data = new byte[pageSize];
+        }
+
+        public byte[] getData() {
+            return this.data;
+        }
+
+        public int getBlockIndex() {
+            return this.blockIndex;
+        }
+    }
+
+    /**
+     * Frames of the pages whose key falls into the partition, guarded by the partition monitor
+     */
+    private static final class Partition {
+        private final long memoryBudget;
+        private final List<Frame> clock = new ArrayList<>();
+        private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+        private final Map<Long, Frame> pageTable = new HashMap<>();
+        private int clockHand = 0;
+        private long usedBytes = 0;
+
+        private Partition(long memoryBudget) {
+            this.memoryBudget = memoryBudget;
+        }
+    }
+
+    private final long memoryBudget;
+    private final Partition[] partitions;
+    private final Map<Integer, PageSource> sources = new ConcurrentHashMap<>();
+    private final AtomicInteger nextFileId = new AtomicInteger();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong writeBacks = new AtomicLong();
+
+    public BufferPool(long memoryBudget) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("Buffer pool budget must be positive: " + memoryBudget);
+        }
+        this.memoryBudget = memoryBudget;
+
+        int count = (int) Math.max(1, Math.min(MAX_PARTITIONS, Long.highestOneBit(memoryBudget / MIN_PARTITION_BYTES)));
+        this.partitions = new Partition[count];
+        for (int i = 0; i < count; i++) {
+            this.partitions[i] = new Partition(memoryBudget / count);
+        }
+    }
+
+    /**
+     * Registers a file in the pool
+     * @return id used as the file part of page keys
+     */
+    public int register(PageSource source) {
+        int id = this.nextFileId.getAndIncrement();
+        this.sources.put(id, source);
+        return id;
+    }
+
+    /**
+     * Writes back dirty pages of the file and removes it from the pool
+     */
+    public void unregister(int fileId) throws IOException {
+        this.flush(fileId);
+        this.invalidate(fileId, 0);
+        this.sources.remove(fileId);
+    }
+
+    /**
+     * Pins a page in the pool
+     * When load is false the page content is not read from disk, the caller is expected to overwrite it
+     * If every frame is pinned the pool temporarily exceeds its budget instead of failing
+     */
+    public Frame pin(int fileId, int blockIndex, int pageSize, boolean load) throws IOException {
+        long key = pageKey(fileId, blockIndex);
+        Partition partition = this.partitionOf(key);
+        Frame[] victim = new Frame[1];
+
+        while (true) {
+            Frame frame;
+            CountDownLatch busy = null;
+            synchronized (partition) {
+                frame = partition.pageTable.get(key);
+                if (frame != null && frame.io == null) {
+                    this.hits.incrementAndGet();
+                    frame.pinCount++;
+                    frame.referenced = true;
+                    return frame;
+                }
+
+                if (frame != null) {
+                    busy = frame.io;
+                } else {
+                    frame = this.allocateFrame(partition, pageSize, victim);
+                    if (frame != null) {
+                        this.misses.incrementAndGet();
+                        this.install(partition, frame, fileId, blockIndex, 1);
+                        if (!load) {
+                            return frame;
+                        }
+                        frame.io = new CountDownLatch(1);
+                    }
+                }
+            }
+
+            if (busy != null) {
+                await(busy);
+            } else if (frame == null) {
+                this.writeBack(partition, victim[0]);
+            } else {
+                this.load(partition, frame);
+                return frame;
+            }
+        }
+    }
+
+    /**
+     * Loads a run of consecutive pages with one read of the file
+     * Pages already in the pool are kept as they are, so a dirty page is never overwritten by older data
+     * The run is limited to a quarter of the pool, so it does not evict the pages it has just loaded
+     * Frames of the missing pages are latched before the read, so nobody loads them again meanwhile
+     */
+    public void prefetch(int fileId, int firstBlock, int count, int pageSize) throws IOException {
+        int from = firstBlock;
+        int to = firstBlock + (int) Math.min(count, this.memoryBudget / pageSize / 4);
+        while (from < to && this.isCached(fileId, from)) from++;
+        while (to > from && this.isCached(fileId, to - 1)) to--;
+        if (to - from < 2) {
+            return;
+        }
+
+        Frame[] frames = new Frame[to - from];
+        Frame[] victim = new Frame[1];
+        for (int blockIndex = from; blockIndex < to; blockIndex++) {
+            long key = pageKey(fileId, blockIndex);
+            Partition partition = this.partitionOf(key);
+            while (true) {
+                synchronized (partition) {
+                    if (partition.pageTable.containsKey(key)) {
+                        break;
+                    }
+                    Frame frame = this.allocateFrame(partition, pageSize, victim);
+                    if (frame != null) {
+                        this.misses.incrementAndGet();
+                        this.install(partition, frame, fileId, blockIndex, 0);
+                        frame.io = new CountDownLatch(1);
+                        frames[blockIndex - from] = frame;
+                        break;
+                    }
+                }
+                this.writeBack(partition, victim[0]);
+            }
+        }
+
+        byte[] run = new byte[(to - from) * pageSize];
+        try {
+            this.sources.get(fileId).readPages(from, to - from, run);
+        } catch (IOException | RuntimeException e) {
+            for (Frame frame : frames) {
+                if (frame != null) {
+                    this.abortLoad(frame);
+                }
+            }
+            throw e;
+        }
+
+        for (int i = 0; i < frames.length; i++) {
+            Frame frame = frames[i];
+            if (frame == null) {
+                continue;
+            }
+            System.arraycopy(run, i * pageSize, frame.data, 0, pageSize);
+            Partition partition = this.partitionOf(pageKey(fileId, frame.blockIndex));
+            synchronized (partition) {
+                finishIo(frame);
+            }
+        }
+    }
+
+    /**
+     * Releases a pin, marking the page dirty if it was modified
+     */
+    public void unpin(Frame frame, boolean dirty) {
+        synchronized (this.partitionOf(pageKey(frame.fileId, frame.blockIndex))) {
+            if (frame.pinCount <= 0) {
+                throw new IllegalStateException("Page " + frame.blockIndex + " is not pinned");
+            }
+            frame.pinCount--;
+            if (dirty) {
+                frame.dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Writes all dirty pages of the file back to disk
+     * Write-backs of the file already running are waited for, so the pages are on disk when it returns
+     */
+    public void flush(int fileId) throws IOException {
+        for (Partition partition : this.partitions) {
+            List<Frame> claimed = new ArrayList<>();
+            List<CountDownLatch> running = new ArrayList<>();
+            synchronized (partition) {
+                for (Frame frame : partition.pageTable.values()) {
+                    if (frame.fileId != fileId) {
+                        continue;
+                    }
+                    if (frame.io != null) {
+                        running.add(frame.io);
+                    } else if (frame.dirty) {
+                        claimWriteBack(frame);
+                        claimed.add(frame);
+                    }
+                }
+            }
+
+            IOException failure = null;
+            for (Frame frame : claimed) {
+                try {
+                    this.writeBack(partition, frame);
+                } catch (IOException e) {
+                    failure = failure == null ? e : failure;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            for (CountDownLatch latch : running) {
+                await(latch);
+            }
+        }
+    }
+
+    /**
+     * Drops cached pages of the file from the given block index on, without writing them back
+     * Used when the file is truncated
+     */
+    public void invalidate(int fileId, int fromBlock) throws IOException {
+        for (Partition partition : this.partitions) {
+            while (true) {
+                CountDownLatch busy = null;
+                synchronized (partition) {
+                    Iterator<Frame> it = partition.pageTable.values().iterator();
+                    while (it.hasNext() && busy == null) {
+                        Frame frame = it.next();
+                        if (frame.fileId == fileId && frame.blockIndex >= fromBlock) {
+                            if (frame.io != null) {
+                                busy = frame.io;
+                            } else {
+                                it.remove();
+                                this.releaseFrame(partition, frame);
+                            }
+                        }
+                    }
+                }
+                if (busy == null) {
+                    break;
+                }
+                await(busy);
+            }
+        }
+    }
+
+    /**
+     * Finds room for a new page in the partition, evicting unpinned pages with the CLOCK algorithm
+     * A dirty page cannot be written back under the monitor, it is latched and handed over in victim,
+     * the caller writes it back and tries again, then the hand starts at the now clean page
+     * @return the frame or null if a page must be written back first
+     */
+    private Frame allocateFrame(Partition partition, int pageSize, Frame[] victim) {
+        Frame reusable = null;
+        int scanned = 0;
+        int limit = partition.clock.size() * 2;
+
+        while (partition.usedBytes + pageSize > partition.memoryBudget && scanned < limit
+                && !partition.clock.isEmpty()) {
+            int hand = partition.clockHand;
+            Frame candidate = partition.clock.get(hand);
+            partition.clockHand = (hand + 1) % partition.clock.size();
+            scanned++;
+
+            if (candidate == null || candidate.pinCount > 0 || candidate.io != null) {
+                continue;
+            }
+            if (candidate.referenced) {
+                candidate.referenced = false;
+                continue;
+            }
+            if (candidate.dirty) {
+                claimWriteBack(candidate);
+                victim[0] = candidate;
+                partition.clockHand = hand;
+                return null;
+            }
+
+            this.evict(partition, candidate);
+            if (reusable == null && candidate.data.length == pageSize) {
+                reusable = candidate;
+                break;
+            }
+        }
+
+        if (reusable != null) {
+            partition.clock.set(reusable.slot, reusable);
+            partition.freeSlots.removeFirstOccurrence(reusable.slot);
+            partition.usedBytes += pageSize;
+            return reusable;
+        }
+
+        Frame frame = new Frame(pageSize);
+        if (partition.freeSlots.isEmpty()) {
+            frame.slot = partition.clock.size();
+            partition.clock.add(frame);
+        } else {
+            frame.slot = partition.freeSlots.pop();
+            partition.clock.set(frame.slot, frame);
+        }
+        partition.usedBytes += pageSize;
+        return frame;
+    }
+
+    private void install(Partition partition, Frame frame, int fileId, int blockIndex, int pinCount) {
+        frame.fileId = fileId;
+        frame.blockIndex = blockIndex;
+        frame.pinCount = pinCount;
+        frame.dirty = false;
+        frame.referenced = true;
+        partition.pageTable.put(pageKey(fileId, blockIndex), frame);
+    }
+
+    /**
+     * Reads the page of a latched frame outside of the monitor, a failed read removes the frame again
+     */
+    private void load(Partition partition, Frame frame) throws IOException {
+        try {
+            this.sources.get(frame.fileId).readPage(frame.blockIndex, frame.data);
+        } catch (IOException | RuntimeException e) {
+            this.abortLoad(frame);
+            throw e;
+        }
+        synchronized (partition) {
+            finishIo(frame);
+        }
+    }
+
+    private void abortLoad(Frame frame) {
+        long key = pageKey(frame.fileId, frame.blockIndex);
+        Partition partition = this.partitionOf(key);
+        synchronized (partition) {
+            partition.pageTable.remove(key);
+            this.releaseFrame(partition, frame);
+            finishIo(frame);
+        }
+    }
+
+    /**
+     * Marks a dirty page as being written back, it stays in the page table so nobody reads older data from disk
+     */
+    private static void claimWriteBack(Frame frame) {
+        frame.dirty = false;
+        frame.io = new CountDownLatch(1);
+    }
+
+    /**
+     * Writes a claimed page outside of the monitor, a failed write leaves the page dirty
+     */
+    private void writeBack(Partition partition, Frame frame) throws IOException {
+        try {
+            this.sources.get(frame.fileId).writePage(frame.blockIndex, frame.data);
+            this.writeBacks.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            synchronized (partition) {
+                frame.dirty = true;
+                finishIo(frame);
+            }
+            throw e;
+        }
+        synchronized (partition) {
+            finishIo(frame);
+        }
+    }
+
+    private static void finishIo(Frame frame) {
+        CountDownLatch latch = frame.io;
+        frame.io = null;
+        latch.countDown();
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a page");
+        }
+    }
+
+    /**
+     * Removes a clean page from the pool
+     */
+    private void evict(Partition partition, Frame frame) {
+        partition.pageTable.remove(pageKey(frame.fileId, frame.blockIndex));
+        this.releaseFrame(partition, frame);
+        this.evictions.incrementAndGet();
+    }
+
+    private void releaseFrame(Partition partition, Frame frame) {
+        partition.clock.set(frame.slot, null);
+        partition.freeSlots.push(frame.slot);
+        partition.usedBytes -= frame.data.length;
+    }
+
+    private boolean isCached(int fileId, int blockIndex) {
+        long key = pageKey(fileId, blockIndex);
+        Partition partition = this.partitionOf(key);
+        synchronized (partition) {
+            return partition.pageTable.containsKey(key);
+        }
+    }
+
+    private Partition partitionOf(long key) {
+        return this.partitions[(int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (this.partitions.length - 1)];
+    }
+
+    private static long pageKey(int fileId, int blockIndex) {
+        return ((long) fileId << 32) | (blockIndex & 0xFFFFFFFFL);
+    }
+
+    public long getMemoryBudget() {
+        return this.memoryBudget;
+    }
+
+    public long getUsedBytes() {
+        long used = 0;
+        for (Partition partition : this.partitions) {
+            synchronized (partition) {
+                used += partition.usedBytes;
+            }
+        }
+        return used;
+    }
+
+    public int getPartitionCount() {
+        return this.partitions.length;
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    public long getWriteBacks() {
+        return this.writeBacks.get();
+    }
+}
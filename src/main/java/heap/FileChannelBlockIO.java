@@ -0,0 +1,89 @@
+package heap;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Block storage using positional FileChannel reads and writes
+ * Each access is a single pread/pwrite, so concurrent readers do not share a file pointer
+ * Transfers go through a reusable direct buffer per thread
+ */
+public class FileChannelBlockIO implements BlockIO {
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ThreadLocal<ByteBuffer> buffers = new ThreadLocal<>();
+    private volatile long length; // cached to avoid a size() call per block access
+
+    public FileChannelBlockIO(String filename) throws IOException {
+        this.file = new RandomAccessFile(filename, "rw");
+        this.channel = this.file.getChannel();
+        this.length = this.channel.size();
+    }
+
+    @Override
+    public void read(long position, byte[] target) throws IOException {
+        ByteBuffer buffer = this.buffer(target.length);
+
+        while (buffer.hasRemaining()) {
+            int read = this.channel.read(buffer, position + buffer.position());
+            if (read < 0) break;
+        }
+
+        int read = buffer.position();
+        buffer.flip();
+        buffer.get(target, 0, read);
+        Arrays.fill(target, read, target.length, (byte) ' ');
+    }
+
+    @Override
+    public void write(long position, byte[] source) throws IOException {
+        ByteBuffer buffer = this.buffer(source.length);
+        buffer.put(source).flip();
+
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer, position + buffer.position());
+        }
+
+        synchronized (this) {
+            this.length = Math.max(this.length, position + source.length);
+        }
+    }
+
+    @Override
+    public long length() {
+        return this.length;
+    }
+
+    @Override
+    public synchronized void setLength(long length) throws IOException {
+        this.file.setLength(length);
+        this.length = length;
+    }
+
+    @Override
+    public void force() throws IOException {
+        this.channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+        this.file.close();
+    }
+
+    /**
+     * Returns the calling thread's transfer buffer, cleared and limited to size bytes
+     */
+    private ByteBuffer buffer(int size) {
+        ByteBuffer buffer = this.buffers.get();
+        if (buffer == null || buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(size);
+            this.buffers.set(buffer);
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+}
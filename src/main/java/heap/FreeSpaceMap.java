@@ -0,0 +1,220 @@
+package heap;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Occupancy classes of the blocks of a heap file - partially free and empty
+ * Each class is a hierarchical bitmap, so updates and lowest-index searches take a few word operations
+ * independent of the number of blocks
+ */
+public class FreeSpaceMap {
+    private final Bits partiallyFree = new Bits();
+    private final Bits empty = new Bits();
+
+    /**
+     * Moves a block into the class matching its state
+     */
+    public void update(int blockIndex, boolean isEmpty, boolean hasSpace) {
+        if (blockIndex < 0) {
+            return;
+        }
+        if (isEmpty) {
+            this.partiallyFree.clear(blockIndex);
+            this.empty.set(blockIndex);
+        } else if (hasSpace) {
+            this.empty.clear(blockIndex);
+            this.partiallyFree.set(blockIndex);
+        } else {
+            this.empty.clear(blockIndex);
+            this.partiallyFree.clear(blockIndex);
+        }
+    }
+
+    /**
+     * @return lowest partially free block or -1
+     */
+    public int firstPartiallyFree() {
+        return this.partiallyFree.first();
+    }
+
+    /**
+     * @return lowest empty block or -1
+     */
+    public int firstEmpty() {
+        return this.empty.first();
+    }
+
+    /**
+     * @return lowest empty block at or after the given index or -1
+     */
+    public int nextEmpty(int fromIndex) {
+        return this.empty.next(fromIndex);
+    }
+
+    public boolean isEmpty(int blockIndex) {
+        return this.empty.get(blockIndex);
+    }
+
+    public boolean isPartiallyFree(int blockIndex) {
+        return this.partiallyFree.get(blockIndex);
+    }
+
+    /**
+     * Forgets all blocks with index >= blockCount
+     */
+    public void truncate(int blockCount) {
+        this.partiallyFree.truncate(blockCount);
+        this.empty.truncate(blockCount);
+    }
+
+    public void clear() {
+        this.partiallyFree.truncate(0);
+        this.empty.truncate(0);
+    }
+
+    /**
+     * Writes both classes as raw bitmap words
+     */
+    public void write(DataOutputStream dos) throws IOException {
+        this.partiallyFree.write(dos);
+        this.empty.write(dos);
+    }
+
+    public void read(DataInputStream dis) throws IOException {
+        this.partiallyFree.read(dis);
+        this.empty.read(dis);
+    }
+
+    /**
+     * Bitmap with summary levels - bit j of level i + 1 is set when word j of level i is not zero
+     */
+    private static final class Bits {
+        private long[][] levels = new long[][]{new long[1]};
+
+        boolean get(int index) {
+            long[] bits = this.levels[0];
+            int word = index >>> 6;
+            return index >= 0 && word < bits.length && (bits[word] & (1L << index)) != 0;
+        }
+
+        void set(int index) {
+            this.ensureCapacity(index);
+            for (long[] level : this.levels) {
+                int word = index >>> 6;
+                boolean wasZero = level[word] == 0;
+                level[word] |= 1L << index;
+                if (!wasZero) return;
+                index = word;
+            }
+        }
+
+        void clear(int index) {
+            if (index < 0 || (index >>> 6) >= this.levels[0].length) return;
+            for (long[] level : this.levels) {
+                int word = index >>> 6;
+                level[word] &= ~(1L << index);
+                if (level[word] != 0) return;
+                index = word;
+            }
+        }
+
+        /**
+         * Descends from the top summary word to the lowest set bit
+         */
+        int first() {
+            int index = 0;
+            for (int i = this.levels.length - 1; i >= 0; i--) {
+                long[] level = this.levels[i];
+                if (index >= level.length || level[index] == 0) return -1;
+                index = (index << 6) + Long.numberOfTrailingZeros(level[index]);
+            }
+            return index;
+        }
+
+        /**
+         * Climbs the summary levels until a set bit at or after the index is seen, then descends to it
+         */
+        int next(int from) {
+            int index = Math.max(0, from);
+            for (int level = 0; level < this.levels.length; level++) {
+                long[] bits = this.levels[level];
+                int word = index >>> 6;
+                if (word >= bits.length) return -1;
+
+                long masked = bits[word] & (-1L << index);
+                if (masked != 0) {
+                    index = (word << 6) + Long.numberOfTrailingZeros(masked);
+                    for (int lower = level - 1; lower >= 0; lower--) {
+                        index = (index << 6) + Long.numberOfTrailingZeros(this.levels[lower][index]);
+                    }
+                    return index;
+                }
+                index = word + 1;
+            }
+            return -1;
+        }
+
+        void truncate(int count) {
+            long[] bits = this.levels[0];
+            int words = bits.length;
+            for (int word = count >>> 6; word < words; word++) {
+                long keep = word == (count >>> 6) ? (1L << count) - 1 : 0;
+                if ((bits[word] & ~keep) != 0) {
+                    bits[word] &= keep;
+                }
+            }
+            this.rebuildSummaries();
+        }
+
+        void write(DataOutputStream dos) throws IOException {
+            long[] bits = this.levels[0];
+            int used = bits.length;
+            while (used > 0 && bits[used - 1] == 0) used--;
+
+            dos.writeInt(used);
+            for (int i = 0; i < used; i++) dos.writeLong(bits[i]);
+        }
+
+        void read(DataInputStream dis) throws IOException {
+            int used = dis.readInt();
+            if (used < 0) throw new IOException("Invalid free space map size: " + used);
+
+            long[] bits = new long[Math.max(1, used)];
+            for (int i = 0; i < used; i++) bits[i] = dis.readLong();
+            this.levels = new long[][]{bits};
+            this.rebuildSummaries();
+        }
+
+        private void ensureCapacity(int index) {
+            if ((index >>> 6) < this.levels[0].length) return;
+
+            int words = Math.max(this.levels[0].length * 2, (index >>> 6) + 1);
+            this.levels[0] = Arrays.copyOf(this.levels[0], words);
+            this.rebuildSummaries();
+        }
+
+        /**
+         * Recomputes all summary levels above the bit level
+         */
+        private void rebuildSummaries() {
+            long[] bits = this.levels[0];
+            int depth = 1;
+            for (int words = bits.length; words > 1; words = (words + 63) >>> 6) depth++;
+
+            long[][] rebuilt = new long[depth][];
+            rebuilt[0] = bits;
+            for (int i = 1; i < depth; i++) {
+                long[] lower = rebuilt[i - 1];
+                long[] upper = new long[(lower.length + 63) >>> 6];
+                for (int word = 0; word < lower.length; word++) {
+                    if (lower[word] != 0) upper[word >>> 6] |= 1L << word;
+                }
+                rebuilt[i] = upper;
+            }
+            this.levels = rebuilt;
+        }
+    }
+}
@@ -4,57 +4,90 @@ import data.Record;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.Function;
 
 public class HeapFile<T extends Record<T>> {
-    private final RandomAccessFile file;
-    private final Block<T> templateBlock;
-    private final LinkedList<Integer> partiallyFreeBlocks = new LinkedList<>();
-    private final LinkedList<Integer> emptyBlocks = new LinkedList<>();
+    private final BlockIO file;
+    private final int clusterSize;
+    private final T recordTemplate;
+    private final Block<T> templateBlock; // layout of blocks created by this file
+    private static final int FREE_SPACE_MAP_FORMAT = -2;
+
+    private final FreeSpaceMap freeSpace = new FreeSpaceMap();
     private final String metadataFile; // to track block occupancy
     private boolean metadataChanged = false;
+    private final BufferPool bufferPool; // null when blocks are read directly from disk
+    private final int poolFileId;
+    private final ThreadLocal<BlockView<T>> views;
 
     public HeapFile(String filename, int clusterSize, T recordTemplate) throws IOException {
-        if (clusterSize < recordTemplate.getSize()) {
+        this(filename, clusterSize, recordTemplate, null);
+    }
+
+    public HeapFile(String filename, int clusterSize, T recordTemplate, BufferPool bufferPool) throws IOException {
+        this(filename, clusterSize, recordTemplate, bufferPool, StorageMode.FILE_CHANNEL);
+    }
+
+    public HeapFile(String filename, int clusterSize, T recordTemplate, BufferPool bufferPool,
+                    StorageMode storageMode) throws IOException {
+        this.clusterSize = clusterSize;
+        this.recordTemplate = recordTemplate;
+        this.templateBlock = this.createBlock(0);
+
+        if (this.templateBlock.getRecordsPerBlock() < 1) {
             throw new IllegalArgumentException(
                     "Cluster size (" + clusterSize + " bytes) je menší ako veľkosť záznamu (" +
-                            recordTemplate.getSize() + " bytes). Cluster musí byť aspoň " +
-                            recordTemplate.getSize() + " bytes."
+                            recordTemplate.getSize() + " bytes) s hlavičkou bloku. Cluster musí byť aspoň " +
+                            this.templateBlock.getMinimumBlockSize() + " bytes."
             );
         }
 
-        this.templateBlock = new Block<>(0, clusterSize, recordTemplate);
-        this.file = new RandomAccessFile(filename, "rw");
+        this.file = storageMode.open(filename);
         this.metadataFile = filename + ".meta";
+        this.views = ThreadLocal.withInitial(() -> BlockView.of(this.templateBlock));
+        this.bufferPool = bufferPool;
+        this.poolFileId = bufferPool != null ? bufferPool.register(new BufferPool.PageSource() {
+            @Override
+            public void readPage(int blockIndex, byte[] target) throws IOException {
+                HeapFile.this.readPage(blockIndex, target);
+            }
+
+            @Override
+            public void writePage(int blockIndex, byte[] source) throws IOException {
+                HeapFile.this.writePage(blockIndex, source);
+            }
+
+            @Override
+            public void readPages(int firstBlock, int count, byte[] target) throws IOException {
+                HeapFile.this.readPage(firstBlock, target);
+            }
+        }) : -1;
 
         // load existing block occupancy metadata
         this.loadBlockLists();
     }
 
     /**
-     * Saves current block occupancy lists to metadata file
+     * Saves current block occupancy map to metadata file
+     * The map is stored as raw bitmap words behind a negative format marker
      */
     private void saveBlockLists() throws IOException {
         if (!this.metadataChanged) return;
 
-        int blockCount = this.getBlockCount();
-        this.partiallyFreeBlocks.removeIf(idx -> idx < 0 || idx >= blockCount);
-        this.emptyBlocks.removeIf(idx -> idx < 0 || idx >= blockCount);
+        this.freeSpace.truncate(this.getBlockCount());
 
         try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(this.metadataFile))) {
             dos.writeInt(this.getClusterSize());
             dos.writeInt(this.getRecordsPerBlock());
-
-            dos.writeInt(this.partiallyFreeBlocks.size());
-            for (int b : this.partiallyFreeBlocks) dos.writeInt(b);
-
-            dos.writeInt(this.emptyBlocks.size());
-            for (int b : this.emptyBlocks) dos.writeInt(b);
+            dos.writeInt(FREE_SPACE_MAP_FORMAT);
+            this.freeSpace.write(dos);
         }
         this.metadataChanged = false;
     }
 
     /**
-     * Loads block occupancy lists from metadata file
+     * Loads block occupancy map from metadata file
+     * Older metadata files with explicit block lists are converted
      */
     private void loadBlockLists() {
         File meta = new File(this.metadataFile);
@@ -68,61 +101,55 @@ public class HeapFile<T extends Record<T>> {
             int savedRecordsPerBlock = dis.readInt();
 
             if (savedCluster != this.getClusterSize() || savedRecordsPerBlock != this.getRecordsPerBlock()) {
-                this.partiallyFreeBlocks.clear();
-                this.emptyBlocks.clear();
+                this.freeSpace.clear();
                 this.metadataChanged = true;
                 return;
             }
 
-            this.partiallyFreeBlocks.clear();
-            int pSize = dis.readInt();
-            for (int i = 0; i < pSize; i++) {
-                this.partiallyFreeBlocks.add(dis.readInt());
-            }
-
-            this.emptyBlocks.clear();
-            int eSize = dis.readInt();
-            for (int i = 0; i < eSize; i++) {
-                this.emptyBlocks.add(dis.readInt());
+            this.freeSpace.clear();
+            int format = dis.readInt();
+            if (format == FREE_SPACE_MAP_FORMAT) {
+                this.freeSpace.read(dis);
+            } else {
+                // legacy format - list of partially free blocks followed by list of empty blocks
+                for (int i = 0; i < format; i++) {
+                    this.freeSpace.update(dis.readInt(), false, true);
+                }
+                int eSize = dis.readInt();
+                for (int i = 0; i < eSize; i++) {
+                    this.freeSpace.update(dis.readInt(), true, true);
+                }
+                this.metadataChanged = true;
             }
 
-            int blockCount = this.getBlockCount();
-            this.partiallyFreeBlocks.removeIf(idx -> idx < 0 || idx >= blockCount);
-            this.emptyBlocks.removeIf(idx -> idx < 0 || idx >= blockCount);
-
-            Collections.sort(this.partiallyFreeBlocks);
-            Collections.sort(this.emptyBlocks);
+            this.freeSpace.truncate(this.getBlockCount());
 
         } catch (EOFException e) {
-            this.partiallyFreeBlocks.clear();
-            this.emptyBlocks.clear();
+            this.freeSpace.clear();
             this.metadataChanged = true;
         } catch (Exception e) {
             System.out.println("Error loading metadata: " + e.getMessage() + "; recreating");
-            this.partiallyFreeBlocks.clear();
-            this.emptyBlocks.clear();
+            this.freeSpace.clear();
             this.metadataChanged = true;
         }
     }
 
     /**
-     * Updates block occupancy lists based on a blocks current state
+     * Updates block occupancy map based on a blocks current state
      */
     protected void updateBlockLists(int blockIndex, Block<T> block) {
         boolean isEmpty = block.isEmpty();
         boolean hasSpace = block.hasSpace() && !isEmpty;
 
-        this.emptyBlocks.remove((Integer) blockIndex);
-        this.partiallyFreeBlocks.remove((Integer) blockIndex);
-
-        if (isEmpty) {
-            if (!this.emptyBlocks.contains(blockIndex)) this.emptyBlocks.add(blockIndex);
-        } else if (hasSpace) {
-            if (!this.partiallyFreeBlocks.contains(blockIndex)) this.partiallyFreeBlocks.add(blockIndex);
-        }
-        Collections.sort(this.emptyBlocks);
-        Collections.sort(this.partiallyFreeBlocks);
+        this.freeSpace.update(blockIndex, isEmpty, hasSpace);
+        this.metadataChanged = true;
+    }
 
+    /**
+     * Takes an empty block out of the occupancy map before it is reused
+     */
+    protected void claimBlock(int blockIndex) {
+        this.freeSpace.update(blockIndex, false, false);
         this.metadataChanged = true;
     }
 
@@ -150,8 +177,7 @@ public class HeapFile<T extends Record<T>> {
      */
     public T get(int blockIndex, T record) throws IOException {
         this.checkBlockIndex(blockIndex);
-        Block<T> block = this.readBlock(blockIndex);
-        return block.findRecord(record);
+        return this.readView(blockIndex, view -> view.find(record.getKey()));
     }
 
     /**
@@ -185,7 +211,7 @@ public class HeapFile<T extends Record<T>> {
 
         int lastBlockIndex = blockCount - 1;
 
-        while (lastBlockIndex >= 0 && this.emptyBlocks.contains(lastBlockIndex)) {
+        while (lastBlockIndex >= 0 && this.freeSpace.isEmpty(lastBlockIndex)) {
             lastBlockIndex--;
         }
 
@@ -193,10 +219,12 @@ public class HeapFile<T extends Record<T>> {
 
         if (newBlockCount < blockCount) {
             long newLength = (long) newBlockCount * this.getClusterSize();
+            if (this.bufferPool != null) {
+                this.bufferPool.invalidate(this.poolFileId, newBlockCount);
+            }
             this.file.setLength(newLength);
 
-            this.emptyBlocks.removeIf(index -> index >= newBlockCount);
-            this.partiallyFreeBlocks.removeIf(index -> index >= newBlockCount);
+            this.freeSpace.truncate(newBlockCount);
 
             this.metadataChanged = true;
 
@@ -215,6 +243,7 @@ public class HeapFile<T extends Record<T>> {
 
     /**
      * Reads a block from disk at specified index
+     * Goes through the buffer pool when the file has one
      */
     public Block<T> readBlock(int blockIndex) throws IOException {
         long pos = (long) blockIndex * this.getClusterSize();
@@ -223,33 +252,155 @@ public class HeapFile<T extends Record<T>> {
             return this.createBlock(blockIndex);
         }
 
-        this.file.seek(pos);
-        byte[] data = new byte[this.getClusterSize()];
-        int read = this.file.read(data);
+        Block<T> block = this.createBlock(blockIndex);
 
-        if (read < data.length) {
-            for (int i = read; i < data.length; i++) data[i] = ' ';
+        if (this.bufferPool != null) {
+            BufferPool.Frame frame = this.bufferPool.pin(this.poolFileId, blockIndex, this.getClusterSize(), true);
+            try {
+                block.fromBytes(frame.getData());
+            } finally {
+                this.bufferPool.unpin(frame, false);
+            }
+            return block;
         }
 
-        Block<T> block = this.createBlock(blockIndex);
+        byte[] data = new byte[this.getClusterSize()];
+        this.readPage(blockIndex, data);
         block.fromBytes(data);
 
         return block;
     }
 
+    /**
+     * Reads a run of consecutive blocks with one sequential read, the run is cut at the end of the file
+     * With a buffer pool the pages are loaded into the pool, pages already cached are used as they are
+     */
+    public List<Block<T>> readBlocks(int firstBlock, int count) throws IOException {
+        int available = Math.min(count, this.getBlockCount() - firstBlock);
+        List<Block<T>> blocks = new ArrayList<>(Math.max(0, available));
+        if (firstBlock < 0 || available <= 0) {
+            return blocks;
+        }
+
+        if (this.bufferPool != null) {
+            this.bufferPool.prefetch(this.poolFileId, firstBlock, available, this.getClusterSize());
+            for (int i = 0; i < available; i++) {
+                blocks.add(this.readBlock(firstBlock + i));
+            }
+            return blocks;
+        }
+
+        byte[] run = new byte[available * this.getClusterSize()];
+        this.readPage(firstBlock, run);
+        for (int i = 0; i < available; i++) {
+            Block<T> block = this.createBlock(firstBlock + i);
+            block.fromBytes(Arrays.copyOfRange(run, i * this.getClusterSize(), (i + 1) * this.getClusterSize()));
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    /**
+     * Loads a run of consecutive blocks into the buffer pool with one read, does nothing without a pool
+     */
+    protected void prefetch(int firstBlock, int count) throws IOException {
+        int available = Math.min(count, this.getBlockCount() - firstBlock);
+        if (this.bufferPool != null && firstBlock >= 0 && available > 1) {
+            this.bufferPool.prefetch(this.poolFileId, firstBlock, available, this.getClusterSize());
+        }
+    }
+
+    /**
+     * Reads a block without deserializing it
+     * The reader gets a flyweight view over the page bytes, valid only during the call
+     * @return value returned by the reader, or null for blocks past the end of file
+     */
+    protected <R> R readView(int blockIndex, Function<BlockView<T>, R> reader) throws IOException {
+        if ((long) blockIndex * this.getClusterSize() >= this.file.length()) {
+            return null;
+        }
+
+        BlockView<T> view = this.views.get();
+
+        if (this.bufferPool != null) {
+            BufferPool.Frame frame = this.bufferPool.pin(this.poolFileId, blockIndex, this.getClusterSize(), true);
+            try {
+                return reader.apply(view.wrap(frame.getData()));
+            } finally {
+                this.bufferPool.unpin(frame, false);
+            }
+        }
+
+        byte[] data = new byte[this.getClusterSize()];
+        this.readPage(blockIndex, data);
+        return reader.apply(view.wrap(data));
+    }
+
     /**
      * Writes a block to disk at specified index
+     * With a buffer pool the page is only marked dirty and written back later
      */
     public void writeBlock(int blockIndex, Block<T> block) throws IOException {
         long pos = (long) blockIndex * this.getClusterSize();
 
-        if (pos + this.getClusterSize() > this.file.length()) {
-            // extend file
-            this.file.setLength(pos + this.getClusterSize());
+        // extend file
+        this.ensureLength(pos + this.getClusterSize());
+
+        if (this.bufferPool != null) {
+            byte[] bytes = block.getBytes();
+            BufferPool.Frame frame = this.bufferPool.pin(this.poolFileId, blockIndex, this.getClusterSize(), false);
+            byte[] page = frame.getData();
+            int length = Math.min(bytes.length, page.length);
+            System.arraycopy(bytes, 0, page, 0, length);
+            Arrays.fill(page, length, page.length, (byte) ' ');
+            this.bufferPool.unpin(frame, true);
+            return;
         }
 
-        this.file.seek(pos);
-        this.file.write(block.getBytes());
+        this.file.write(pos, block.getBytes());
+    }
+
+    /**
+     * Extends the file to at least the given length, concurrent writers never shrink it
+     */
+    private synchronized void ensureLength(long length) throws IOException {
+        if (length > this.file.length()) {
+            this.file.setLength(length);
+        }
+    }
+
+    /**
+     * Appends a blank block to the file and returns its index
+     * The block is reserved, a concurrent append gets the next index
+     */
+    protected synchronized int appendBlock() throws IOException {
+        int index = this.getBlockCount();
+        this.ensureLength((long) (index + 1) * this.getClusterSize());
+        return index;
+    }
+
+    /**
+     * Reads raw page bytes from disk, padding a short read with blanks
+     * A target longer than one page receives the following pages as well
+     */
+    private void readPage(int blockIndex, byte[] target) throws IOException {
+        this.file.read((long) blockIndex * this.getClusterSize(), target);
+    }
+
+    /**
+     * Writes raw page bytes to disk
+     */
+    private void writePage(int blockIndex, byte[] source) throws IOException {
+        this.file.write((long) blockIndex * this.getClusterSize(), source);
+    }
+
+    /**
+     * Writes all pages cached in the buffer pool back to disk
+     */
+    public void flush() throws IOException {
+        if (this.bufferPool != null) {
+            this.bufferPool.flush(this.poolFileId);
+        }
     }
 
     /**
@@ -268,33 +419,32 @@ public class HeapFile<T extends Record<T>> {
     private int findBestBlockForInsert() throws IOException {
         int blockCount = this.getBlockCount();
 
-        while (!this.partiallyFreeBlocks.isEmpty()) {
-            int idx = this.partiallyFreeBlocks.peekFirst();
-
-            if (idx < 0 || idx >= blockCount) {
-                this.partiallyFreeBlocks.removeFirst();
-                metadataChanged = true;
-                continue;
-            }
-
+        int idx = this.freeSpace.firstPartiallyFree();
+        if (idx >= blockCount || this.freeSpace.firstEmpty() >= blockCount) {
+            // drop entries of blocks that are no longer in the file
+            this.freeSpace.truncate(blockCount);
+            this.metadataChanged = true;
+            idx = this.freeSpace.firstPartiallyFree();
+        }
+        if (idx >= 0) {
             return idx;
         }
 
-        while (!this.emptyBlocks.isEmpty()) {
-            int idx = this.emptyBlocks.peekFirst();
-
-            if (idx < 0 || idx >= blockCount) {
-                this.emptyBlocks.removeFirst();
-                metadataChanged = true;
-                continue;
-            }
-
+        idx = this.freeSpace.firstEmpty();
+        if (idx >= 0) {
             return idx;
         }
 
         return blockCount;
     }
 
+    /**
+     * Returns the occupancy map of the file blocks
+     */
+    protected FreeSpaceMap getFreeSpaceMap() {
+        return this.freeSpace;
+    }
+
     /**
      * Returns count of blocks currently allocated in the file
      */
@@ -312,27 +462,50 @@ public class HeapFile<T extends Record<T>> {
         }
     }
 
+    /**
+     * Durability checkpoint - persists metadata, writes back cached pages and forces the file to disk
+     */
+    public void checkpoint() throws IOException {
+        this.saveBlockLists();
+        this.flush();
+        this.file.force();
+    }
+
     /**
      * Closes the file and persists metadata
      */
     public void close() throws IOException {
         this.saveBlockLists();
+        this.releaseBufferPool();
         this.file.close();
     }
 
+    /**
+     * Writes back cached pages and detaches the file from its buffer pool
+     */
+    protected void releaseBufferPool() throws IOException {
+        if (this.bufferPool != null) {
+            this.bufferPool.unregister(this.poolFileId);
+        }
+    }
+
     public int getRecordsPerBlock() {
         return this.templateBlock.getRecordsPerBlock();
     }
 
     public int getClusterSize() {
-        return this.templateBlock.getBlockSize();
+        return this.clusterSize;
     }
 
     protected T getRecordTemplate() {
-        return this.templateBlock.getRecordTemplate();
+        return this.recordTemplate;
     }
 
-    protected RandomAccessFile getFile() {
+    protected BlockIO getFile() {
         return file;
     }
+
+    public BufferPool getBufferPool() {
+        return this.bufferPool;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,40 @@
+package heap;
+
+/**
+ * 64-bit hash of record keys and the key fingerprints derived from it
+ */
+public final class KeyHash {
+    private KeyHash() {
+    }
+
+    /**
+     * FNV-1a over the key characters followed by the 64-bit MurmurHash3 finalizer
+     * Every input bit affects every output bit, so similar keys get unrelated hashes
+     */
+    public static long mix64(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return mix64(h);
+    }
+
+    /**
+     * 64-bit MurmurHash3 finalizer
+     */
+    public static long mix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * One byte fingerprint stored per slot, taken from the top bits that bucket addressing does not use
+     */
+    public static byte fingerprint(String key) {
+        return (byte) (mix64(key) >>> 56);
+    }
+}
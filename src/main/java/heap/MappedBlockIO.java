@@ -0,0 +1,213 @@
+package heap;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Block storage through memory mapped regions of the file
+ * The file is mapped in large chunks, so growing it by one block usually needs no system call
+ * Written data reaches the disk only on force() or close()
+ * The file is trimmed to its logical length only on close, until then the length forced by the last
+ * checkpoint is kept in a small .length file next to it, so a file reopened after a crash is not
+ * taken for its whole mapped size
+ */
+public class MappedBlockIO implements BlockIO {
+    public static final long DEFAULT_CHUNK_SIZE = 8L * 1024 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final Arena arena;
+    private final long chunkSize;
+    private volatile MemorySegment[] chunks; // chunk i maps bytes [i * chunkSize, (i + 1) * chunkSize)
+    private volatile long length;            // logical length, the mapped capacity may be larger
+    private final Path lengthFile;
+    private final FileChannel lengthChannel;
+    private long forcedLength;               // logical length at the last force, stored in the length file
+
+    public MappedBlockIO(String filename) throws IOException {
+        this(filename, DEFAULT_CHUNK_SIZE);
+    }
+
+    public MappedBlockIO(String filename, long chunkSize) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.file = new RandomAccessFile(filename, "rw");
+        this.channel = this.file.getChannel();
+        this.arena = Arena.ofShared();
+        this.chunkSize = chunkSize;
+        this.chunks = new MemorySegment[0];
+        this.lengthFile = Path.of(filename + ".length");
+        this.lengthChannel = FileChannel.open(this.lengthFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.length = this.loadLength();
+        this.forcedLength = this.length;
+        this.ensureCapacity(this.length);
+        this.saveLength();
+    }
+
+    /**
+     * Returns the logical length stored by the last force when the file was not closed cleanly
+     * The stored length is used only while the file still has the size it had when the length was stored
+     */
+    private long loadLength() throws IOException {
+        long size = this.channel.size();
+        ByteBuffer stored = ByteBuffer.allocate(2 * Long.BYTES);
+        if (this.lengthChannel.read(stored, 0) < stored.capacity()) {
+            return size;
+        }
+
+        long logical = stored.getLong(0);
+        long physical = stored.getLong(Long.BYTES);
+        return physical == size && logical >= 0 && logical <= size ? logical : size;
+    }
+
+    /**
+     * Stores the forced logical length together with the current size of the file
+     */
+    private synchronized void saveLength() throws IOException {
+        ByteBuffer stored = ByteBuffer.allocate(2 * Long.BYTES);
+        stored.putLong(this.forcedLength).putLong(this.channel.size()).flip();
+        while (stored.hasRemaining()) {
+            this.lengthChannel.write(stored, stored.position());
+        }
+        this.lengthChannel.force(false);
+    }
+
+    @Override
+    public void read(long position, byte[] target) {
+        long available = Math.max(0, Math.min(target.length, this.length - position));
+        this.copy(position, target, (int) available, false);
+        Arrays.fill(target, (int) available, target.length, (byte) ' ');
+    }
+
+    @Override
+    public void write(long position, byte[] source) throws IOException {
+        long end = position + source.length;
+        this.ensureCapacity(end);
+        this.copy(position, source, source.length, true);
+
+        synchronized (this) {
+            this.length = Math.max(this.length, end);
+        }
+    }
+
+    @Override
+    public long length() {
+        return this.length;
+    }
+
+    /**
+     * Changes the logical length, the mapped region is only ever extended
+     * Newly exposed bytes are zeroed like in a file extended with setLength
+     */
+    @Override
+    public synchronized void setLength(long newLength) throws IOException {
+        this.ensureCapacity(newLength);
+        if (newLength > this.length) {
+            this.fill(this.length, newLength - this.length);
+        }
+        this.length = newLength;
+    }
+
+    /**
+     * Checkpoint - forces all mapped chunks to the storage device and then stores the logical length
+     * The length is read before forcing, so it never covers data that was written later
+     */
+    @Override
+    public void force() throws IOException {
+        long forced = this.length;
+        this.forceChunks();
+
+        synchronized (this) {
+            this.forcedLength = forced;
+            this.saveLength();
+        }
+    }
+
+    /**
+     * Forces and unmaps the chunks and trims the file to its logical length
+     * The length file is not needed once the file has its exact size
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        this.forceChunks();
+        this.chunks = new MemorySegment[0];
+        this.arena.close();
+        this.file.setLength(this.length);
+        this.channel.close();
+        this.file.close();
+        this.lengthChannel.close();
+        Files.deleteIfExists(this.lengthFile);
+    }
+
+    private void forceChunks() {
+        for (MemorySegment chunk : this.chunks) {
+            chunk.force();
+        }
+    }
+
+    /**
+     * Maps further chunks until the capacity covers the given number of bytes
+     */
+    private synchronized void ensureCapacity(long capacity) throws IOException {
+        MemorySegment[] current = this.chunks;
+        int needed = (int) ((capacity + this.chunkSize - 1) / this.chunkSize);
+        if (needed <= current.length) {
+            return;
+        }
+
+        MemorySegment[] grown = Arrays.copyOf(current, needed);
+        for (int i = current.length; i < needed; i++) {
+            grown[i] = this.channel.map(FileChannel.MapMode.READ_WRITE, i * this.chunkSize, this.chunkSize, this.arena);
+        }
+        this.chunks = grown;
+
+        // mapping grew the file, the stored length has to match its new size
+        this.saveLength();
+    }
+
+    /**
+     * Copies between a byte array and the mapping, splitting the transfer at chunk borders
+     */
+    private void copy(long position, byte[] array, int count, boolean toMapping) {
+        MemorySegment[] current = this.chunks;
+        int done = 0;
+
+        while (done < count) {
+            long pos = position + done;
+            MemorySegment chunk = current[(int) (pos / this.chunkSize)];
+            long offset = pos % this.chunkSize;
+            int part = (int) Math.min(count - done, this.chunkSize - offset);
+
+            if (toMapping) {
+                MemorySegment.copy(array, done, chunk, ValueLayout.JAVA_BYTE, offset, part);
+            } else {
+                MemorySegment.copy(chunk, ValueLayout.JAVA_BYTE, offset, array, done, part);
+            }
+            done += part;
+        }
+    }
+
+    private void fill(long position, long count) {
+        MemorySegment[] current = this.chunks;
+        long done = 0;
+
+        while (done < count) {
+            long pos = position + done;
+            long offset = pos % this.chunkSize;
+            long part = Math.min(count - done, this.chunkSize - offset);
+            current[(int) (pos / this.chunkSize)].asSlice(offset, part).fill((byte) 0);
+            done += part;
+        }
+    }
+}
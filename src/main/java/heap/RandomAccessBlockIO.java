@@ -0,0 +1,50 @@
+package heap;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Block storage using seek + read/write on a RandomAccessFile
+ * All access is serialized through the single file pointer
+ */
+public class RandomAccessBlockIO implements BlockIO {
+    private final RandomAccessFile file;
+
+    public RandomAccessBlockIO(String filename) throws IOException {
+        this.file = new RandomAccessFile(filename, "rw");
+    }
+
+    @Override
+    public synchronized void read(long position, byte[] target) throws IOException {
+        this.file.seek(position);
+        int read = Math.max(this.file.read(target), 0);
+        Arrays.fill(target, read, target.length, (byte) ' ');
+    }
+
+    @Override
+    public synchronized void write(long position, byte[] source) throws IOException {
+        this.file.seek(position);
+        this.file.write(source);
+    }
+
+    @Override
+    public synchronized long length() throws IOException {
+        return this.file.length();
+    }
+
+    @Override
+    public synchronized void setLength(long length) throws IOException {
+        this.file.setLength(length);
+    }
+
+    @Override
+    public synchronized void force() throws IOException {
+        this.file.getFD().sync();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.file.close();
+    }
+}
@@ -0,0 +1,23 @@
+package heap;
+
+import java.io.IOException;
+
+/**
+ * Available block storage backends
+ */
+public enum StorageMode {
+    RANDOM_ACCESS,
+    FILE_CHANNEL,
+    MEMORY_MAPPED;
+
+    /**
+     * Opens the file with this backend
+     */
+    public BlockIO open(String filename) throws IOException {
+        return switch (this) {
+            case RANDOM_ACCESS -> new RandomAccessBlockIO(filename);
+            case FILE_CHANNEL -> new FileChannelBlockIO(filename);
+            case MEMORY_MAPPED -> new MappedBlockIO(filename);
+        };
+    }
+}
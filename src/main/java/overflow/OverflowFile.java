@@ -1,18 +1,42 @@
 package overflow;
 
 import heap.Block;
+import heap.BlockView;
+import heap.BufferPool;
+import heap.FreeSpaceMap;
 import heap.HeapFile;
+import heap.StorageMode;
 import data.Record;
 
 import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
 
 public class OverflowFile<T extends Record<T>> extends HeapFile<T> {
-    private int usedOverflowBlocks;
+    // positions in the chain holder passed to addToChain and deleteFromChain
+    public static final int CHAIN_FIRST = 0;
+    public static final int CHAIN_TAIL = 1;
+    public static final int CHAIN_FREE = 2;
+    public static final int CHAIN_LENGTH = 3;
+    public static final int CHAIN_STATE_SIZE = 4;
+    // longest run of blocks read at once while walking a chain
+    private static final int MAX_RUN_BLOCKS = 32;
+
+    private volatile int usedOverflowBlocks; // changed only while holding the file monitor
 
     public OverflowFile(String filename, int blockSize, T template) throws IOException {
-        super(filename, blockSize, template);
+        this(filename, blockSize, template, null);
+    }
+
+    public OverflowFile(String filename, int blockSize, T template, BufferPool bufferPool) throws IOException {
+        this(filename, blockSize, template, bufferPool, StorageMode.FILE_CHANNEL);
+    }
+
+    public OverflowFile(String filename, int blockSize, T template, BufferPool bufferPool,
+                        StorageMode storageMode) throws IOException {
+        super(filename, blockSize, template, bufferPool, storageMode);
         this.usedOverflowBlocks = 0;
     }
 
@@ -29,10 +53,7 @@ public class OverflowFile<T extends Record<T>> extends HeapFile<T> {
      */
     public OverflowBlock<T> readOverflowBlock(int index) {
         try {
-            Block<T> genericBlock = super.readBlock(index);
-            OverflowBlock<T> overflowBlock = this.createBlock(index);
-            overflowBlock.fromBytes(genericBlock.getBytes());
-            return overflowBlock;
+            return (OverflowBlock<T>) super.readBlock(index);
         } catch (Exception e) {
             OverflowBlock<T> empty = this.createBlock(index);
             empty.clearRecords();
@@ -49,125 +70,213 @@ public class OverflowFile<T extends Record<T>> extends HeapFile<T> {
     }
 
     /**
-     * Allocates a new overflow block in memory at the end of the file
+     * Allocates an overflow block, a freed block is reused before the file grows
+     * The block is reserved right away, so concurrent chains never get the same index
      */
     public int allocateOverflowBlock() throws IOException {
-        int newIndex = this.getBlockCount();
-        OverflowBlock<T> newBlock = this.createBlock(newIndex);
-        newBlock.clearRecords();
-        newBlock.setNextOverflow(-1);
+        return this.allocateOverflowBlock(-1);
+    }
+
+    /**
+     * Allocates an overflow block close to an existing block of the chain
+     * The block right after nearIndex is preferred, so the chain stays contiguous, then the nearest freed block
+     * after it and then the lowest freed block, the file is extended only when no freed block is left
+     */
+    public synchronized int allocateOverflowBlock(int nearIndex) throws IOException {
+        int blockCount = this.getBlockCount();
+        if (nearIndex >= 0 && nearIndex == blockCount - 1) {
+            this.usedOverflowBlocks++;
+            return this.appendBlock();
+        }
+
+        int newIndex = nearIndex < 0 ? -1 : this.getFreeSpaceMap().nextEmpty(nearIndex + 1);
+        if (newIndex < 0 || newIndex >= blockCount) {
+            newIndex = this.getFreeSpaceMap().firstEmpty();
+        }
+
+        if (newIndex >= 0 && newIndex < blockCount) {
+            this.claimBlock(newIndex);
+        } else {
+            newIndex = this.appendBlock();
+        }
         this.usedOverflowBlocks++;
         return newIndex;
     }
 
     /**
-     * Adds a record to overflow chain
+     * Allocates an extent of count contiguous overflow blocks and returns the first one
+     * The lowest run of freed blocks that is long enough or reaches the end of the file is reused,
+     * otherwise the extent is appended
+     */
+    public synchronized int allocateExtent(int count) throws IOException {
+        if (count < 1) {
+            throw new IllegalArgumentException("Extent must have at least one block: " + count);
+        }
+
+        int blockCount = this.getBlockCount();
+        FreeSpaceMap map = this.getFreeSpaceMap();
+        int start = map.nextEmpty(0);
+        while (start >= 0 && start < blockCount) {
+            int end = start;
+            while (end < blockCount && end - start < count && map.isEmpty(end)) {
+                end++;
+            }
+            if (end - start == count || end == blockCount) {
+                break;
+            }
+            start = map.nextEmpty(end);
+        }
+        if (start < 0 || start > blockCount) {
+            start = blockCount;
+        }
+
+        for (int i = start; i < start + count; i++) {
+            if (i < blockCount) {
+                this.claimBlock(i);
+            } else {
+                this.appendBlock();
+            }
+        }
+        this.usedOverflowBlocks += count;
+        return start;
+    }
+
+    /**
+     * Adds a record to an overflow chain
+     * The chain holder (CHAIN_FIRST, CHAIN_TAIL, CHAIN_FREE, CHAIN_LENGTH) is updated in place
+     * With a known tail at most two chain blocks are touched - the free space hint block,
+     * or the tail and a newly allocated block
+     * @return false if the record could not be stored
      */
-    public int[] addToChain(int firstOverflowIndex, T record) throws IOException {
+    public boolean addToChain(int[] chain, T record) throws IOException {
         // if the chain is empty
-        if (firstOverflowIndex == -1) {
+        if (chain[CHAIN_FIRST] == -1) {
             int newBlockIndex = this.allocateOverflowBlock();
             OverflowBlock<T> newBlock = this.createBlock(newBlockIndex);
 
-            if (newBlock.addRecord(record) != -1) {
-                this.writeOverflowBlock(newBlock);
-                return new int[]{newBlockIndex, 1};
+            if (newBlock.addRecord(record) == -1) {
+                this.markOverflowBlockAsEmpty(newBlockIndex);
+                return false;
             }
-            return null;
+            this.writeOverflowBlock(newBlock);
+
+            chain[CHAIN_FIRST] = newBlockIndex;
+            chain[CHAIN_TAIL] = newBlockIndex;
+            chain[CHAIN_FREE] = newBlock.hasSpace() ? newBlockIndex : -1;
+            chain[CHAIN_LENGTH] = 1;
+            return true;
         }
 
-        // read all chain to memory
-        List<OverflowBlock<T>> chain = this.collectAllBlocksFromChain(firstOverflowIndex);
-        int originalLength = chain.size();
+        // chain written without a tail pointer - walk it once
+        if (chain[CHAIN_TAIL] == -1) {
+            this.describeChain(this.collectAllBlocksFromChain(chain[CHAIN_FIRST], chain[CHAIN_LENGTH]), chain);
+        }
 
-        for (OverflowBlock<T> block : chain) {
+        if (chain[CHAIN_FREE] != -1) {
+            OverflowBlock<T> block = this.readOverflowBlock(chain[CHAIN_FREE]);
             if (block.addRecord(record) != -1) {
                 this.writeOverflowBlock(block);
-                return new int[]{firstOverflowIndex, originalLength};
+                if (!block.hasSpace()) {
+                    chain[CHAIN_FREE] = -1;
+                }
+                return true;
             }
+            chain[CHAIN_FREE] = -1;
         }
 
-        // all blocks are full - add a new empty block at the end of the file
-        int newBlockIndex = this.allocateOverflowBlock();
+        // no block with free space is known - link a new block behind the tail
+        OverflowBlock<T> tail = this.readOverflowBlock(chain[CHAIN_TAIL]);
+        int newBlockIndex = this.allocateOverflowBlock(chain[CHAIN_TAIL]);
         OverflowBlock<T> newBlock = this.createBlock(newBlockIndex);
 
-        if (newBlock.addRecord(record) != -1) {
-            chain.getLast().setNextOverflow(newBlockIndex);
+        if (newBlock.addRecord(record) == -1) {
+            this.markOverflowBlockAsEmpty(newBlockIndex);
+            return false;
+        }
 
-            // write both changed blocks to file
-            this.writeOverflowBlock(chain.getLast());
-            this.writeOverflowBlock(newBlock);
+        tail.setNextOverflow(newBlockIndex);
 
-            return new int[]{firstOverflowIndex, originalLength + 1};
-        }
+        // write both changed blocks to file
+        this.writeOverflowBlock(tail);
+        this.writeOverflowBlock(newBlock);
 
-        this.markOverflowBlockAsEmpty(newBlockIndex);
-        return null;
+        chain[CHAIN_TAIL] = newBlockIndex;
+        chain[CHAIN_FREE] = newBlock.hasSpace() ? newBlockIndex : -1;
+        chain[CHAIN_LENGTH]++;
+        return true;
     }
 
     /**
      * Deletes a record from an overflow chain
+     * The chain holder is updated in place, an emptied block is unlinked from the chain
+     * @return true if the record was found and deleted
      */
-    public int[] deleteFromChain(int[] firstOverflowIndexHolder, String key) throws IOException {
-        int first = firstOverflowIndexHolder[0];
-
+    public boolean deleteFromChain(int[] chain, String key) throws IOException {
         // if the chain is empty, nothing to delete
-        if (first == -1) {
-            return new int[]{0, 0};
+        if (chain[CHAIN_FIRST] == -1) {
+            return false;
         }
 
         // read all chain to memory
-        List<OverflowBlock<T>> chain = this.collectAllBlocksFromChain(first);
+        List<OverflowBlock<T>> blocks = this.collectAllBlocksFromChain(chain[CHAIN_FIRST], chain[CHAIN_LENGTH]);
 
         // try to delete a record from every block in chain
-        boolean anyDeleted = false;
         int deletedIndex = -1;
-
-        for (int i = 0; i < chain.size(); i++) {
-            OverflowBlock<T> b = chain.get(i);
-            boolean deleted = b.deleteRecord(this.createPattern(key));
-            if (deleted) {
-                anyDeleted = true;
+        for (int i = 0; i < blocks.size(); i++) {
+            if (blocks.get(i).deleteRecord(this.createPattern(key))) {
                 deletedIndex = i;
                 break;
             }
         }
 
         // if nothing deleted, nothing changed
-        if (!anyDeleted) {
-            return new int[]{0, chain.size()};
+        if (deletedIndex == -1) {
+            return false;
         }
 
         // record was deleted from block at deletedIndex
-        OverflowBlock<T> deletedBlock = chain.get(deletedIndex);
+        OverflowBlock<T> deletedBlock = blocks.get(deletedIndex);
 
         if (deletedBlock.isEmpty()) {
             int nextAddr = deletedBlock.getNextOverflow();
 
-            if (deletedIndex == 0) {
-                firstOverflowIndexHolder[0] = nextAddr;
-                this.markOverflowBlockAsEmpty(deletedBlock.getAddress());
-            } else {
-                OverflowBlock<T> prevBlock = chain.get(deletedIndex - 1);
+            if (deletedIndex > 0) {
+                OverflowBlock<T> prevBlock = blocks.get(deletedIndex - 1);
                 prevBlock.setNextOverflow(nextAddr);
                 this.writeOverflowBlock(prevBlock);
-                this.markOverflowBlockAsEmpty(deletedBlock.getAddress());
             }
-
-            int newLength = chain.size() - 1;
-            return new int[]{1, newLength};
-
+            this.markOverflowBlockAsEmpty(deletedBlock.getAddress());
+            blocks.remove(deletedIndex);
         } else {
             this.writeOverflowBlock(deletedBlock);
-            return new int[]{1, chain.size()};
+        }
+
+        this.describeChain(blocks, chain);
+        return true;
+    }
+
+    /**
+     * Fills the chain holder from the blocks of the chain in chain order
+     */
+    private void describeChain(List<OverflowBlock<T>> blocks, int[] chain) {
+        chain[CHAIN_FIRST] = blocks.isEmpty() ? -1 : blocks.get(0).getAddress();
+        chain[CHAIN_TAIL] = blocks.isEmpty() ? -1 : blocks.getLast().getAddress();
+        chain[CHAIN_FREE] = -1;
+        chain[CHAIN_LENGTH] = blocks.size();
+
+        for (OverflowBlock<T> block : blocks) {
+            if (block.hasSpace()) {
+                chain[CHAIN_FREE] = block.getAddress();
+                break;
+            }
         }
     }
 
     /**
      * Marks an overflow block as empty
      */
-    public void markOverflowBlockAsEmpty(int index) throws IOException {
-        if (index >= this.getBlockCount()) {
+    public synchronized void markOverflowBlockAsEmpty(int index) throws IOException {
+        if (index < 0 || index >= this.getBlockCount()) {
             return;
         }
 
@@ -183,20 +292,74 @@ public class OverflowFile<T extends Record<T>> extends HeapFile<T> {
 
     /**
      * Finds a record in an overflow chain by key
+     * Blocks are searched through a view over the page, only the matching record is deserialized
      */
-    public T findInChain(int firstOverflowIndex, String key) {
-        int currentIndex = firstOverflowIndex;
-        T pattern = this.createPattern(key);
+    public T findInChain(int firstOverflowIndex, String key) throws IOException {
+        return this.findInChain(firstOverflowIndex, key, 1);
+    }
 
-        while (currentIndex != -1) {
-            OverflowBlock<T> block = this.readOverflowBlock(currentIndex);
-            T foundRecord = block.findRecord(pattern);
+    /**
+     * Finds a record in a chain of the expected length
+     * Contiguous parts of the chain are loaded into the buffer pool with one sequential read
+     */
+    public T findInChain(int firstOverflowIndex, String key, int expectedLength) throws IOException {
+        return this.walkChain(firstOverflowIndex, expectedLength, (index, view) -> view.find(key));
+    }
+
+    /**
+     * Finds the records of several keys in one walk over a chain of the expected length
+     * Found records are put into the map, the walk stops once every key is found
+     */
+    public void findAllInChain(int firstOverflowIndex, List<String> keys, int expectedLength,
+                               Map<String, T> found) throws IOException {
+        List<String> pending = new ArrayList<>(keys);
+        if (pending.isEmpty()) return;
+
+        this.walkChain(firstOverflowIndex, expectedLength, (index, view) -> {
+            pending.removeIf(key -> {
+                T record = view.find(key);
+                if (record == null) {
+                    return false;
+                }
+                found.put(key, record);
+                return true;
+            });
+            return pending.isEmpty() ? Boolean.TRUE : null;
+        });
+    }
 
-            if (foundRecord != null) {
-                return foundRecord;
+    /**
+     * Visits the blocks of a chain of the expected length through views over the pages
+     * until the visitor returns a result, contiguous parts of the chain are prefetched with one sequential read
+     * @return result of the visitor or null if the chain ended first
+     */
+    private <R> R walkChain(int firstOverflowIndex, int expectedLength,
+                            BiFunction<Integer, BlockView<T>, R> visitor) throws IOException {
+        int[] currentIndex = new int[]{firstOverflowIndex};
+        int visited = 0;
+        int runStart = -1;
+        int runEnd = -1;
+
+        while (currentIndex[0] != -1) {
+            int index = currentIndex[0];
+            currentIndex[0] = -1;
+
+            if ((index < runStart || index >= runEnd) && expectedLength - visited > 1) {
+                runStart = index;
+                runEnd = index + Math.min(MAX_RUN_BLOCKS, expectedLength - visited);
+                this.prefetch(runStart, runEnd - runStart);
             }
+            visited++;
 
-            currentIndex = block.getNextOverflow();
+            R result = this.readView(index, view -> {
+                R visitorResult = visitor.apply(index, view);
+                currentIndex[0] = visitorResult == null ? OverflowBlock.readNextOverflow(view) : -1;
+                return visitorResult;
+            });
+
+            if (result != null) {
+                return result;
+            }
         }
 
         return null;
@@ -212,7 +375,7 @@ public class OverflowFile<T extends Record<T>> extends HeapFile<T> {
     /**
      * Sets the number of currently used overflow blocks
      */
-    public void setUsedOverflowBlocks(int usedOverflowBlocks) {
+    public synchronized void setUsedOverflowBlocks(int usedOverflowBlocks) {
         this.usedOverflowBlocks = usedOverflowBlocks;
     }
 
@@ -220,11 +383,30 @@ public class OverflowFile<T extends Record<T>> extends HeapFile<T> {
      * Returns all blocks from chain from specified index
      */
     public List<OverflowBlock<T>> collectAllBlocksFromChain(int firstOverflowIndex)  {
+        return this.collectAllBlocksFromChain(firstOverflowIndex, 1);
+    }
+
+    /**
+     * Returns all blocks of a chain of the expected length
+     * Each contiguous extent of the chain is read with one sequential read, a scattered chain
+     * costs at most one read per block as before
+     */
+    public List<OverflowBlock<T>> collectAllBlocksFromChain(int firstOverflowIndex, int expectedLength) {
         List<OverflowBlock<T>> allBlocks = new ArrayList<>();
+        List<OverflowBlock<T>> run = new ArrayList<>();
+        int runStart = 0;
         int currentIndex = firstOverflowIndex;
 
         while (currentIndex != -1) {
-            OverflowBlock<T> block = this.readOverflowBlock(currentIndex);
+            int offset = currentIndex - runStart;
+            if (offset < 0 || offset >= run.size()) {
+                int length = Math.min(MAX_RUN_BLOCKS, Math.max(1, expectedLength - allBlocks.size()));
+                run = this.readRun(currentIndex, length);
+                runStart = currentIndex;
+                offset = 0;
+            }
+
+            OverflowBlock<T> block = run.get(offset);
             allBlocks.add(block);
             currentIndex = block.getNextOverflow();
         }
@@ -232,33 +414,80 @@ public class OverflowFile<T extends Record<T>> extends HeapFile<T> {
         return allBlocks;
     }
 
+    /**
+     * Reads up to count blocks from the index on, falls back to a single block read
+     */
+    private List<OverflowBlock<T>> readRun(int firstIndex, int count) {
+        List<OverflowBlock<T>> run = new ArrayList<>();
+        if (count > 1) {
+            try {
+                for (Block<T> block : this.readBlocks(firstIndex, count)) {
+                    run.add((OverflowBlock<T>) block);
+                }
+            } catch (Exception e) {
+                run.clear();
+            }
+        }
+        if (run.isEmpty()) {
+            run.add(this.readOverflowBlock(firstIndex));
+        }
+        return run;
+    }
+
+    /**
+     * Shrinks the file to its first liveBlocks blocks once all live blocks were moved there
+     * The occupancy map and the used block count are rebuilt from the live count
+     */
+    public synchronized void truncateToLiveBlocks(int liveBlocks) throws IOException {
+        int blockCount = this.getBlockCount();
+        OverflowBlock<T> emptyBlock = this.createBlock(0);
+        emptyBlock.clearRecords();
+
+        for (int i = 0; i < blockCount; i++) {
+            if (i < liveBlocks) {
+                this.claimBlock(i);
+            } else {
+                this.updateBlockLists(i, emptyBlock);
+            }
+        }
+        this.usedOverflowBlocks = liveBlocks;
+        this.removeEmptyBlocksFromEnd();
+    }
+
     /**
      * Removes empty blocks from the end of the file
      */
     @Override
-    public void removeEmptyBlocksFromEnd() throws IOException {
+    public synchronized void removeEmptyBlocksFromEnd() throws IOException {
         super.removeEmptyBlocksFromEnd();
     }
 
     /**
-     * Updates a record in the overflow chain
+     * Updates a record in the overflow chain of the expected length
      * Returns true if record was found and updated, false otherwise
      */
-    public boolean updateInChain(int firstBlockAddress, String key, T updatedRecord) throws IOException {
-        int currentAddress = firstBlockAddress;
-
-        while (currentAddress != -1) {
-            OverflowBlock<T> block = this.readOverflowBlock(currentAddress);
-
-            if (block.updateRecord(key, updatedRecord)) {
-                this.writeOverflowBlock(block);
-                return true;
-            }
-
-            currentAddress = block.getNextOverflow();
+    public boolean updateInChain(int firstBlockAddress, String key, T updatedRecord, int expectedLength)
+            throws IOException {
+        OverflowBlock<T> block = this.findBlockInChain(firstBlockAddress, key, expectedLength);
+        if (block == null) {
+            return false;
         }
 
-        return false;
+        block.updateRecord(key, updatedRecord);
+        this.writeOverflowBlock(block);
+        return true;
+    }
+
+    /**
+     * Finds the block of a chain of the expected length that holds the record with the key
+     * The chain is searched through views like in {@link #findInChain}, only the matching block is deserialized
+     * @return the block or null if no block of the chain holds the record
+     */
+    public OverflowBlock<T> findBlockInChain(int firstBlockAddress, String key, int expectedLength)
+            throws IOException {
+        Integer index = this.walkChain(firstBlockAddress, expectedLength,
+                (blockIndex, view) -> view.findSlot(key) != -1 ? blockIndex : null);
+        return index == null ? null : this.readOverflowBlock(index);
     }
 
     /**
@@ -0,0 +1,139 @@
+package testers;
+
+import data.Person;
+import database.DatabaseGenerator;
+import hash.AddressingScheme;
+import hash.HashFunction;
+import hash.LHBlock;
+import hash.LinearHashing;
+import heap.BufferPool;
+import heap.StorageMode;
+import overflow.OverflowBlock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Compares classic linear hashing with partial expansions by the expected number of block reads of a search
+ * The same keys are inserted into both files, at regular points the blocks are walked and the cost is computed
+ * from the file layout: a successful search reads the primary block and the chain up to the block of the record,
+ * an unsuccessful search reads the primary block and the whole chain (the chain filter is not counted)
+ * Arguments: [records] [samples] [initialM] [primaryBlockSize] [overflowBlockSize]
+ */
+public class AddressingSchemeBenchmark {
+    private static final int UNSUCCESSFUL_PROBES = 20000;
+
+    public static void main(String[] args) throws IOException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int samples = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int initialM = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int primaryBlockSize = args.length > 3 ? Integer.parseInt(args[3]) : 1024;
+        int overflowBlockSize = args.length > 4 ? Integer.parseInt(args[4]) : 512;
+
+        System.out.println("Záznamy: " + records + ", merania: " + samples + ", M: " + initialM
+                + ", blok: " + primaryBlockSize + " B, overflow blok: " + overflowBlockSize + " B\n");
+
+        Person[] persons = new Person[records];
+        for (int i = 0; i < records; i++) {
+            persons[i] = DatabaseGenerator.generatePerson(String.valueOf(i + 1));
+        }
+
+        for (AddressingScheme scheme : AddressingScheme.values()) {
+            File dir = Files.createTempDirectory("addressing-benchmark").toFile();
+            try {
+                run(dir, scheme, persons, samples, initialM, primaryBlockSize, overflowBlockSize);
+            } finally {
+                File[] files = dir.listFiles();
+                if (files != null) {
+                    for (File f : files) f.delete();
+                }
+                dir.delete();
+            }
+        }
+    }
+
+    private static void run(File dir, AddressingScheme scheme, Person[] persons, int samples, int initialM,
+                            int primaryBlockSize, int overflowBlockSize) throws IOException {
+        LinearHashing<Person> file = new LinearHashing<>(new File(dir, "persons.dat").getPath(), primaryBlockSize,
+                overflowBlockSize, new Person(), initialM, new BufferPool(BufferPool.DEFAULT_MEMORY_BUDGET),
+                StorageMode.FILE_CHANNEL, HashFunction.DEFAULT, scheme);
+
+        System.out.println("═══ " + scheme + " ═══");
+        System.out.printf("%10s %9s %9s %8s %10s %10s %9s%n",
+                "Záznamy", "Bloky", "Overflow", "Hustota", "Úspešné", "Neúspešné", "Max reť.");
+
+        double successSum = 0, unsuccessSum = 0, successMax = 0, unsuccessMax = 0;
+        int inserted = 0;
+        long insertNanos = 0;
+        for (int s = 1; s <= samples; s++) {
+            int until = (int) ((long) persons.length * s / samples);
+            long start = System.nanoTime();
+            for (; inserted < until; inserted++) {
+                file.insert(persons[inserted], persons[inserted].getId());
+            }
+            insertNanos += System.nanoTime() - start;
+
+            double[] cost = searchCost(file);
+            LinearHashing.LinearHashingStats stats = file.getStats();
+            System.out.printf("%10d %9d %9d %8.3f %10.3f %10.3f %9d%n", inserted, stats.totalBlocks,
+                    stats.overflowBlocks, stats.loadFactor, cost[0], cost[1], (int) cost[2]);
+
+            successSum += cost[0];
+            unsuccessSum += cost[1];
+            successMax = Math.max(successMax, cost[0]);
+            unsuccessMax = Math.max(unsuccessMax, cost[1]);
+        }
+
+        long start = System.nanoTime();
+        for (Person person : persons) {
+            if (file.get(person.getId()) == null) {
+                throw new IllegalStateException("Záznam " + person.getId() + " sa nenašiel.");
+            }
+        }
+        long getNanos = System.nanoTime() - start;
+        LinearHashing.LinearHashingStats stats = file.getStats();
+        file.close();
+
+        System.out.printf("Priemer úspešné: %.3f blokov (max %.3f), neúspešné: %.3f blokov (max %.3f)%n",
+                successSum / samples, successMax, unsuccessSum / samples, unsuccessMax);
+        System.out.printf("Insert: %.2f µs/záznam, Get: %.2f µs/záznam, splity: %d%n%n",
+                insertNanos / 1000.0 / persons.length, getNanos / 1000.0 / persons.length, stats.splits);
+    }
+
+    /**
+     * @return average block reads of a successful and of an unsuccessful search and the longest chain
+     */
+    private static double[] searchCost(LinearHashing<Person> file) throws IOException {
+        int blocks = file.getStats().totalBlocks;
+        int[] chainLengths = new int[blocks];
+        long successReads = 0, records = 0;
+        int longestChain = 0;
+
+        for (int b = 0; b < blocks; b++) {
+            LHBlock<Person> primary = file.readPrimaryBlock(b);
+            successReads += primary.getValidCount();
+            records += primary.getValidCount();
+
+            List<OverflowBlock<Person>> chain = file.getOverflowFile().collectAllBlocksFromChain(
+                    primary.getNextOverflow(), primary.getChainLength());
+            for (int c = 0; c < chain.size(); c++) {
+                int count = chain.get(c).getValidCount();
+                successReads += (long) count * (c + 2);
+                records += count;
+            }
+            chainLengths[b] = chain.size();
+            longestChain = Math.max(longestChain, chain.size());
+        }
+
+        // keys that are never inserted, spread over the buckets the same way as real keys
+        long unsuccessReads = 0;
+        for (int i = 0; i < UNSUCCESSFUL_PROBES; i++) {
+            unsuccessReads += 1 + chainLengths[file.getTargetBlock("X" + i)];
+        }
+
+        return new double[]{records == 0 ? 0 : (double) successReads / records,
+                (double) unsuccessReads / UNSUCCESSFUL_PROBES, longestChain};
+    }
+}
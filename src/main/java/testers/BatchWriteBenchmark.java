@@ -0,0 +1,123 @@
+package testers;
+
+import data.Person;
+import database.DatabaseGenerator;
+import hash.LinearHashing;
+import heap.BufferPool;
+import heap.StorageMode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares single record writes with the batched insertAll, updateAll and deleteAll
+ * Both files get the same records in the same order, a small buffer pool makes the block reads visible as misses
+ * Arguments: [records] [batchSize] [poolBytes] [initialM] [primaryBlockSize] [overflowBlockSize]
+ */
+public class BatchWriteBenchmark {
+    public static void main(String[] args) throws IOException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        long poolBytes = args.length > 2 ? Long.parseLong(args[2]) : 256 * 1024;
+        int initialM = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        int primaryBlockSize = args.length > 4 ? Integer.parseInt(args[4]) : 1024;
+        int overflowBlockSize = args.length > 5 ? Integer.parseInt(args[5]) : 512;
+
+        System.out.println("Záznamy: " + records + ", dávka: " + batchSize + ", pool: " + poolBytes + " B, M: "
+                + initialM + ", blok: " + primaryBlockSize + " B, overflow blok: " + overflowBlockSize + " B\n");
+
+        List<Person> persons = new ArrayList<>();
+        for (int i = 0; i < records; i++) {
+            persons.add(DatabaseGenerator.generatePerson(String.valueOf(i + 1)));
+        }
+        List<Person> updates = new ArrayList<>();
+        List<String> deletes = new ArrayList<>();
+        for (int i = 0; i < records; i += 2) {
+            updates.add(DatabaseGenerator.generatePerson(String.valueOf(i + 1)));
+            deletes.add(String.valueOf(i + 2));
+        }
+
+        System.out.printf("%-10s %-8s %10s %12s %9s %9s%n", "Režim", "Operácia", "Čas ms", "Miss poolu", "Bloky", "Overflow");
+        for (boolean batched : new boolean[]{false, true}) {
+            File dir = Files.createTempDirectory("batch-write-benchmark").toFile();
+            try {
+                run(dir, batched, persons, updates, deletes, batchSize, poolBytes, initialM,
+                        primaryBlockSize, overflowBlockSize);
+            } finally {
+                File[] files = dir.listFiles();
+                if (files != null) {
+                    for (File f : files) f.delete();
+                }
+                dir.delete();
+            }
+        }
+    }
+
+    private static void run(File dir, boolean batched, List<Person> persons, List<Person> updates,
+                            List<String> deletes, int batchSize, long poolBytes, int initialM,
+                            int primaryBlockSize, int overflowBlockSize) throws IOException {
+        BufferPool pool = new BufferPool(poolBytes);
+        LinearHashing<Person> file = new LinearHashing<>(new File(dir, "persons.dat").getPath(), primaryBlockSize,
+                overflowBlockSize, new Person(), initialM, pool, StorageMode.FILE_CHANNEL);
+        String mode = batched ? "dávkovo" : "po jednom";
+
+        long[] start = start(pool);
+        for (int from = 0; from < persons.size(); from += batchSize) {
+            List<Person> batch = persons.subList(from, Math.min(persons.size(), from + batchSize));
+            if (batched) {
+                file.insertAll(batch);
+            } else {
+                for (Person person : batch) {
+                    file.insert(person, person.getId());
+                }
+            }
+        }
+        print(mode, "insert", start, pool, file);
+
+        start = start(pool);
+        for (int from = 0; from < updates.size(); from += batchSize) {
+            List<Person> batch = updates.subList(from, Math.min(updates.size(), from + batchSize));
+            if (batched) {
+                file.updateAll(batch);
+            } else {
+                for (Person person : batch) {
+                    file.update(person);
+                }
+            }
+        }
+        print(mode, "update", start, pool, file);
+
+        start = start(pool);
+        for (int from = 0; from < deletes.size(); from += batchSize) {
+            List<String> batch = deletes.subList(from, Math.min(deletes.size(), from + batchSize));
+            if (batched) {
+                file.deleteAll(batch);
+            } else {
+                for (String key : batch) {
+                    file.delete(key);
+                }
+            }
+        }
+        print(mode, "delete", start, pool, file);
+
+        int expected = persons.size() - deletes.size();
+        if (file.getTotalRecords() != expected) {
+            throw new IllegalStateException("Počet záznamov " + file.getTotalRecords() + ", očakávaný " + expected + ".");
+        }
+        file.close();
+    }
+
+    private static long[] start(BufferPool pool) {
+        return new long[]{System.nanoTime(), pool.getMisses()};
+    }
+
+    private static void print(String mode, String operation, long[] start, BufferPool pool,
+                              LinearHashing<Person> file) throws IOException {
+        LinearHashing.LinearHashingStats stats = file.getStats();
+        System.out.printf("%-10s %-8s %10.1f %12d %9d %9d%n", mode, operation, (System.nanoTime() - start[0]) / 1e6,
+                pool.getMisses() - start[1], stats.totalBlocks, stats.overflowBlocks);
+    }
+}
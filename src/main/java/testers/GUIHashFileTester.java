@@ -181,11 +181,15 @@ public class GUIHashFileTester {
         JButton insertOnlyBtn = new JButton("Hromadné vkladanie");
         insertOnlyBtn.addActionListener(e -> runInsertOnly());
 
+        JButton deleteMissingBtn = new JButton("Test mazania chýbajúcich kľúčov");
+        deleteMissingBtn.addActionListener(e -> runDeleteMissingKeysTest());
+
         JButton clearBtn = new JButton("Vyčistiť databázu");
         clearBtn.addActionListener(e -> clearDatabase());
 
         panel.add(randomOpsBtn);
         panel.add(insertOnlyBtn);
+        panel.add(deleteMissingBtn);
         panel.add(clearBtn);
 
         return panel;
@@ -253,6 +257,21 @@ public class GUIHashFileTester {
         }
     }
 
+    /**
+     * Runs the batch delete of missing keys on a temporary hash file
+     */
+    private static void runDeleteMissingKeysTest() {
+        new Thread(() -> {
+            try {
+                String result = hashFileTester.runDeleteMissingKeysTest();
+                SwingUtilities.invokeLater(() -> area.setText(result));
+            } catch (Exception ex) {
+                SwingUtilities.invokeLater(() ->
+                        showError("Chyba pri teste mazania: " + ex.getMessage()));
+            }
+        }).start();
+    }
+
     /**
      * Callback for updating progress during long-running operations
      */
@@ -293,6 +312,8 @@ public class GUIHashFileTester {
             java.io.File dataFile = new java.io.File("pacienti_hash.dat");
             java.io.File overflowFile = new java.io.File("pacienti_hash.dat.overflow");
             java.io.File metaFile = new java.io.File("pacienti_hash.dat.meta");
+            java.io.File headerFile = new java.io.File("pacienti_hash.dat.hdr");
+            java.io.File filterFile = new java.io.File("pacienti_hash.dat.bloom");
 
             Person person = new Person();
 
@@ -308,12 +329,20 @@ public class GUIHashFileTester {
             sb.append("\t- pacienti_hash.dat.meta\n");
             sb.append("\t- Veľkosť: ").append(metaFile.exists() ? metaFile.length() : 0).append(" bytes\n\n");
 
+            sb.append("• HLAVIČKY BUCKETOV:\n");
+            sb.append("\t- pacienti_hash.dat.hdr\n");
+            sb.append("\t- Veľkosť: ").append(headerFile.exists() ? headerFile.length() : 0).append(" bytes\n\n");
+
+            sb.append("• BLOOM FILTER BUCKETOV:\n");
+            sb.append("\t- pacienti_hash.dat.bloom\n");
+            sb.append("\t- Veľkosť: ").append(filterFile.exists() ? filterFile.length() : 0).append(" bytes\n\n");
+
             sb.append("• ŠTRUKTÚRA BLOKOV:\n");
             sb.append("\t- Primárny blok: ").append(hashFile.getClusterSize()).append(" bytes\n");
             sb.append("\t- Overflow blok: ").append(hashFile.getOverflowFile().getClusterSize()).append(" bytes\n");
             sb.append("\t- Veľkosť záznamu: ").append(person.getSize()).append(" bytes\n");
-            sb.append("\t- Záznamov v primárnom bloku: ").append(hashFile.getClusterSize() / person.getSize()).append("\n");
-            sb.append("\t- Záznamov v overflow bloku: ").append(hashFile.getOverflowFile().getClusterSize() / person.getSize()).append("\n");
+            sb.append("\t- Záznamov v primárnom bloku: ").append(hashFile.getRecordsPerBlock()).append("\n");
+            sb.append("\t- Záznamov v overflow bloku: ").append(hashFile.getOverflowFile().getRecordsPerBlock()).append("\n");
 
             area.setText(sb.toString());
 
@@ -0,0 +1,96 @@
+package testers;
+
+import data.Person;
+import database.DatabaseGenerator;
+import hash.HashFunction;
+import hash.LHBlock;
+import hash.LinearHashing;
+import heap.BufferPool;
+import heap.StorageMode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares the hash functions on sequential numeric keys ("1", "2", ...)
+ * For every function a hash file is filled with the same keys and the distribution
+ * of overflow chain lengths over the primary blocks is printed
+ * Arguments: [records] [initialM] [primaryBlockSize] [overflowBlockSize]
+ */
+public class HashDistributionBenchmark {
+    public static void main(String[] args) throws IOException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int initialM = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int primaryBlockSize = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+        int overflowBlockSize = args.length > 3 ? Integer.parseInt(args[3]) : 512;
+
+        System.out.println("Záznamy: " + records + ", M: " + initialM
+                + ", blok: " + primaryBlockSize + " B, overflow blok: " + overflowBlockSize + " B\n");
+
+        for (HashFunction function : HashFunction.values()) {
+            File dir = Files.createTempDirectory("hash-benchmark").toFile();
+            try {
+                run(dir, function, records, initialM, primaryBlockSize, overflowBlockSize);
+            } finally {
+                File[] files = dir.listFiles();
+                if (files != null) {
+                    for (File f : files) f.delete();
+                }
+                dir.delete();
+            }
+        }
+    }
+
+    private static void run(File dir, HashFunction function, int records, int initialM,
+                            int primaryBlockSize, int overflowBlockSize) throws IOException {
+        LinearHashing<Person> file = new LinearHashing<>(new File(dir, "persons.dat").getPath(), primaryBlockSize,
+                overflowBlockSize, new Person(), initialM, new BufferPool(BufferPool.DEFAULT_MEMORY_BUDGET),
+                StorageMode.FILE_CHANNEL, function);
+
+        long start = System.nanoTime();
+        for (int i = 1; i <= records; i++) {
+            String id = String.valueOf(i);
+            file.insert(DatabaseGenerator.generatePerson(id), id);
+        }
+        long insertNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 1; i <= records; i++) {
+            if (file.get(String.valueOf(i)) == null) {
+                throw new IllegalStateException("Záznam " + i + " sa nenašiel.");
+            }
+        }
+        long getNanos = System.nanoTime() - start;
+
+        LinearHashing.LinearHashingStats stats = file.getStats();
+        Map<Integer, Integer> histogram = new TreeMap<>();
+        long chainBlocks = 0;
+        int maxChain = 0;
+        for (int i = 0; i < stats.totalBlocks; i++) {
+            LHBlock<Person> block = file.readPrimaryBlock(i);
+            int chain = block.getChainLength();
+            histogram.merge(chain, 1, Integer::sum);
+            chainBlocks += chain;
+            maxChain = Math.max(maxChain, chain);
+        }
+        file.close();
+
+        System.out.println("═══ " + function + " ═══");
+        System.out.println("Primárne bloky: " + stats.totalBlocks + " (level " + stats.level
+                + ", split pointer " + stats.splitPointer + ")");
+        System.out.println("Overflow bloky: " + stats.overflowBlocks
+                + ", záznamy v overflow: " + stats.totalOverflowRecords);
+        System.out.printf("Hustota: %.3f%n", stats.loadFactor);
+        System.out.printf("Priemerná dĺžka reťazca: %.3f, maximálna: %d%n",
+                (double) chainBlocks / stats.totalBlocks, maxChain);
+        System.out.println("Dĺžka reťazca -> počet blokov:");
+        for (Map.Entry<Integer, Integer> e : histogram.entrySet()) {
+            System.out.printf("  %3d -> %d%n", e.getKey(), e.getValue());
+        }
+        System.out.printf("Insert: %.2f µs/záznam, get: %.2f µs/záznam%n%n",
+                insertNanos / 1000.0 / records, getNanos / 1000.0 / records);
+    }
+}
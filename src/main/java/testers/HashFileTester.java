@@ -1,12 +1,20 @@
 package testers;
 
 import data.Person;
+import hash.BucketDirectory;
+import hash.HashFunction;
 import hash.LinearHashing;
 import hash.LHBlock;
+import hash.SplitPolicy;
+import heap.BufferPool;
+import heap.StorageMode;
 import overflow.OverflowBlock;
 import overflow.OverflowFile;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.*;
 import java.util.function.Consumer;
@@ -263,27 +271,29 @@ public class HashFileTester {
         this.insertedPersons.clear();
 
         LinearHashing.LinearHashingStats stats = hashFile.getStats();
+        BucketDirectory headers = hashFile.getBucketDirectory();
+        OverflowFile<Person> overflowFile = hashFile.getOverflowFile();
         for (int i = 0; i < stats.totalBlocks; i++) {
-            LHBlock<Person> primaryBlock = hashFile.readPrimaryBlock(i);
-
-            for (Person record : primaryBlock.getRecords()) {
-                if (record != null && !record.getKey().trim().isEmpty()) {
-                    this.insertedPersons.add(record);
+            // empty buckets are skipped without reading their primary block
+            if (headers.getValidCount(i) > 0) {
+                for (Person record : hashFile.readPrimaryBlock(i).getRecords()) {
+                    if (record != null && !record.getKey().trim().isEmpty()) {
+                        this.insertedPersons.add(record);
+                    }
                 }
             }
 
-            int overflowPointer = primaryBlock.getNextOverflow();
-            while (overflowPointer != -1) {
-                OverflowFile<Person> overflowFile = hashFile.getOverflowFile();
-                OverflowBlock<Person> overflowBlock = overflowFile.readOverflowBlock(overflowPointer);
-
+            int overflowPointer = headers.getNextOverflow(i);
+            if (overflowPointer == -1) {
+                continue;
+            }
+            for (OverflowBlock<Person> overflowBlock : overflowFile.collectAllBlocksFromChain(
+                    overflowPointer, headers.getChainLength(i))) {
                 for (Person record : overflowBlock.getRecords()) {
                     if (record != null && !record.getKey().trim().isEmpty()) {
                         this.insertedPersons.add(record);
                     }
                 }
-
-                overflowPointer = overflowBlock.getNextOverflow();
             }
         }
 
@@ -323,7 +333,8 @@ public class HashFileTester {
             }
 
             // checks if split pointer and level are correct
-            int expectedTotalBlocks = hashFile.getM() * (int) Math.pow(2, stats.level) + stats.splitPointer;
+            int expectedTotalBlocks = (int) hashFile.getAddressingScheme()
+                    .bucketCount(hashFile.getM(), stats.level, stats.splitPointer);
             if (stats.totalBlocks != expectedTotalBlocks) {
                 errors.append("Nesúlad v počte blokov: očakávané ").append(expectedTotalBlocks)
                         .append(", skutočné ").append(stats.totalBlocks)
@@ -518,6 +529,106 @@ public class HashFileTester {
         return result.toString();
     }
 
+    /**
+     * Batch delete of keys that are not in the file from a bucket with a sparse overflow chain
+     * Runs on a temporary file - keys with the same String.hashCode share one bucket, a high merge threshold
+     * keeps single deletes from compacting its chain, then deleteAll rewrites the chain without deleting
+     * anything and new records are inserted over the freed blocks
+     */
+    public String runDeleteMissingKeysTest() throws IOException {
+        // 32 keys of five "Aa"/"BB" pairs, all with the same String.hashCode
+        List<String> colliding = new ArrayList<>();
+        for (int mask = 0; mask < 32; mask++) {
+            StringBuilder key = new StringBuilder();
+            for (int pair = 0; pair < 5; pair++) {
+                key.append((mask >> pair & 1) == 0 ? "Aa" : "BB");
+            }
+            colliding.add(key.toString());
+        }
+        List<String> present = new ArrayList<>(colliding.subList(0, 24));
+        List<String> missing = colliding.subList(24, 32);
+
+        Path dir = Files.createTempDirectory("lh_delete_missing");
+        String filename = dir.resolve("test.dat").toString();
+        LinearHashing<Person> file = new LinearHashing<>(filename, 300, 200, new Person(), 2,
+                new BufferPool(1 << 16), StorageMode.FILE_CHANNEL, HashFunction.JAVA_STRING);
+        StringBuilder errors = new StringBuilder();
+        boolean sparse = false;
+        try {
+            file.setSplitPolicy(new SplitPolicy(0.8, 0.7, false, 0, 0.0));
+            for (String key : present) {
+                file.insert(this.personWithId(key), key);
+            }
+            List<String> fillers = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                fillers.add("F" + i);
+                file.insert(this.personWithId("F" + i), "F" + i);
+            }
+
+            // deletes below the merge threshold skip the compaction of the chain until it fits fewer blocks
+            BucketDirectory headers = file.getBucketDirectory();
+            while (!sparse && present.size() > 1) {
+                if (!fillers.isEmpty()) {
+                    file.delete(fillers.removeLast());
+                } else {
+                    file.delete(present.removeFirst());
+                }
+                int bucket = file.getTargetBlock(colliding.getFirst());
+                sparse = headers.getNextOverflow(bucket) != -1
+                        && headers.getValidCount(bucket) + headers.getOverflowRecordCount(bucket)
+                        <= file.getRecordsPerBlock() + (headers.getChainLength(bucket) - 1)
+                        * file.getOverflowFile().getRecordsPerBlock();
+            }
+
+            int deleted = file.deleteAll(missing);
+            if (deleted != 0) {
+                errors.append("deleteAll vrátil ").append(deleted).append(" namiesto 0\n");
+            }
+
+            List<Person> newRecords = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                newRecords.add(this.personWithId("G" + i));
+            }
+            file.insertAll(newRecords);
+
+            for (String key : present) {
+                if (file.get(key) == null) {
+                    errors.append("Nenašiel sa záznam ").append(key).append("\n");
+                }
+            }
+            for (String key : fillers) {
+                if (file.get(key) == null) {
+                    errors.append("Nenašiel sa záznam ").append(key).append("\n");
+                }
+            }
+        } finally {
+            file.close();
+            File[] files = dir.toFile().listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            dir.toFile().delete();
+        }
+
+        StringBuilder result = new StringBuilder();
+        result.append("TEST MAZANIA CHÝBAJÚCICH KĽÚČOV\n\n");
+        result.append("• Riedky overflow reťazec pred deleteAll: ").append(sparse ? "áno" : "nie").append("\n");
+        if (errors.length() > 0) {
+            result.append("\nDETEKOVANÉ CHYBY:\n").append(errors);
+        } else {
+            result.append("\nTest prebehol úspešne\n");
+        }
+        return result.toString();
+    }
+
+    private Person personWithId(String id) {
+        String name = NAMES[random.nextInt(NAMES.length)];
+        String surname = SURNAMES[random.nextInt(SURNAMES.length)];
+        return new Person(name, surname, LocalDate.of(1970 + random.nextInt(40), 1, 1), id);
+    }
+
     /**
      * Clears the database by deleting all data files and recreating empty structures
      */
@@ -528,6 +639,8 @@ public class HashFileTester {
 
         new java.io.File("pacienti_hash.dat").delete();
         new java.io.File("pacienti_hash.dat.meta").delete();
+        new java.io.File("pacienti_hash.dat.hdr").delete();
+        new java.io.File("pacienti_hash.dat.bloom").delete();
         new java.io.File("pacienti_hash.dat.overflow").delete();
         new java.io.File("pacienti_hash.dat.overflow.meta").delete();
 
@@ -573,6 +686,10 @@ public class HashFileTester {
             sb.append("• Neprázdne bloky: ").append(stats.nonEmptyBlocks).append("\n");
             sb.append("• Overflow bloky: ").append(stats.overflowBlocks).append("\n");
             sb.append("• Záznamy v overflow: ").append(stats.totalOverflowRecords).append("\n");
+            sb.append("• Naplnenie primárnych blokov: ")
+                    .append(LinearHashing.LinearHashingStats.formatHistogram(stats.fillHistogram)).append("\n");
+            sb.append("• Dĺžky overflow reťazcov: ")
+                    .append(LinearHashing.LinearHashingStats.formatHistogram(stats.chainLengthHistogram)).append("\n");
             sb.append("• Hustota (load factor): ").append(String.format("%.2f", stats.loadFactor)).append("\n");
 
             return sb.toString();
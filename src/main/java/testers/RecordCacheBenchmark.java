@@ -0,0 +1,89 @@
+package testers;
+
+import data.Person;
+import database.DatabaseGenerator;
+import database.RecordCache;
+import hash.LinearHashing;
+import heap.BufferPool;
+import heap.StorageMode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Measures lookups of persons with a skewed access pattern in front of a small buffer pool,
+ * with the record cache disabled and with several budgets
+ * Most lookups go to a small set of hot persons, as the recently tested patients of the database
+ * Arguments: [records] [lookups] [hotRecords] [hotShare] [poolBytes]
+ */
+public class RecordCacheBenchmark {
+    private static final long[] CACHE_BUDGETS = {0, 64 * 1024, 256 * 1024, 1024 * 1024};
+
+    public static void main(String[] args) throws IOException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 500000;
+        int hotRecords = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        double hotShare = args.length > 3 ? Double.parseDouble(args[3]) : 0.9;
+        long poolBytes = args.length > 4 ? Long.parseLong(args[4]) : 64 * 1024;
+
+        System.out.println("Záznamy: " + records + ", vyhľadania: " + lookups + ", horúce záznamy: " + hotRecords
+                + " (" + Math.round(hotShare * 100) + " %), pool: " + poolBytes + " B\n");
+
+        File dir = Files.createTempDirectory("record-cache-benchmark").toFile();
+        try {
+            String filename = new File(dir, "persons.dat").getPath();
+            LinearHashing<Person> file = new LinearHashing<>(filename, 1024, 512, new Person(), 4,
+                    new BufferPool(BufferPool.DEFAULT_MEMORY_BUDGET), StorageMode.FILE_CHANNEL);
+            for (int i = 0; i < records; i++) {
+                Person person = DatabaseGenerator.generatePerson(String.valueOf(i + 1));
+                file.insert(person, person.getId());
+            }
+            file.close();
+
+            System.out.printf("%-10s %10s %12s %12s %10s%n", "Cache", "Čas ms", "Úspešnosť", "Miss poolu", "Záznamy");
+            for (long budget : CACHE_BUDGETS) {
+                run(filename, budget, records, lookups, hotRecords, hotShare, poolBytes);
+            }
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    private static void run(String filename, long budget, int records, int lookups, int hotRecords, double hotShare,
+                            long poolBytes) throws IOException {
+        BufferPool pool = new BufferPool(poolBytes);
+        LinearHashing<Person> file = new LinearHashing<>(filename, 1024, 512, new Person(), 4, pool,
+                StorageMode.FILE_CHANNEL);
+        RecordCache<Person> cache = new RecordCache<>(new Person(), budget);
+        Random random = new Random(7);
+
+        long misses = pool.getMisses();
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            int id = random.nextDouble() < hotShare ? random.nextInt(hotRecords) : random.nextInt(records);
+            String key = String.valueOf(id + 1);
+
+            // same lookup as Database.findPerson
+            Person person = cache.get(key);
+            if (person == null) {
+                long stamp = cache.stamp(key);
+                person = file.get(key);
+                cache.fill(person, stamp);
+            }
+            if (person == null) {
+                throw new IllegalStateException("Záznam " + key + " sa nenašiel.");
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%-10s %10.1f %11.1f%% %12d %10d%n", budget == 0 ? "vypnutá" : budget / 1024 + " kB",
+                elapsed / 1e6, cache.getHitRatio() * 100, pool.getMisses() - misses, cache.size());
+        file.close();
+    }
+}
@@ -0,0 +1,100 @@
+package testers;
+
+import data.Person;
+import database.DatabaseGenerator;
+import hash.LinearHashing;
+import heap.BufferPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Compares insert and delete latencies with inline and with background restructuring
+ * The same keys are inserted and then half of them deleted, percentiles of single operations are printed
+ * Arguments: [records] [initialM] [primaryBlockSize] [overflowBlockSize]
+ */
+public class RestructureLatencyBenchmark {
+    public static void main(String[] args) throws IOException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int initialM = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int primaryBlockSize = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+        int overflowBlockSize = args.length > 3 ? Integer.parseInt(args[3]) : 512;
+
+        System.out.println("Záznamy: " + records + ", M: " + initialM
+                + ", blok: " + primaryBlockSize + " B, overflow blok: " + overflowBlockSize + " B\n");
+
+        for (boolean background : new boolean[]{false, true}) {
+            File dir = Files.createTempDirectory("restructure-benchmark").toFile();
+            try {
+                run(dir, background, records, initialM, primaryBlockSize, overflowBlockSize);
+            } finally {
+                File[] files = dir.listFiles();
+                if (files != null) {
+                    for (File f : files) f.delete();
+                }
+                dir.delete();
+            }
+        }
+    }
+
+    private static void run(File dir, boolean background, int records, int initialM,
+                            int primaryBlockSize, int overflowBlockSize) throws IOException {
+        LinearHashing<Person> file = new LinearHashing<>(new File(dir, "persons.dat").getPath(), primaryBlockSize,
+                overflowBlockSize, new Person(), initialM, new BufferPool(BufferPool.DEFAULT_MEMORY_BUDGET));
+        file.setBackgroundRestructuring(background);
+
+        Person[] persons = new Person[records];
+        for (int i = 0; i < records; i++) {
+            persons[i] = DatabaseGenerator.generatePerson(String.valueOf(i + 1));
+        }
+
+        long[] insertNanos = new long[records];
+        long start = System.nanoTime();
+        for (int i = 0; i < records; i++) {
+            long t = System.nanoTime();
+            file.insert(persons[i], persons[i].getId());
+            insertNanos[i] = System.nanoTime() - t;
+        }
+        long insertTotal = System.nanoTime() - start;
+
+        long[] deleteNanos = new long[records / 2];
+        start = System.nanoTime();
+        for (int i = 0; i < deleteNanos.length; i++) {
+            long t = System.nanoTime();
+            file.delete(persons[i].getId());
+            deleteNanos[i] = System.nanoTime() - t;
+        }
+        long deleteTotal = System.nanoTime() - start;
+
+        for (int i = deleteNanos.length; i < records; i++) {
+            if (file.get(persons[i].getId()) == null) {
+                throw new IllegalStateException("Záznam " + persons[i].getId() + " sa nenašiel.");
+            }
+        }
+
+        LinearHashing.LinearHashingStats stats = file.getStats();
+        file.close();
+
+        System.out.println("═══ " + (background ? "Reorganizácia na pozadí" : "Reorganizácia počas operácie") + " ═══");
+        System.out.println("Primárne bloky: " + stats.totalBlocks + ", overflow bloky: " + stats.overflowBlocks);
+        System.out.printf("Hustota: %.3f%n", stats.loadFactor);
+        print("Insert", insertNanos, insertTotal);
+        print("Delete", deleteNanos, deleteTotal);
+        System.out.println();
+    }
+
+    private static void print(String label, long[] nanos, long total) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%s: %.2f µs/záznam, p50 %.1f µs, p99 %.1f µs, p99.9 %.1f µs, max %.1f µs%n", label,
+                total / 1000.0 / nanos.length, percentile(sorted, 0.50), percentile(sorted, 0.99),
+                percentile(sorted, 0.999), sorted[sorted.length - 1] / 1000.0);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1000.0;
+    }
+}
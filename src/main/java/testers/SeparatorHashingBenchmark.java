@@ -0,0 +1,100 @@
+package testers;
+
+import data.Person;
+import database.DatabaseGenerator;
+import hash.HashIndex;
+import hash.HashIndexStats;
+import hash.HashIndexType;
+import heap.BufferPool;
+import heap.StorageMode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Compares the hashing engines by the number of block reads of a get
+ * The file is built with a large buffer pool and reopened with a pool of two pages,
+ * so every block a get touches is a miss of the pool
+ * Arguments: [records] [initialBuckets] [blockSize] [overflowBlockSize]
+ */
+public class SeparatorHashingBenchmark {
+    private static final int UNSUCCESSFUL_PROBES = 20000;
+
+    public static void main(String[] args) throws IOException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int initialBuckets = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int blockSize = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+        int overflowBlockSize = args.length > 3 ? Integer.parseInt(args[3]) : 512;
+
+        System.out.println("Záznamy: " + records + ", počiatočné buckety: " + initialBuckets
+                + ", blok: " + blockSize + " B, overflow blok: " + overflowBlockSize + " B\n");
+
+        Person[] persons = new Person[records];
+        for (int i = 0; i < records; i++) {
+            persons[i] = DatabaseGenerator.generatePerson(String.valueOf(i + 1));
+        }
+
+        System.out.printf("%-11s %9s %8s %11s %9s %9s %11s %9s%n", "Typ", "Bloky", "Hustota",
+                "Insert µs", "Úspešné", "Max", "Neúspešné", "Max");
+        for (HashIndexType type : HashIndexType.values()) {
+            File dir = Files.createTempDirectory("separator-benchmark").toFile();
+            try {
+                run(dir, type, persons, initialBuckets, blockSize, overflowBlockSize);
+            } finally {
+                File[] files = dir.listFiles();
+                if (files != null) {
+                    for (File f : files) f.delete();
+                }
+                dir.delete();
+            }
+        }
+    }
+
+    private static void run(File dir, HashIndexType type, Person[] persons, int initialBuckets,
+                            int blockSize, int overflowBlockSize) throws IOException {
+        String filename = new File(dir, "persons.dat").getPath();
+        HashIndex<Person> file = type.open(filename, blockSize, overflowBlockSize, new Person(), initialBuckets,
+                new BufferPool(BufferPool.DEFAULT_MEMORY_BUDGET), StorageMode.FILE_CHANNEL);
+
+        long start = System.nanoTime();
+        for (Person person : persons) {
+            file.insert(person, person.getId());
+        }
+        long insertNanos = System.nanoTime() - start;
+        HashIndexStats stats = file.getStats();
+        file.close();
+
+        BufferPool pool = new BufferPool(2L * Math.max(blockSize, overflowBlockSize));
+        file = type.open(filename, blockSize, overflowBlockSize, new Person(), initialBuckets, pool,
+                StorageMode.FILE_CHANNEL);
+
+        long successReads = 0, successMax = 0;
+        for (Person person : persons) {
+            long misses = pool.getMisses();
+            if (file.get(person.getId()) == null) {
+                throw new IllegalStateException("Záznam " + person.getId() + " sa nenašiel.");
+            }
+            long reads = pool.getMisses() - misses;
+            successReads += reads;
+            successMax = Math.max(successMax, reads);
+        }
+
+        long unsuccessReads = 0, unsuccessMax = 0;
+        for (int i = 0; i < UNSUCCESSFUL_PROBES; i++) {
+            long misses = pool.getMisses();
+            if (file.get("X" + i) != null) {
+                throw new IllegalStateException("Nájdený neexistujúci záznam X" + i + ".");
+            }
+            long reads = pool.getMisses() - misses;
+            unsuccessReads += reads;
+            unsuccessMax = Math.max(unsuccessMax, reads);
+        }
+        file.close();
+
+        System.out.printf("%-11s %9d %8.3f %11.2f %9.3f %9d %11.3f %9d%n", type, stats.totalBlocks,
+                stats.loadFactor, insertNanos / 1000.0 / persons.length,
+                (double) successReads / persons.length, successMax,
+                (double) unsuccessReads / UNSUCCESSFUL_PROBES, unsuccessMax);
+    }
+}
@@ -0,0 +1,131 @@
+package testers;
+
+import data.Person;
+import database.DatabaseGenerator;
+import hash.LHBlock;
+import hash.LinearHashing;
+import hash.SplitPolicy;
+import heap.BufferPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares split policies on the same workload
+ * 1. growth - all records are inserted
+ * 2. shrink - records are deleted until the file is just above the merge threshold
+ * 3. boundary - bursts of 200 deletes and 200 inserts alternate around the merge threshold
+ * For every phase the number of splits and merges and the chain lengths are printed
+ * Arguments: [records] [initialM] [primaryBlockSize] [overflowBlockSize]
+ */
+public class SplitPolicyBenchmark {
+    public static void main(String[] args) throws IOException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int initialM = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int primaryBlockSize = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+        int overflowBlockSize = args.length > 3 ? Integer.parseInt(args[3]) : 512;
+
+        Map<String, SplitPolicy> policies = new LinkedHashMap<>();
+        policies.put("Pôvodná (0.8 / 0.4)", SplitPolicy.DEFAULT);
+        policies.put("Len primárne bloky (0.8 / 0.4)", new SplitPolicy(0.8, 0.4, true, 0, 0.0));
+        policies.put("Reťazec > 1 blok", new SplitPolicy(0.8, 0.4, false, 1, 0.0));
+        policies.put("Reťazec > 1 blok, hysterézia 0.15", new SplitPolicy(0.8, 0.4, false, 1, 0.15));
+        policies.put("Hysterézia 0.2", new SplitPolicy(0.8, 0.4, false, 0, 0.2));
+
+        System.out.println("Záznamy: " + records + ", M: " + initialM
+                + ", blok: " + primaryBlockSize + " B, overflow blok: " + overflowBlockSize + " B\n");
+
+        for (Map.Entry<String, SplitPolicy> e : policies.entrySet()) {
+            File dir = Files.createTempDirectory("split-policy-benchmark").toFile();
+            try {
+                run(dir, e.getKey(), e.getValue(), records, initialM, primaryBlockSize, overflowBlockSize);
+            } finally {
+                File[] files = dir.listFiles();
+                if (files != null) {
+                    for (File f : files) f.delete();
+                }
+                dir.delete();
+            }
+        }
+    }
+
+    private static void run(File dir, String name, SplitPolicy policy, int records, int initialM,
+                            int primaryBlockSize, int overflowBlockSize) throws IOException {
+        LinearHashing<Person> file = new LinearHashing<>(new File(dir, "persons.dat").getPath(), primaryBlockSize,
+                overflowBlockSize, new Person(), initialM, new BufferPool(BufferPool.DEFAULT_MEMORY_BUDGET));
+        file.setSplitPolicy(policy);
+        Random random = new Random(42);
+        List<String> keys = new ArrayList<>();
+        int nextKey = 1;
+
+        System.out.println("═══ " + name + " ═══");
+
+        long start = System.nanoTime();
+        while (keys.size() < records) {
+            String id = String.valueOf(nextKey++);
+            file.insert(DatabaseGenerator.generatePerson(id), id);
+            keys.add(id);
+        }
+        long[] last = print(file, "Rast", System.nanoTime() - start, records, new long[2]);
+
+        start = System.nanoTime();
+        int operations = 0;
+        while (file.getStats().loadFactor > policy.getMinLoad() + 0.002 && keys.size() > 1) {
+            for (int i = 0; i < 100 && keys.size() > 1; i++, operations++) {
+                file.delete(keys.remove(random.nextInt(keys.size())));
+            }
+        }
+        last = print(file, "Mazanie", System.nanoTime() - start, operations, last);
+
+        start = System.nanoTime();
+        operations = records / 2;
+        for (int i = 0; i < operations; i++) {
+            if ((i / 200) % 2 == 0 && keys.size() > 1) {
+                file.delete(keys.remove(random.nextInt(keys.size())));
+            } else {
+                String id = String.valueOf(nextKey++);
+                file.insert(DatabaseGenerator.generatePerson(id), id);
+                keys.add(id);
+            }
+        }
+        print(file, "Hranica", System.nanoTime() - start, operations, last);
+
+        start = System.nanoTime();
+        for (String key : keys) {
+            if (file.get(key) == null) {
+                throw new IllegalStateException("Záznam " + key + " sa nenašiel.");
+            }
+        }
+        System.out.printf("Get: %.2f µs/záznam%n%n", (System.nanoTime() - start) / 1000.0 / keys.size());
+        file.close();
+    }
+
+    /**
+     * Prints one phase
+     * @return split and merge counters after the phase
+     */
+    private static long[] print(LinearHashing<Person> file, String phase, long nanos, int operations,
+                                long[] before) throws IOException {
+        LinearHashing.LinearHashingStats stats = file.getStats();
+        long chainBlocks = 0;
+        int maxChain = 0;
+        for (int i = 0; i < stats.totalBlocks; i++) {
+            LHBlock<Person> block = file.readPrimaryBlock(i);
+            chainBlocks += block.getChainLength();
+            maxChain = Math.max(maxChain, block.getChainLength());
+        }
+
+        System.out.printf("%-8s splity %6d, merge %6d, bloky %6d, overflow %5d, hustota %.3f, "
+                        + "reťazec priemer %.3f max %d, %.2f µs/operácia%n",
+                phase, stats.splits - before[0], stats.merges - before[1], stats.totalBlocks, stats.overflowBlocks,
+                stats.loadFactor, (double) chainBlocks / stats.totalBlocks, maxChain,
+                operations == 0 ? 0.0 : nanos / 1000.0 / operations);
+        return new long[]{stats.splits, stats.merges};
+    }
+}